@@ -0,0 +1,193 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Resizes grayscale images in memory by area averaging: every pixel of the resized image is the mean
+ * of the part of the original image it covers, each original pixel weighted by how much of it lies
+ * under the resized pixel. Shrinking a photo this way keeps every pixel of it in the result, where
+ * taking the nearest pixel keeps one in every block and lets the noise of that one through.
+ *
+ * The kernel is separable and works in integers only. Measured in units of 1/(srcWidth * dstWidth)
+ * of the image width, every original pixel is dstWidth units wide and every resized pixel srcWidth
+ * units wide, so the overlap of the two is a whole number of units; the same goes for the rows. A
+ * row is first averaged across into integer sums, then those sums are added up down the rows with
+ * the weights of the rows, and the total is divided by srcWidth * srcHeight with rounding at the
+ * very end. The result is the exact area average rounded to the nearest integer; an image resized
+ * to its own size comes back unchanged.
+ *
+ * Images are int[][] arrays of grayscale values, 0 to 255, the top row first, like the imageArray
+ * of DibDump. The weights of one size are computed once when the AreaResizer is constructed, and
+ * the rows of the resized image can be split into bands, each resized by its own thread.
+ *
+ * AreaResizer  - constructs a resizer from one image size to another
+ * resize       - resizes a whole image, by one thread or by bands of rows on a pool of threads
+ * resizeRows   - resizes one band of rows of an image
+ * weights      - computes the weights of the original pixels for every resized pixel along one axis
+ */
+public class AreaResizer
+{
+   private int srcWidth;                            // the number of pixels in each row of the original image
+   private int srcHeight;                           // the number of rows of the original image
+   private int dstWidth;                            // the number of pixels in each row of the resized image
+   private int dstHeight;                           // the number of rows of the resized image
+   private Axis across;                             // the weights of the original columns for every resized column
+   private Axis down;                               // the weights of the original rows for every resized row
+
+   /**
+    * Constructs a resizer from images of one size to another, either smaller or larger.
+    *
+    * @param srcWidth    the number of pixels in each row of the original images
+    * @param srcHeight   the number of rows of the original images
+    * @param dstWidth    the number of pixels in each row of the resized images
+    * @param dstHeight   the number of rows of the resized images
+    */
+   public AreaResizer(int srcWidth, int srcHeight, int dstWidth, int dstHeight)
+   {
+      if (srcWidth < 1 || srcHeight < 1 || dstWidth < 1 || dstHeight < 1)
+         throw new IllegalArgumentException("Images need at least 1 pixel, not " + srcWidth + "x" + srcHeight +
+                                            " to " + dstWidth + "x" + dstHeight);
+
+      this.srcWidth = srcWidth;
+      this.srcHeight = srcHeight;
+      this.dstWidth = dstWidth;
+      this.dstHeight = dstHeight;
+      across = weights(srcWidth, dstWidth);
+      down = weights(srcHeight, dstHeight);
+   } // public AreaResizer(int srcWidth, int srcHeight, int dstWidth, int dstHeight)
+
+   /**
+    * Computes, for every resized pixel along one axis, the original pixels it covers and how many
+    * units of each. Original pixel i spans units [i * dst, (i + 1) * dst) and resized pixel j spans
+    * units [j * src, (j + 1) * src), so the weights of every resized pixel add up to src.
+    *
+    * @param src   the number of original pixels along the axis
+    * @param dst   the number of resized pixels along the axis
+    * @return      the weights of the axis
+    */
+   static Axis weights(int src, int dst)
+   {
+      Axis axis = new Axis();
+      axis.first = new int[dst];
+      axis.offset = new int[dst + 1];
+
+      for (int j = 0; j < dst; j++)                                          // counts the pixels under each first
+      {
+         long start = (long) j * src;                                        // the units covered by resized pixel j
+         long end = start + src;
+         axis.first[j] = (int) (start / dst);                                // the first original pixel under it
+         axis.offset[j + 1] = axis.offset[j] + (int) ((end + dst - 1) / dst - axis.first[j]);
+      }
+
+      axis.weight = new int[axis.offset[dst]];
+      for (int j = 0, w = 0; j < dst; j++)
+      {
+         long start = (long) j * src;
+         long end = start + src;
+         for (int i = axis.first[j]; (long) i * dst < end; i++)
+            axis.weight[w++] = (int) (Math.min(end, (long) (i + 1) * dst) - Math.max(start, (long) i * dst));
+      }
+      return axis;
+   } // static Axis weights(int src, int dst)
+
+   /**
+    * Resizes a whole image on the calling thread.
+    *
+    * @param src   the original image, grayscale values from 0 to 255, the top row first
+    * @param dst   filled with the resized image
+    */
+   public void resize(int[][] src, int[][] dst)
+   {
+      resizeRows(src, dst, 0, dstHeight);
+   }
+
+   /**
+    * Resizes a whole image, split into bands of rows that are resized by the threads of a pool at the
+    * same time. Every band writes its own rows of the resized image only.
+    *
+    * @param src     the original image, grayscale values from 0 to 255, the top row first
+    * @param dst     filled with the resized image
+    * @param pool    the threads resizing the bands
+    * @param bands   the number of bands, at most the number of resized rows
+    * @throws InterruptedException   thrown if interrupted while waiting for the bands
+    */
+   public void resize(int[][] src, int[][] dst, ExecutorService pool, int bands) throws InterruptedException
+   {
+      bands = Math.max(1, Math.min(bands, dstHeight));
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+
+      for (int b = 0; b < bands; b++)
+      {
+         int from = (int) ((long) b * dstHeight / bands);
+         int to = (int) ((long) (b + 1) * dstHeight / bands);
+         futures.add(pool.submit(() -> resizeRows(src, dst, from, to)));
+      }
+
+      for (Future<?> future : futures)
+      {
+         try
+         {
+            future.get();
+         }
+         catch (ExecutionException e)                                        // resizeRows throws unchecked exceptions only
+         {
+            if (e.getCause() instanceof Error)
+               throw (Error) e.getCause();
+            throw (RuntimeException) e.getCause();
+         }
+      } // for (Future<?> future : futures)
+   } // public void resize(int[][] src, int[][] dst, ExecutorService pool, int bands) throws InterruptedException
+
+   /**
+    * Resizes the rows of the resized image from one row up to another. Every original row under a
+    * resized row is averaged across into the sums of its columns, then added in with the weight of
+    * the row; the sums are divided, with rounding, once all of them are in.
+    *
+    * @param src    the original image, grayscale values from 0 to 255, the top row first
+    * @param dst    the resized image, rows from and on filled in
+    * @param from   the first resized row
+    * @param to     the resized row after the last one
+    */
+   public void resizeRows(int[][] src, int[][] dst, int from, int to)
+   {
+      long[] sums = new long[dstWidth];                                      // the weighted sums of one resized row
+      long area = (long) srcWidth * srcHeight;                               // the units of area under one resized pixel
+
+      for (int y = from; y < to; y++)
+      {
+         Arrays.fill(sums, 0L);
+
+         for (int r = down.offset[y], sy = down.first[y]; r < down.offset[y + 1]; r++, sy++)
+         {
+            int[] row = src[sy];
+            int rowWeight = down.weight[r];
+
+            for (int x = 0; x < dstWidth; x++)
+            {
+               int sum = 0;                                                  // at most 255 * srcWidth
+               for (int c = across.offset[x], sx = across.first[x]; c < across.offset[x + 1]; c++, sx++)
+                  sum += across.weight[c] * row[sx];
+               sums[x] += (long) rowWeight * sum;
+            }
+         } // for (int r = down.offset[y], sy = down.first[y]; r < down.offset[y + 1]; r++, sy++)
+
+         int[] out = dst[y];
+         for (int x = 0; x < dstWidth; x++)
+            out[x] = (int) ((sums[x] + area / 2) / area);
+      } // for (int y = from; y < to; y++)
+   } // public void resizeRows(int[][] src, int[][] dst, int from, int to)
+} // public class AreaResizer
+
+/**
+ * The weights of the original pixels along one axis. The original pixels under resized pixel j
+ * start at first[j], and their weights are weight[offset[j]] up to weight[offset[j + 1]].
+ */
+final class Axis
+{
+   int[] first;                                     // the first original pixel under every resized pixel
+   int[] offset;                                    // where the weights of every resized pixel start
+   int[] weight;                                    // the units of every original pixel under a resized pixel
+}
@@ -0,0 +1,324 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Makes new test sets out of the test sets of an image: every copy is the image moved a few pixels,
+ * turned by a small angle and scaled about its center, sampled back onto the grid of input nodes
+ * with bilinear interpolation, and then has a little Gaussian noise added to every value. Pixels
+ * sampled from outside the image take the value of the nearest edge pixel, so the background of the
+ * image is carried on whatever its color.
+ *
+ * The input values are an image of width x height activations, one row after another, like the
+ * _act.txt files of DibDump and the rows of BitmapPipeline. Every transform is the same whichever row
+ * comes first.
+ *
+ * The copies of an iteration are made ahead of the training by a pool of threads into one of two
+ * buffers while the training uses the other (double buffering): nextEpoch hands out the buffer made
+ * for this iteration and starts making the next one, so the training only waits if it gets ahead of
+ * the pool. Every copy draws from its own random number generator, seeded from the seed, the
+ * iteration and the index of the copy, so the copies are the same for a given seed however many
+ * threads make them. Those three are mixed into the seed of the generator by the finalizer of
+ * SplitMix64 first: java.util.Random barely changes its first draws between consecutive seeds, so
+ * neighbouring copies would otherwise all be turned by nearly the same angle.
+ *
+ * Augmenter    - constructs an Augmenter for images of the given size
+ * forInputs    - constructs an Augmenter for a square input layer
+ * setShift     - sets the most pixels an image is moved in each direction
+ * setRotation  - sets the largest angle an image is turned by, in degrees
+ * setScale     - sets how much larger or smaller an image may be made
+ * setNoise     - sets the standard deviation of the noise added to every value
+ * augment      - makes one copy of an image with random transforms
+ * mix          - scrambles the bits of a seed so that close seeds give unrelated generators
+ * start        - starts making the copies of the first iteration, or of a later one, from the given test sets
+ * nextEpoch    - returns the copies of the next iteration and starts making the one after
+ * waitNanos    - returns how long nextEpoch has waited for the pool in all
+ * close        - stops the pool
+ */
+public class Augmenter
+{
+   private int width;                               // the number of pixels in each row of the images
+   private int height;                              // the number of rows of the images
+   private long seed;                               // seeds the random number generators of the copies
+   private int shift = 2;                           // the most pixels an image is moved in each direction
+   private double rotation = 10.0;                  // the largest angle an image is turned by, in degrees
+   private double scale = 0.1;                      // the largest fraction an image is made larger or smaller by
+   private double noise = 0.02;                     // the standard deviation of the noise added to every value
+
+   private double[][] sources;                      // the test sets the copies are made from
+   private int count;                               // the number of test sets copies are made from
+   private int copies;                              // the number of copies made of every test set per iteration
+   private double[][][] buffers;                    // the two buffers of copies, one used while the other is made
+   private int current;                             // the buffer made for the iteration nextEpoch hands out next
+   private long epoch;                              // the iteration the buffer being made belongs to
+   private Future<?>[] pending;                     // the tasks making the current buffer
+   private ExecutorService pool;                    // the threads making the copies
+   private long waited;                             // the nanoseconds nextEpoch has waited for the pool
+
+   /**
+    * Constructs an Augmenter for images of the given size.
+    *
+    * @param width    the number of pixels in each row of the images
+    * @param height   the number of rows of the images
+    * @param seed     seeds the random number generators of the copies
+    */
+   public Augmenter(int width, int height, long seed)
+   {
+      if (width < 1 || height < 1)
+         throw new IllegalArgumentException("Images need at least 1 pixel, not " + width + "x" + height);
+
+      this.width = width;
+      this.height = height;
+      this.seed = seed;
+   }
+
+   /**
+    * Constructs an Augmenter for a square input layer, one input node per pixel.
+    *
+    * @param numInputs   the number of input nodes, a square number
+    * @param seed        seeds the random number generators of the copies
+    * @return            the Augmenter
+    */
+   public static Augmenter forInputs(int numInputs, long seed)
+   {
+      int side = (int) Math.round(Math.sqrt(numInputs));
+      if (side * side != numInputs)
+         throw new IllegalArgumentException(numInputs + " input nodes do not make a square image to augment");
+      return new Augmenter(side, side, seed);
+   }
+
+   /**
+    * Sets the most pixels an image is moved in each direction; the shift is drawn evenly from
+    * -pixels to pixels, and may be a fraction of a pixel.
+    *
+    * @param pixels   the largest shift, 0 for none
+    */
+   public void setShift(int pixels)
+   {
+      if (pixels < 0)
+         throw new IllegalArgumentException("Shift cannot be negative: " + pixels);
+      shift = pixels;
+   }
+
+   /**
+    * Sets the largest angle an image is turned by about its center, drawn evenly from -degrees to degrees.
+    *
+    * @param degrees   the largest angle, 0 for none
+    */
+   public void setRotation(double degrees)
+   {
+      if (degrees < 0.0)
+         throw new IllegalArgumentException("Rotation cannot be negative: " + degrees);
+      rotation = degrees;
+   }
+
+   /**
+    * Sets how much larger or smaller an image may be made about its center; the factor is drawn
+    * evenly from 1 - fraction to 1 + fraction.
+    *
+    * @param fraction   the largest change of size, from 0 (none) to below 1
+    */
+   public void setScale(double fraction)
+   {
+      if (fraction < 0.0 || fraction >= 1.0)
+         throw new IllegalArgumentException("Scale must be at least 0 and below 1: " + fraction);
+      scale = fraction;
+   }
+
+   /**
+    * Sets the standard deviation of the Gaussian noise added to every value of a copy. The values
+    * are kept between 0 and 1 afterwards.
+    *
+    * @param sigma   the standard deviation, 0 for no noise
+    */
+   public void setNoise(double sigma)
+   {
+      if (sigma < 0.0)
+         throw new IllegalArgumentException("Noise cannot be negative: " + sigma);
+      noise = sigma;
+   }
+
+   /**
+    * Makes one copy of an image: every pixel of the copy is mapped back through the shift, the
+    * rotation and the scale to a point of the image, whose value is interpolated between its four
+    * nearest pixels; then the noise is added.
+    *
+    * @param src    the values of the image, width * height of them
+    * @param dst    filled with the values of the copy
+    * @param rand   draws the transforms and the noise
+    */
+   public void augment(double[] src, double[] dst, Random rand)
+   {
+      double angle = Math.toRadians((2.0 * rand.nextDouble() - 1.0) * rotation);
+      double factor = 1.0 + (2.0 * rand.nextDouble() - 1.0) * scale;
+      double shiftX = (2.0 * rand.nextDouble() - 1.0) * shift;
+      double shiftY = (2.0 * rand.nextDouble() - 1.0) * shift;
+
+      double cos = Math.cos(angle) / factor;                                 // the inverse transform, from the copy back
+      double sin = Math.sin(angle) / factor;                                 // to the image
+      double centerX = (width - 1) / 2.0;
+      double centerY = (height - 1) / 2.0;
+
+      int k = 0;
+      for (int y = 0; y < height; y++)
+      {
+         double dy = y - centerY - shiftY;
+         for (int x = 0; x < width; x++)
+         {
+            double dx = x - centerX - shiftX;
+            double sx = Math.min(Math.max(cos * dx + sin * dy + centerX, 0.0), width - 1);  // the nearest edge outside
+            double sy = Math.min(Math.max(-sin * dx + cos * dy + centerY, 0.0), height - 1);
+
+            int x0 = Math.min((int) sx, Math.max(width - 2, 0));              // the top left of the four pixels around
+            int y0 = Math.min((int) sy, Math.max(height - 2, 0));
+            int x1 = Math.min(x0 + 1, width - 1);
+            int y1 = Math.min(y0 + 1, height - 1);
+            double fx = sx - x0;
+            double fy = sy - y0;
+
+            double top = src[y0 * width + x0] + fx * (src[y0 * width + x1] - src[y0 * width + x0]);
+            double bottom = src[y1 * width + x0] + fx * (src[y1 * width + x1] - src[y1 * width + x0]);
+            double value = top + fy * (bottom - top);
+
+            if (noise > 0.0)
+               value = Math.min(Math.max(value + noise * rand.nextGaussian(), 0.0), 1.0);
+            dst[k++] = value;
+         } // for (int x = 0; x < width; x++)
+      } // for (int y = 0; y < height; y++)
+   } // public void augment(double[] src, double[] dst, Random rand)
+
+   /**
+    * Scrambles the bits of a seed with the finalizer of SplitMix64, so that seeds one apart give
+    * random number generators whose draws are unrelated.
+    *
+    * @param z   the seed
+    * @return    the scrambled seed
+    */
+   static long mix(long z)
+   {
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+
+   /**
+    * Starts making the copies of an iteration, the first one unless training is resumed from a
+    * checkpoint; the copies of every iteration depend only on the seed and the iteration. The inputs
+    * of the test sets must not change until close is called.
+    *
+    * @param inputs    the input values of the test sets to copy
+    * @param count     the number of test sets to copy, from the first row
+    * @param copies    the number of copies of every test set per iteration, at least 1
+    * @param threads   the number of threads making the copies
+    * @param first     the iteration nextEpoch hands out the copies of first, 0 at the start of training
+    */
+   public void start(double[][] inputs, int count, int copies, int threads, long first)
+   {
+      if (copies < 1)
+         throw new IllegalArgumentException("Need at least 1 copy, not " + copies);
+
+      sources = inputs;
+      this.count = count;
+      this.copies = copies;
+      buffers = new double[2][count * copies][width * height];
+      current = 0;
+      epoch = first;
+      waited = 0;
+      pool = Executors.newFixedThreadPool(threads, runnable ->
+      {
+         Thread thread = new Thread(runnable, "augmenter");
+         thread.setDaemon(true);                                             // never keeps the program alive
+         return thread;
+      });
+      pending = submit(buffers[current], epoch, threads);
+   } // public void start(double[][] inputs, int count, int copies, int threads, long first)
+
+   /**
+    * Submits the tasks making the copies of one iteration into a buffer, one contiguous share of the
+    * copies per thread.
+    *
+    * @param buffer    filled with the copies, count * copies of them, copy c of test set i at c * count + i
+    * @param iteration the iteration the copies belong to
+    * @param tasks     the number of tasks to split the copies between
+    * @return          the tasks
+    */
+   private Future<?>[] submit(double[][] buffer, long iteration, int tasks)
+   {
+      int total = buffer.length;
+      tasks = Math.max(1, Math.min(tasks, total));
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+
+      for (int s = 0; s < tasks; s++)
+      {
+         int from = (int) ((long) total * s / tasks);
+         int to = (int) ((long) total * (s + 1) / tasks);
+         futures.add(pool.submit(() ->
+         {
+            for (int row = from; row < to; row++)
+            {
+               Random rand = new Random(mix(seed ^ mix(iteration * 0x9E3779B97F4A7C15L + row)));  // the same copy for any thread
+               augment(sources[row % count], buffer[row], rand);
+            }
+         }));
+      } // for (int s = 0; s < tasks; s++)
+      return futures.toArray(new Future<?>[0]);
+   } // private Future<?>[] submit(double[][] buffer, long iteration, int tasks)
+
+   /**
+    * Returns the copies of the next iteration, waiting for the pool if they are not done yet, and
+    * starts making the copies of the iteration after it into the other buffer. The returned buffer
+    * is used by the training until the next call, and is refilled only after that.
+    *
+    * @return   count * copies input values, copy c of test set i at c * count + i
+    * @throws InterruptedException   thrown if interrupted while waiting for the pool
+    */
+   public double[][] nextEpoch() throws InterruptedException
+   {
+      long start = System.nanoTime();
+      for (Future<?> task : pending)
+      {
+         try
+         {
+            task.get();
+         }
+         catch (ExecutionException e)                                        // augment throws unchecked exceptions only
+         {
+            if (e.getCause() instanceof Error)
+               throw (Error) e.getCause();
+            throw (RuntimeException) e.getCause();
+         }
+      } // for (Future<?> task : pending)
+      waited += System.nanoTime() - start;
+
+      double[][] ready = buffers[current];
+      current = 1 - current;
+      epoch++;
+      pending = submit(buffers[current], epoch, pending.length);
+      return ready;
+   } // public double[][] nextEpoch() throws InterruptedException
+
+   /**
+    * Returns how long nextEpoch has waited for the pool since start, which is how long the
+    * training was held up by making the copies.
+    *
+    * @return   the nanoseconds waited
+    */
+   public long waitNanos()
+   {
+      return waited;
+   }
+
+   /**
+    * Stops the pool, dropping the copies it is still making.
+    */
+   public void close()
+   {
+      if (pool != null)
+         pool.shutdownNow();
+      pool = null;
+   }
+} // public class Augmenter
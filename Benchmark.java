@@ -0,0 +1,525 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+/**
+ * A self-contained benchmark harness for the Perceptron and its file formats, in the manner of
+ * JMH's average time mode: every benchmark is called over and over for a fixed time per iteration,
+ * first for some warmup iterations that are thrown away so the JIT compiler settles, then for the
+ * measured iterations, and the mean time per call is reported with its standard deviation.
+ * Results are kept alive in a sink so the JIT compiler cannot remove the work.
+ *
+ * The benchmarks run on synthetic data written into a temporary directory, for every topology and
+ * precision given on the command line:
+ *    output          - one test set through Perceptron.output
+ *    outputBatch     - all test sets of the data set through Perceptron.outputBatch at once
+ *    outputFast      - output with the fast sigmoid, see Perceptron.setFastSigmoid
+ *    outputBatchFast - outputBatch with the fast sigmoid
+ *    gradient0       - Perceptron.train with 0 iterations: randomizing, loading and reporting
+ *    gradient1       - Perceptron.train with 1 iteration; the cost of one epoch is gradient1 - gradient0
+ *    setWeightsText  - Perceptron.setWeights from a text weights file
+ *    setWeightsBin   - Perceptron.setWeights from a binary weights file
+ *    parseText       - one pass of a SampleReader over the text test sets
+ *    parseBin        - one pass of a SampleReader over the binary test sets
+ * and once for every image size:
+ *    dibDump         - DibDump converting a 24-bit bitmap into grayscale activations and back
+ *    readBitmap      - DibDump decoding a 24-bit bitmap file, also reported in MB/s of the file
+ *    resizeArea      - BitmapPipeline turning a decoded bitmap into 40x40 activations by area averaging
+ *    resizeNearest   - the same by taking the nearest pixel
+ *
+ * Options, all optional:
+ *    -t 1600/400/100/5,64/16/2   the topologies, input layer first (default: dimensions.txt if present and a few others)
+ *    -p double,float             the precisions of the Perceptron (default: double)
+ *    -n 25                       the number of test sets in the data set
+ *    -img 40,100                 the image sizes for dibDump, in pixels per side
+ *    -b output,parseText         only the benchmarks with these names
+ *    -wi 3 -i 5 -ms 1000         the warmup iterations, the measured iterations and the milliseconds per iteration
+ *
+ * Benchmark      - constructs a Benchmark with the given settings
+ * runTopology    - runs the Perceptron benchmarks for one topology and precision
+ * runDibDump     - runs the DibDump benchmarks for one image size
+ * measure        - runs one benchmark through its warmup and measured iterations and prints the result
+ * iteration      - calls a benchmark over and over for one iteration
+ * writeSamples   - writes random test sets into a text file
+ * writeBitmap    - writes a random 24-bit bitmap
+ * topologyName   - returns a topology as it is printed and given with -t, like 1600/400/100/5
+ * parseTopology  - returns the number of nodes in every layer of a topology given like 1600/400/100/5
+ * ownTopology    - returns the topology of dimensions.txt, if there is one
+ * options        - reads the options of a command line, each followed by its value
+ * deleteTree     - removes a temporary directory and everything in it
+ * quietly        - calls a benchmark with System.out thrown away
+ * main           - parses the options and runs every benchmark
+ */
+public class Benchmark
+{
+   private static final String FORMAT = "%-15s %-18s %-7s %5d %13.3f %12.3f  us/op%n";
+   private static volatile int sink;                // keeps the results of the benchmarks alive
+
+   private int warmups;                             // the number of warmup iterations thrown away
+   private int iterations;                          // the number of measured iterations
+   private long millis;                             // the length of every iteration in milliseconds
+   private List<String> only;                       // the names of the benchmarks to run, empty for all of them
+   private Path dir;                                // the temporary directory holding the synthetic files
+   private PrintStream console;                     // the real System.out, while a benchmark throws output away
+
+   /**
+    * Constructs a Benchmark with the given settings.
+    *
+    * @param warmups      the number of warmup iterations thrown away
+    * @param iterations   the number of measured iterations
+    * @param millis       the length of every iteration in milliseconds
+    * @param only         the names of the benchmarks to run, empty for all of them
+    * @param dir          the temporary directory for the synthetic files
+    */
+   public Benchmark(int warmups, int iterations, long millis, List<String> only, Path dir)
+   {
+      this.warmups = warmups;
+      this.iterations = iterations;
+      this.millis = millis;
+      this.only = only;
+      this.dir = dir;
+      console = System.out;
+   }
+
+   /**
+    * Runs the Perceptron benchmarks for one topology and precision, writing the weights and the
+    * test sets they need first.
+    *
+    * @param layers      the number of nodes in every layer, input layer first
+    * @param single      whether the Perceptron runs in single precision
+    * @param numTests    the number of test sets in the data set
+    * @throws Exception  thrown if writing the files or any benchmark fails
+    */
+   public void runTopology(int[] layers, boolean single, int numTests) throws Exception
+   {
+      int numInputs = layers[0];
+      int numOutputs = layers[layers.length - 1];
+      int[] hidden = new int[layers.length - 2];
+      for (int n = 1; n < layers.length - 1; n++)
+         hidden[n - 1] = layers[n];
+
+      String topology = topologyName(layers);
+      String precision = single ? "float" : "double";
+
+      String text = dir.resolve("samples.txt").toString();
+      String binary = dir.resolve("samples.bin").toString();
+      String weightsText = dir.resolve("weights.txt").toString();
+      String weightsBinary = dir.resolve("weights.bin").toString();
+      String trained = dir.resolve("trained.bin").toString();
+      writeSamples(text, numTests, numInputs, numOutputs, new Random(1));
+      SampleFile.convert(text, binary, numInputs, numOutputs, Double.BYTES);
+
+      Perceptron net = new Perceptron(numInputs, hidden, numOutputs);
+      net.setSeed(1);
+      net.setFloat(single);
+      net.setA();
+      net.randomizeW(-0.2, 0.2, weightsText);                                // writes a weights file in each format
+      net.randomizeW(-0.2, 0.2, weightsBinary);
+
+      double[] inputs = new double[numInputs];
+      double[] tValue = new double[numOutputs];
+      Random rand = new Random(2);
+      for (int k = 0; k < numInputs; k++)
+         inputs[k] = rand.nextDouble();
+      net.setInputs(inputs);
+
+      measure("output", topology, precision, () ->
+      {
+         net.output();
+         return net.calcError(tValue);
+      });
+
+      double[][] batch = new double[numTests][numInputs];
+      for (int test = 0; test < numTests; test++)
+      {
+         for (int k = 0; k < numInputs; k++)
+            batch[test][k] = rand.nextDouble();
+      }
+      measure("outputBatch", topology, precision, () -> net.outputBatch(batch)[0][0]);
+
+      net.setFastSigmoid(true);
+      measure("outputFast", topology, precision, () ->
+      {
+         net.output();
+         return net.calcError(tValue);
+      });
+      measure("outputBatchFast", topology, precision, () -> net.outputBatch(batch)[0][0]);
+      net.setFastSigmoid(false);
+
+      for (int epochs = 0; epochs <= 1; epochs++)                            // without and with one epoch of training
+      {
+         int count = epochs;
+         measure("gradient" + epochs, topology, precision, () -> quietly(() ->
+         {
+            net.train(count, trained, numTests, 0.0, 0.3, -0.2, 0.2, binary);
+            return net.calcError(tValue);
+         }));
+      }
+
+      net.setWeightsFile(weightsText);
+      measure("setWeightsText", topology, precision, () ->
+      {
+         net.setWeights();
+         return null;
+      });
+      net.setWeightsFile(weightsBinary);
+      measure("setWeightsBin", topology, precision, () ->
+      {
+         net.setWeights();
+         return null;
+      });
+
+      for (String file : new String[] {text, binary})                       // one pass over the test sets in each format
+      {
+         SampleReader reader = SampleReader.open(file, numInputs, numOutputs);
+         measure(file.equals(text) ? "parseText" : "parseBin", topology, precision, () ->
+         {
+            reader.reset();
+            double sum = 0.0;
+            while (reader.next(inputs, tValue))
+               sum += inputs[0];
+            return sum;
+         });
+         reader.close();
+      } // for (String file : new String[] {text, binary})
+   } // public void runTopology(int[] layers, boolean single, int numTests) throws Exception
+
+   /**
+    * Runs the DibDump benchmarks for one square image size. DibDump asks for the name of the image
+    * and later for the activations file to turn back into a bitmap on System.in, so both answers
+    * are given through a replaced System.in on every call of dibDump.
+    *
+    * @param side        the number of pixels on each side of the image
+    * @throws Exception  thrown if writing the bitmap or the benchmark fails
+    */
+   public void runDibDump(int side) throws Exception
+   {
+      String name = dir.resolve("image").toString();                         // DibDump adds .bmp, Test.bmp, Gray.bmp and _act.txt
+      writeBitmap(name + ".bmp", side, side, new Random(3));
+      byte[] answers = (name + "\n" + name + "_act.txt\n").getBytes();
+
+      quietly(() ->                                                          // writes the activations file read back by every call
+      {
+         System.setIn(new ByteArrayInputStream(answers));
+         DibDump.main(new String[0]);
+         return null;
+      });
+
+      InputStream stdin = System.in;
+      measure("dibDump", side + "x" + side, "-", () -> quietly(() ->
+      {
+         System.setIn(new ByteArrayInputStream(answers));
+         DibDump.main(new String[0]);
+         return null;
+      }));
+      System.setIn(stdin);
+
+      double micros = measure("readBitmap", side + "x" + side, "-", () ->
+      {
+         DibDump image = new DibDump();
+         image.readBitmap(name + ".bmp");
+         return image.imageArray;
+      });
+      if (!Double.isNaN(micros))                                            // bytes per microsecond are MB/s
+         console.printf("%-15s %-18s %-7s %5s %13.1f %12s  MB/s%n", "readBitmap", side + "x" + side, "-", "",
+                        Files.size(Path.of(name + ".bmp")) / micros, "");
+
+      DibDump image = new DibDump();
+      image.readBitmap(name + ".bmp");
+      double[] inputs = new double[40 * 40];
+      BitmapPipeline pipeline = new BitmapPipeline(40, 40, 1);
+      measure("resizeArea", side + "x" + side, "-", () ->
+      {
+         pipeline.activations(image, inputs);
+         return inputs[0];
+      });
+      pipeline.setNearest(true);
+      measure("resizeNearest", side + "x" + side, "-", () ->
+      {
+         pipeline.activations(image, inputs);
+         return inputs[0];
+      });
+   } // public void runDibDump(int side) throws Exception
+
+   /**
+    * Runs one benchmark through its warmup and measured iterations, unless it was left out by the
+    * -b option, and prints the mean time per call and its standard deviation.
+    *
+    * @param name        the name of the benchmark
+    * @param param       the topology or image size it runs on
+    * @param precision   the precision it runs in
+    * @param op          the work measured by one call
+    * @return            the mean time of one call in microseconds, NaN if the benchmark was left out
+    * @throws Exception  thrown if the benchmark fails
+    */
+   private double measure(String name, String param, String precision, Callable<Object> op) throws Exception
+   {
+      if (!only.isEmpty() && !only.contains(name))
+         return Double.NaN;
+
+      for (int i = 0; i < warmups; i++)
+         iteration(op);
+
+      double sum = 0.0;
+      double squares = 0.0;
+      for (int i = 0; i < iterations; i++)
+      {
+         double score = iteration(op);
+         sum += score;
+         squares += score * score;
+      }
+
+      double mean = sum / iterations;
+      double deviation = (iterations > 1) ? Math.sqrt(Math.max(0.0, (squares - sum * mean) / (iterations - 1))) : 0.0;
+      console.printf(FORMAT, name, param, precision, iterations, mean, deviation);
+      return mean;
+   } // private double measure(String name, String param, String precision, Callable<Object> op) throws Exception
+
+   /**
+    * Calls a benchmark over and over until the length of one iteration has passed, at least once.
+    *
+    * @param op          the work measured by one call
+    * @return            the mean time of one call in microseconds
+    * @throws Exception  thrown if the benchmark fails
+    */
+   private double iteration(Callable<Object> op) throws Exception
+   {
+      long calls = 0;
+      long start = System.nanoTime();
+      long end = start + millis * 1000000L;
+      long now;
+
+      do
+      {
+         Object result = op.call();
+         sink += (result == null) ? 1 : result.hashCode();
+         calls++;
+         now = System.nanoTime();
+      }
+      while (now < end);
+
+      return (now - start) / 1000.0 / calls;
+   } // private double iteration(Callable<Object> op) throws Exception
+
+   /**
+    * Writes random test sets in the text format, inputs between 0 and 1 followed by one-hot T values.
+    *
+    * @param file          the name of the file
+    * @param numTests      the number of test sets
+    * @param numInputs     the number of input values in each test set
+    * @param numOutputs    the number of T values in each test set
+    * @param rand          the random number generator
+    * @throws IOException  thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   static void writeSamples(String file, int numTests, int numInputs, int numOutputs, Random rand)
+      throws IOException
+   {
+      StringBuilder out = new StringBuilder();
+
+      for (int test = 0; test < numTests; test++)
+      {
+         for (int k = 0; k < numInputs; k++)
+            out.append(rand.nextDouble()).append(' ');
+         for (int i = 0; i < numOutputs; i++)
+            out.append(i == test % numOutputs ? "1.0" : "0.0").append(i == numOutputs - 1 ? '\n' : ' ');
+      }
+      Files.write(Path.of(file), out.toString().getBytes());
+   } // static void writeSamples(String file, int numTests, int numInputs, int numOutputs, Random rand)
+
+   /**
+    * Writes a bitmap of random 24-bit colors, bottom row first with every row padded to 4 bytes.
+    *
+    * @param file          the name of the file
+    * @param width         the number of pixels in each row
+    * @param height        the number of rows
+    * @param rand          the random number generator
+    * @throws IOException  thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   private static void writeBitmap(String file, int width, int height, Random rand) throws IOException
+   {
+      int rowBytes = (width * 3 + 3) / 4 * 4;
+      ByteBuffer bmp = ByteBuffer.allocate(54 + rowBytes * height).order(ByteOrder.LITTLE_ENDIAN);
+
+      bmp.put((byte) 'B').put((byte) 'M').putInt(bmp.capacity()).putInt(0).putInt(54);   // BITMAPFILEHEADER
+      bmp.putInt(40).putInt(width).putInt(height).putShort((short) 1).putShort((short) 24); // BITMAPINFOHEADER
+      bmp.putInt(0).putInt(rowBytes * height).putInt(2835).putInt(2835).putInt(0).putInt(0);
+
+      byte[] row = new byte[rowBytes];
+      for (int i = 0; i < height; i++)
+      {
+         for (int j = 0; j < width * 3; j++)                                 // the padding bytes stay 0
+            row[j] = (byte) rand.nextInt(256);
+         bmp.put(row);
+      }
+      Files.write(Path.of(file), bmp.array());
+   } // private static void writeBitmap(String file, int width, int height, Random rand) throws IOException
+
+   /**
+    * Returns a topology as it is printed and given with -t, the number of nodes in every layer
+    * separated by slashes, like 1600/400/100/5.
+    *
+    * @param layers   the number of nodes in every layer, input layer first
+    * @return         the topology
+    */
+   static String topologyName(int[] layers)
+   {
+      StringBuilder name = new StringBuilder();
+      for (int n = 0; n < layers.length; n++)
+         name.append(n == 0 ? "" : "/").append(layers[n]);
+      return name.toString();
+   }
+
+   /**
+    * Returns the number of nodes in every layer of a topology given like 1600/400/100/5.
+    *
+    * @param topology   the topology, input layer first
+    * @return           the number of nodes in every layer
+    */
+   static int[] parseTopology(String topology)
+   {
+      String[] sizes = topology.split("/");
+      int[] layers = new int[sizes.length];
+      for (int n = 0; n < sizes.length; n++)
+         layers[n] = Integer.parseInt(sizes[n].trim());
+      return layers;
+   }
+
+   /**
+    * Returns the topology of dimensions.txt in the working directory, the one this project trains
+    * by default, so the benchmarks and checks run on it unless told otherwise.
+    *
+    * @return               the topology, null if there is no dimensions.txt
+    * @throws IOException   thrown if dimensions.txt cannot be read
+    */
+   static String ownTopology() throws IOException
+   {
+      if (!Files.exists(Path.of("dimensions.txt")))
+         return null;
+      return topologyName(Perceptron.readDimensions("dimensions.txt"));
+   }
+
+   /**
+    * Reads the options of a command line, each of which is followed by its value; a last option
+    * without a value is ignored, and an option given twice keeps its last value.
+    *
+    * @param args    the command line
+    * @param known   the names of the options, like -t
+    * @return        the value of every option given, by its name
+    * @throws IllegalArgumentException   thrown if an option is not one of the known ones
+    */
+   static Map<String, String> options(String[] args, String... known)
+   {
+      Map<String, String> options = new HashMap<String, String>();
+      for (int i = 0; i + 1 < args.length; i += 2)                           // every option is followed by its value
+      {
+         if (!List.of(known).contains(args[i]))
+            throw new IllegalArgumentException("Unknown option " + args[i]);
+         options.put(args[i], args[i + 1]);
+      }
+      return options;
+   } // static Map<String, String> options(String[] args, String... known)
+
+   /**
+    * Removes a temporary directory and everything in it, deepest first.
+    *
+    * @param dir            the directory
+    * @throws IOException   thrown if the directory cannot be walked
+    */
+   static void deleteTree(Path dir) throws IOException
+   {
+      try (Stream<Path> files = Files.walk(dir))
+      {
+         files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+      }
+   }
+
+   /**
+    * Calls a benchmark, or anything else that prints what it does, with System.out thrown away,
+    * and puts System.out back afterwards.
+    *
+    * @param op          the work to do
+    * @return            the result of op
+    * @throws Exception  thrown if op fails
+    */
+   static <T> T quietly(Callable<T> op) throws Exception
+   {
+      PrintStream previous = System.out;
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+      try
+      {
+         return op.call();
+      }
+      finally
+      {
+         System.setOut(previous);
+      }
+   } // static <T> T quietly(Callable<T> op) throws Exception
+
+   /**
+    * Parses the options, see the class comment, and runs every benchmark for every topology,
+    * precision and image size, removing the temporary files afterwards.
+    *
+    * @param args        the options
+    * @throws Exception  thrown if any benchmark fails
+    */
+   public static void main(String[] args) throws Exception
+   {
+      Map<String, String> options = options(args, "-t", "-p", "-n", "-img", "-b", "-wi", "-i", "-ms");
+      String precisions = options.getOrDefault("-p", "double");
+      String images = options.getOrDefault("-img", "40");
+      String names = options.getOrDefault("-b", "");
+      int numTests = Integer.parseInt(options.getOrDefault("-n", "25"));
+      int warmups = Integer.parseInt(options.getOrDefault("-wi", "3"));
+      int iterations = Integer.parseInt(options.getOrDefault("-i", "5"));
+      long millis = Long.parseLong(options.getOrDefault("-ms", "1000"));
+
+      List<String> topologies = new ArrayList<String>();
+      String own = ownTopology();                                            // the topology this project trains by default
+      if (own != null)
+         topologies.add(own);
+      for (String topology : new String[] {"1600/400/100/5", "1600/100/5", "400/50/5"})
+      {
+         if (!topologies.contains(topology))
+            topologies.add(topology);
+      }
+      if (options.containsKey("-t"))
+         topologies = List.of(options.get("-t").split(","));
+
+      Path dir = Files.createTempDirectory("perceptron-bench");
+      Benchmark bench = new Benchmark(warmups, Math.max(1, iterations), millis,
+                                      names.isEmpty() ? List.of() : List.of(names.split(",")), dir);
+
+      System.out.printf("%-15s %-18s %-7s %5s %13s %12s  %s%n", "Benchmark", "Param", "Prec", "Cnt", "Score", "StdDev", "Units");
+      try
+      {
+         for (String topology : topologies)
+         {
+            for (String precision : precisions.split(","))
+               bench.runTopology(parseTopology(topology), precision.equalsIgnoreCase("float"), numTests);
+         }
+
+         for (String side : images.split(","))
+            bench.runDibDump(Integer.parseInt(side.trim()));
+      } // try
+      finally
+      {
+         deleteTree(dir);                                                    // removes the synthetic files
+      }
+      System.out.println("Score is the mean time of one call; the cost of one epoch is gradient1 - gradient0. (sink " +
+                         (sink & 1) + ")");
+   } // public static void main(String[] args) throws Exception
+} // public class Benchmark
@@ -0,0 +1,525 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Turns a directory of bitmaps straight into test sets, without any files in between: every bitmap
+ * is decoded by DibDump, turned into grayscale by DibDump.colorToGrayscale, resized to the size of
+ * the input layer by AreaResizer and divided by 255. The activations are the ones DibDump writes into its
+ * _act.txt files, in the same order (bottom row first), but they go straight into memory, as a
+ * SampleReader the Perceptron trains or runs from, or into a binary SampleFile, and are never
+ * formatted as text.
+ *
+ * Every subdirectory holds the bitmaps of one class. The subdirectories, in the order of their
+ * names, stand for the output nodes: the T values of a bitmap are 1 for its class and 0 for the
+ * others. Bitmaps right in the directory have T values of 0, for directories that are only run.
+ *
+ * Bitmaps are converted BLOCK at a time by a pool of threads, so writing a binary file only ever
+ * holds one block of test sets in memory. The grayscale bitmaps the input layer sees can be
+ * written into a debug directory; by default no bitmap is written.
+ *
+ * BitmapPipeline - constructs a pipeline for images of the given size
+ * forInputs      - constructs a pipeline for a square input layer
+ * setThreads     - sets the number of threads converting bitmaps
+ * setDebug       - sets the directory the grayscale bitmaps are written into, null for none
+ * setNearest     - resizes by taking the nearest pixel instead of averaging
+ * activations    - turns one decoded bitmap into the values of the input nodes
+ * list           - lists the bitmaps of a directory with their classes
+ * load           - converts a directory of bitmaps into test sets in memory
+ * write          - converts a directory of bitmaps into a binary file of test sets
+ * main           - converts a directory of bitmaps given on the command line into a binary file
+ */
+public class BitmapPipeline
+{
+   static final int BLOCK = 256;                    // the number of bitmaps converted between two writes
+
+   private int width;                               // the number of pixels in each row of the input layer
+   private int height;                              // the number of rows of the input layer
+   private int numOutputs;                          // the number of T values in each test set
+   private int threads = Runtime.getRuntime().availableProcessors();  // the number of threads converting bitmaps
+   private String debug;                            // the directory the grayscale bitmaps go into, null for none
+   private boolean nearest;                         // true to take the nearest pixel instead of averaging the area
+   private ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);  // the grayscale arrays of every thread
+
+   /**
+    * Constructs a pipeline for images of the given size.
+    *
+    * @param width        the number of pixels in each row of the input layer
+    * @param height       the number of rows of the input layer
+    * @param numOutputs   the number of output nodes, at least the number of classes
+    */
+   public BitmapPipeline(int width, int height, int numOutputs)
+   {
+      if (width < 1 || height < 1)
+         throw new IllegalArgumentException("Images need at least 1 pixel, not " + width + "x" + height);
+
+      this.width = width;
+      this.height = height;
+      this.numOutputs = numOutputs;
+   }
+
+   /**
+    * Constructs a pipeline for a square input layer, one input node per pixel.
+    *
+    * @param numInputs    the number of input nodes, a square number
+    * @param numOutputs   the number of output nodes
+    * @return             the pipeline
+    * @throws IOException   thrown if the input layer is not square, so the size of the images is unknown
+    */
+   public static BitmapPipeline forInputs(int numInputs, int numOutputs) throws IOException
+   {
+      int side = (int) Math.round(Math.sqrt(numInputs));
+      if (side * side != numInputs)
+         throw new IOException(numInputs + " input nodes do not make a square image");
+      return new BitmapPipeline(side, side, numOutputs);
+   }
+
+   /**
+    * Sets the number of threads converting bitmaps.
+    *
+    * @param threads   the number of threads, at least 1
+    */
+   public void setThreads(int threads)
+   {
+      if (threads < 1)
+         throw new IllegalArgumentException("Need at least 1 thread, not " + threads);
+      this.threads = threads;
+   }
+
+   /**
+    * Sets the directory the grayscale bitmaps the input layer sees are written into, named after
+    * the class and the bitmap they come from.
+    *
+    * @param directory   the existing directory, or null to write no bitmaps
+    */
+   public void setDebug(String directory)
+   {
+      debug = directory;
+   }
+
+   /**
+    * Makes the pipeline resize by taking the pixel nearest to the center of every node, like
+    * ImageResizer does by default, in place of averaging the area under it. Nearest is faster but
+    * lets the noise of a large photo through; both give the same values for a bitmap of the right size.
+    *
+    * @param nearest   true to take the nearest pixel, false to average the area (the default)
+    */
+   public void setNearest(boolean nearest)
+   {
+      this.nearest = nearest;
+   }
+
+   /**
+    * Turns one decoded bitmap into the values of the input nodes: the bitmap is turned into grayscale
+    * by DibDump.grayscale, resized to the input layer by AreaResizer (or by taking the nearest pixel,
+    * see setNearest) and divided by 255. The bottom row comes first, as in the _act.txt files of
+    * DibDump; a bitmap of the right size gives exactly their values and is converted a row at a time
+    * straight into inputs. Larger bitmaps are turned into grayscale a row at a time into arrays that
+    * every thread keeps for the next bitmap, so converting allocates nothing once they are large enough;
+    * the array of the whole bitmap is only kept up to Scratch.KEEP pixels, so a few huge bitmaps do not
+    * pin that much memory in every thread that ever converted one.
+    *
+    * @param image    the bitmap, read by DibDump.readBitmap
+    * @param inputs   filled with the values of the input nodes, width * height of them
+    */
+   public void activations(DibDump image, double[] inputs)
+   {
+      int[][] pels = image.imageArray;
+      int srcHeight = pels.length;
+      int srcWidth = (srcHeight == 0) ? 0 : pels[0].length;
+
+      if (srcWidth == width && srcHeight == height)                          // nothing to resize
+      {
+         for (int y = height - 1, k = 0; y >= 0; y--, k += width)            // the bottom row first
+            DibDump.activationRow(pels[y], inputs, k);
+         return;
+      }
+
+      Scratch buffers = scratch.get();
+      int[][] gray = buffers.grow(height, width, false);
+
+      if (nearest)
+      {
+         int[] columns = buffers.columns;                                    // the source column of every node in a row
+         for (int x = 0; x < width; x++)
+            columns[x] = (int) ((2L * x + 1) * srcWidth / (2L * width));
+
+         for (int y = 0; y < height; y++)
+         {
+            int[] row = pels[(int) ((2L * y + 1) * srcHeight / (2L * height))];
+            for (int x = 0; x < width; x++)
+               gray[y][x] = DibDump.grayscale(row[columns[x]]);
+         }
+      } // if (nearest)
+      else
+      {
+         int[][] full = buffers.grow(srcHeight, srcWidth, true);             // the whole bitmap in grayscale
+         for (int y = 0; y < srcHeight; y++)
+            DibDump.grayscaleRow(pels[y], full[y]);
+
+         buffers.resizer(srcWidth, srcHeight, width, height).resize(full, gray);
+         buffers.trim();                                                     // an oversized bitmap keeps no memory
+      } // else
+
+      int k = 0;
+      for (int y = height - 1; y >= 0; y--)                                  // the bottom row first
+      {
+         for (int x = 0; x < width; x++)
+            inputs[k++] = DibDump.ACTIVATION[gray[y][x]];
+      }
+   } // public void activations(DibDump image, double[] inputs)
+
+   /**
+    * Lists the bitmaps of a directory, the ones in every subdirectory with the index of that
+    * subdirectory as their class and the ones right in the directory without a class, all in the
+    * order of their names.
+    *
+    * @param directory      the directory
+    * @return               the bitmaps
+    * @throws IOException   thrown if the directory cannot be listed or has more classes than output nodes
+    */
+   public List<LabeledBitmap> list(String directory) throws IOException
+   {
+      File[] entries = new File(directory).listFiles();
+      if (entries == null)
+         throw new IOException(directory + " is not a directory");
+      Arrays.sort(entries);
+
+      List<LabeledBitmap> bitmaps = new ArrayList<LabeledBitmap>();
+      int classes = 0;
+      for (File entry : entries)
+      {
+         if (entry.isDirectory())
+         {
+            if (classes == numOutputs)
+               throw new IOException(directory + " has more classes than the " + numOutputs + " output nodes");
+            File[] files = entry.listFiles((dir, name) -> name.toLowerCase().endsWith(".bmp"));
+            Arrays.sort(files);
+            for (File file : files)
+               bitmaps.add(new LabeledBitmap(file, classes));
+            classes++;
+         }
+         else if (entry.getName().toLowerCase().endsWith(".bmp"))
+         {
+            bitmaps.add(new LabeledBitmap(entry, -1));
+         }
+      } // for (File entry : entries)
+      return bitmaps;
+   } // public List<LabeledBitmap> list(String directory) throws IOException
+
+   /**
+    * Converts a directory of bitmaps into test sets in memory, see list for their order and T values.
+    *
+    * @param directory      the directory
+    * @return               a SampleReader over the test sets
+    * @throws IOException   thrown if a bitmap cannot be read
+    */
+   public SampleReader load(String directory) throws IOException
+   {
+      List<LabeledBitmap> bitmaps = list(directory);
+      double[][] inputs = new double[bitmaps.size()][width * height];
+      double[][] t = new double[bitmaps.size()][numOutputs];
+
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try
+      {
+         for (int from = 0; from < bitmaps.size(); from += BLOCK)
+            convert(pool, bitmaps, from, Math.min(BLOCK, bitmaps.size() - from), inputs, t, from);
+      }
+      finally
+      {
+         pool.shutdownNow();
+      }
+      return SampleReader.of(directory, inputs, t);
+   } // public SampleReader load(String directory) throws IOException
+
+   /**
+    * Converts a directory of bitmaps into a binary file of test sets, one block at a time, see list
+    * for their order and T values.
+    *
+    * @param directory      the directory
+    * @param binaryFile     the name of the binary file to create
+    * @param bytes          the number of bytes per value, Double.BYTES or Float.BYTES
+    * @return               the number of test sets written
+    * @throws IOException   thrown if a bitmap cannot be read or the file cannot be written
+    */
+   public long write(String directory, String binaryFile, int bytes) throws IOException
+   {
+      if (bytes != Double.BYTES && bytes != Float.BYTES)
+         throw new IllegalArgumentException("Values are either 8 or 4 bytes, not " + bytes);
+
+      List<LabeledBitmap> bitmaps = list(directory);
+      int numInputs = width * height;
+      double[][] inputs = new double[BLOCK][numInputs];                      // one block of test sets
+      double[][] t = new double[BLOCK][numOutputs];
+      ByteBuffer rows = ByteBuffer.allocateDirect(BLOCK * (numInputs + numOutputs) * bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      FileChannel out = FileChannel.open(Paths.get(binaryFile), StandardOpenOption.CREATE,
+                                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      try
+      {
+         long position = SampleFile.HEADER_SIZE;                             // the header is written once the rows are
+         for (int from = 0; from < bitmaps.size(); from += BLOCK)
+         {
+            int count = Math.min(BLOCK, bitmaps.size() - from);
+            convert(pool, bitmaps, from, count, inputs, t, 0);
+
+            rows.clear();
+            for (int i = 0; i < count; i++)
+            {
+               for (double[] values : new double[][] {inputs[i], t[i]})
+               {
+                  for (double value : values)
+                  {
+                     if (bytes == Double.BYTES)
+                        rows.putDouble(value);
+                     else
+                        rows.putFloat((float) value);
+                  }
+               }
+            } // for (int i = 0; i < count; i++)
+            rows.flip();
+            position += SampleFile.writeFully(out, rows, position);
+         } // for (int from = 0; from < bitmaps.size(); from += BLOCK)
+
+         SampleFile.writeHeader(out, bytes, numInputs, numOutputs, bitmaps.size());
+         return bitmaps.size();
+      } // try
+      finally
+      {
+         out.close();
+         pool.shutdownNow();
+      }
+   } // public long write(String directory, String binaryFile, int bytes) throws IOException
+
+   /**
+    * Converts count bitmaps, from the given one on, with the pool of threads into the rows of inputs
+    * and t from the given row on, waiting for all of them.
+    *
+    * @param pool           the threads converting bitmaps
+    * @param bitmaps        the bitmaps
+    * @param from           the index of the first bitmap to convert
+    * @param count          the number of bitmaps to convert
+    * @param inputs         filled with the values of the input nodes, one row per bitmap
+    * @param t              filled with the T values, one row per bitmap
+    * @param row            the first row to fill
+    * @throws IOException   thrown if a bitmap cannot be read
+    */
+   private void convert(ExecutorService pool, List<LabeledBitmap> bitmaps, int from, int count,
+                        double[][] inputs, double[][] t, int row) throws IOException
+   {
+      List<Future<Object>> done = new ArrayList<Future<Object>>();
+
+      for (int i = 0; i < count; i++)
+      {
+         LabeledBitmap bitmap = bitmaps.get(from + i);
+         double[] values = inputs[row + i];
+
+         Arrays.fill(t[row + i], 0.0);
+         if (bitmap.label >= 0)
+            t[row + i][bitmap.label] = 1.0;
+
+         done.add(pool.submit(() ->
+         {
+            DibDump image = new DibDump();                                   // the header and pels of this bitmap alone
+            image.readBitmap(bitmap.file.getPath());
+            activations(image, values);
+            if (debug != null)
+               writeDebug(bitmap, values);
+            return null;
+         }));
+      } // for (int i = 0; i < count; i++)
+
+      for (int i = 0; i < count; i++)
+      {
+         try
+         {
+            done.get(i).get();
+         }
+         catch (ExecutionException e)
+         {
+            throw new IOException(bitmaps.get(from + i).file + ": " + e.getCause().getMessage(), e.getCause());
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while converting bitmaps", e);
+         }
+      } // for (int i = 0; i < count; i++)
+   } // private void convert(ExecutorService pool, List<LabeledBitmap> bitmaps, int from, int count, ...)
+
+   /**
+    * Writes the activations of one bitmap back out as a grayscale bitmap into the debug directory.
+    *
+    * @param bitmap         the bitmap the activations come from
+    * @param values         its activations, bottom row first
+    * @throws IOException   thrown if the bitmap cannot be written
+    */
+   private void writeDebug(LabeledBitmap bitmap, double[] values) throws IOException
+   {
+      int[][] pels = new int[height][width];                                 // the top row first, like DibDump.imageArray
+      int k = 0;
+      for (int y = height - 1; y >= 0; y--)
+      {
+         for (int x = 0; x < width; x++)
+            pels[y][x] = (int) Math.round(values[k++] * 255.0) * 0x010101;    // the same value for red, green and blue
+      }
+
+      String name = bitmap.file.getName();
+      String prefix = (bitmap.label >= 0) ? bitmap.file.getParentFile().getName() + "_" : "";
+      DibDump image = new DibDump();
+      image.setImage(pels);
+      image.writeBitmap(new File(debug, prefix + name.substring(0, name.length() - 4) + "Gray.bmp").getPath());
+   } // private void writeDebug(LabeledBitmap bitmap, double[] values) throws IOException
+
+   /**
+    * Converts a directory of bitmaps into a binary file of test sets. The number of output nodes,
+    * and the number of input nodes unless -size is given, are read from dimensions.txt. Options:
+    *    -size 40x40      the size the bitmaps are resized to, width by height
+    *    -threads 4       the number of threads converting bitmaps
+    *    -resize nearest  takes the nearest pixel instead of averaging the area (area, the default)
+    *    -debug <dir>     writes the grayscale bitmaps the input layer sees into the directory
+    *    -p float         stores the values as floats
+    *
+    * @param args           the directory, the binary file and the options
+    * @throws IOException   thrown if a bitmap or dimensions.txt cannot be read, or the file cannot be written
+    */
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length < 2)
+      {
+         System.out.println("Usage: java BitmapPipeline <directory> <binary test sets> [-size WxH] [-threads N] " +
+                            "[-resize area|nearest] [-debug <directory>] [-p float]");
+         return;
+      }
+
+      int[] numNodes = Perceptron.readDimensions("dimensions.txt");
+      int numOutputs = numNodes[numNodes.length - 1];
+      String size = null;                                                    // null for the square input layer
+      int threads = Runtime.getRuntime().availableProcessors();
+      boolean nearest = false;
+      String debug = null;
+      int bytes = Double.BYTES;
+
+      for (int i = 2; i + 1 < args.length; i += 2)                           // every option is followed by its value
+      {
+         String value = args[i + 1];
+         if (args[i].equals("-size"))
+            size = value.toLowerCase();
+         else if (args[i].equals("-threads"))
+            threads = Integer.parseInt(value);
+         else if (args[i].equals("-resize"))
+            nearest = value.equalsIgnoreCase("nearest");
+         else if (args[i].equals("-debug"))
+            debug = value;
+         else if (args[i].equals("-p"))
+            bytes = value.equalsIgnoreCase("float") ? Float.BYTES : Double.BYTES;
+         else
+            throw new IllegalArgumentException("Unknown option " + args[i]);
+      } // for (int i = 2; i + 1 < args.length; i += 2)
+
+      BitmapPipeline pipeline;
+      if (size == null)
+         pipeline = forInputs(numNodes[0], numOutputs);
+      else
+         pipeline = new BitmapPipeline(Integer.parseInt(size.split("x")[0]), Integer.parseInt(size.split("x")[1]), numOutputs);
+      pipeline.setThreads(threads);
+      pipeline.setNearest(nearest);
+      pipeline.setDebug(debug);
+
+      long start = System.nanoTime();
+      long rows = pipeline.write(args[0], args[1], bytes);
+      System.out.printf("Converted %d bitmaps of %s into %s in %.1f ms%n", rows, args[0], args[1],
+                        (System.nanoTime() - start) / 1e6);
+   } // public static void main(String[] args) throws IOException
+} // public class BitmapPipeline
+
+/*
+ * A member-variable-only class for holding one bitmap of a directory converted by BitmapPipeline
+ * and its class, the index of its output node, or -1 if it has none.
+ */
+final class LabeledBitmap
+{
+   File file;
+   int label;
+
+   LabeledBitmap(File file, int label)
+   {
+      this.file = file;
+      this.label = label;
+   }
+}
+
+/*
+ * A member-variable-only class for holding the grayscale arrays one thread of a BitmapPipeline converts into: the
+ * whole bitmap, the resized bitmap and the source column of every resized pixel. They grow to the largest bitmap
+ * converted, except that the whole bitmap is dropped by trim once it is larger than KEEP pixels. It also keeps the
+ * AreaResizer of the last bitmap size, since the bitmaps of a directory mostly share one size.
+ */
+final class Scratch
+{
+   static final long KEEP = 1024 * 1024;            // the most pixels of the whole bitmap kept between bitmaps (4 MB)
+
+   int[][] full = new int[0][0];
+   int[][] resized = new int[0][0];
+   int[] columns = new int[0];
+   AreaResizer resizer;                             // resizes bitmaps of resizerWidth x resizerHeight, null before the first
+   int resizerWidth;
+   int resizerHeight;
+
+   /*
+    * Returns the full or the resized array with room for at least the given number of rows and columns, growing it if
+    * needed; rows and columns past those of the bitmap hold leftovers and are never read.
+    */
+   int[][] grow(int rows, int cols, boolean whole)
+   {
+      int[][] array = whole ? full : resized;
+      if (array.length < rows || (rows > 0 && array[0].length < cols))
+      {
+         array = new int[Math.max(rows, array.length)][Math.max(cols, (array.length == 0) ? 0 : array[0].length)];
+         if (whole)
+            full = array;
+         else
+            resized = array;
+      }
+      if (!whole && columns.length < cols)
+         columns = new int[cols];
+      return array;
+   } // int[][] grow(int rows, int cols, boolean whole)
+
+   /*
+    * Returns the AreaResizer from bitmaps of the given size to the input layer, the one of the last bitmap if it had
+    * the same size, so its weights are only computed again when the size changes.
+    */
+   AreaResizer resizer(int srcWidth, int srcHeight, int width, int height)
+   {
+      if (resizer == null || resizerWidth != srcWidth || resizerHeight != srcHeight)
+      {
+         resizer = new AreaResizer(srcWidth, srcHeight, width, height);
+         resizerWidth = srcWidth;
+         resizerHeight = srcHeight;
+      }
+      return resizer;
+   }
+
+   /*
+    * Drops the array of the whole bitmap if it holds more than KEEP pixels, so the next bitmap starts from nothing.
+    */
+   void trim()
+   {
+      if (full.length > 0 && (long) full.length * full[0].length > KEEP)
+         full = new int[0][0];
+   }
+}
@@ -0,0 +1,375 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Everything the gradient method needs to go on training where it stopped: the weights, the number
+ * of iterations done, the state of the random number generator, the seed of the augmented copies
+ * and the state of the optimizer, arrays laid out like the weights. A Checkpoint is filled by the
+ * training thread and written by a CheckpointWriter, and read back when training is resumed.
+ *
+ * The file is little endian and laid out as follows:
+ *    int       MAGIC, the bytes "NNCK"
+ *    int       VERSION
+ *    int       the number of bytes per weight, 8 for doubles or 4 for floats
+ *    int       the total number of layers, L
+ *    int[L]    the number of nodes in each layer, as in dimensions.txt
+ *    long      the number of iterations done
+ *    long      the seed of the augmented copies, 0 if there are none
+ *    long      the number of steps the optimizer has taken (from version 2 on, 0 in version 1)
+ *    int       the number of optimizer state arrays, S
+ *    int       the number of bytes of the random number generator's state, R
+ *    long      the CRC-32 checksum of all the bytes that follow
+ *    byte[R]   the state of the random number generator, as java.util.Random serializes it
+ *    weights   the weights, in the layout of a binary WeightFile
+ *    states    S more arrays in the same layout, the state of the Optimizer if there is one
+ * A checkpoint is written into a temporary file next to it that then replaces it in one step, so a
+ * run killed while writing leaves the previous checkpoint whole.
+ *
+ * Checkpoint   - constructs an empty Checkpoint for the given layers
+ * setWeights   - copies the weights and optimizer state into the Checkpoint
+ * saveRandom   - returns the state of a random number generator as bytes
+ * loadRandom   - makes a random number generator from the bytes of saveRandom
+ * save         - writes the Checkpoint into a file
+ * load         - reads a Checkpoint from a file
+ */
+public class Checkpoint
+{
+   public static final int MAGIC = 0x4B434E4E;      // the bytes 'N', 'N', 'C', 'K' read as a little endian int
+   public static final int VERSION = 2;             // the version of the format written by this class, which reads 1 too
+   public static final String SUFFIX = ".ckpt";     // added to the name of the weights file to name its checkpoint
+
+   int[] numNodes;                                  // the number of nodes in each layer
+   long epoch;                                      // the number of iterations done
+   long augmentSeed;                                // the seed of the augmented copies, 0 if there are none
+   long optimizerSteps;                             // the number of steps the optimizer has taken
+   byte[] random;                                   // the state of the random number generator
+   double[][] w;                                    // the weights, null in single precision
+   float[][] w32;                                   // the weights as floats, null in double precision
+   double[][][] state;                              // the optimizer state arrays, laid out like w
+   float[][][] state32;                             // the optimizer state arrays as floats, laid out like w32
+
+   /**
+    * Constructs an empty Checkpoint whose arrays are allocated by setWeights or load.
+    *
+    * @param numNodes   the number of nodes in each layer
+    */
+   public Checkpoint(int[] numNodes)
+   {
+      this.numNodes = numNodes.clone();
+   }
+
+   /**
+    * Copies the weights and the optimizer state into the Checkpoint, allocating its arrays the
+    * first time; after that nothing is allocated, so a Checkpoint can be filled again and again.
+    * Exactly one of w and w32 is given, and the state arrays are of the same type.
+    *
+    * @param w         the weights as doubles, or null
+    * @param w32       the weights as floats, or null
+    * @param state     the optimizer state arrays as doubles, or null
+    * @param state32   the optimizer state arrays as floats, or null
+    */
+   public void setWeights(double[][] w, float[][] w32, double[][][] state, float[][][] state32)
+   {
+      if (w != null)
+      {
+         this.w = copy(w, this.w);
+         int states = (state == null) ? 0 : state.length;
+         if (this.state == null || this.state.length != states)
+            this.state = new double[states][][];
+         for (int s = 0; s < states; s++)
+            this.state[s] = copy(state[s], this.state[s]);
+         return;
+      } // if (w != null)
+
+      this.w32 = copy(w32, this.w32);
+      int states = (state32 == null) ? 0 : state32.length;
+      if (this.state32 == null || this.state32.length != states)
+         this.state32 = new float[states][][];
+      for (int s = 0; s < states; s++)
+         this.state32[s] = copy(state32[s], this.state32[s]);
+   } // public void setWeights(double[][] w, float[][] w32, double[][][] state, float[][][] state32)
+
+   /**
+    * Copies layered arrays into others of the same shape, allocating them if they are missing.
+    *
+    * @param from   the arrays to copy
+    * @param into   the arrays to copy into, or null
+    * @return       the copy
+    */
+   private static double[][] copy(double[][] from, double[][] into)
+   {
+      if (into == null)
+         into = new double[from.length][];
+      for (int n = 0; n < from.length; n++)
+      {
+         if (into[n] == null)
+            into[n] = new double[from[n].length];
+         System.arraycopy(from[n], 0, into[n], 0, from[n].length);
+      }
+      return into;
+   }
+
+   /**
+    * Copies layered arrays of floats into others of the same shape, allocating them if they are missing.
+    *
+    * @param from   the arrays to copy
+    * @param into   the arrays to copy into, or null
+    * @return       the copy
+    */
+   private static float[][] copy(float[][] from, float[][] into)
+   {
+      if (into == null)
+         into = new float[from.length][];
+      for (int n = 0; n < from.length; n++)
+      {
+         if (into[n] == null)
+            into[n] = new float[from[n].length];
+         System.arraycopy(from[n], 0, into[n], 0, from[n].length);
+      }
+      return into;
+   }
+
+   /**
+    * Returns the state of a random number generator as the bytes Java serializes it into, which
+    * hold its seed and any Gaussian value it has drawn but not handed out.
+    *
+    * @param rand   the random number generator
+    * @return       its state
+    */
+   public static byte[] saveRandom(Random rand)
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+      {
+         out.writeObject(rand);
+      }
+      catch (IOException e)                                                  // cannot happen in memory
+      {
+         throw new IllegalStateException("Cannot save the random number generator", e);
+      }
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Makes a random number generator that goes on from the state saved by saveRandom.
+    *
+    * @param state          the state
+    * @return               the random number generator
+    * @throws IOException   thrown if the state is not that of a random number generator
+    */
+   public static Random loadRandom(byte[] state) throws IOException
+   {
+      try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state)))
+      {
+         return (Random) in.readObject();
+      }
+      catch (ClassNotFoundException | ClassCastException e)
+      {
+         throw new IOException("The checkpoint does not hold a random number generator", e);
+      }
+   }
+
+   /**
+    * Writes the Checkpoint into a temporary file and then moves it over the given file in one step.
+    *
+    * @param file           the name of the checkpoint file
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   public void save(String file) throws IOException
+   {
+      Path target = Paths.get(file);
+      Path temporary = Paths.get(file + ".tmp");
+      int bytes = (w != null) ? Double.BYTES : Float.BYTES;
+      int states = (w != null) ? state.length : state32.length;
+
+      FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                                             StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      try
+      {
+         int headerSize = headerSize(numNodes.length, VERSION);
+         ByteBuffer block = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+         CRC32 crc = new CRC32();
+         long position = headerSize;
+
+         for (byte b : random)
+         {
+            if (!block.hasRemaining())
+               position += WeightFile.flush(channel, block, position, crc);
+            block.put(b);
+         }
+
+         for (int s = -1; s < states; s++)                                   // the weights, then every state array
+         {
+            double[][] layers = (w == null) ? null : (s < 0) ? w : state[s];
+            float[][] layers32 = (w != null) ? null : (s < 0) ? w32 : state32[s];
+
+            for (int n = 0; n < numNodes.length - 1; n++)
+            {
+               for (int i = 0; i < numNodes[n] * numNodes[n + 1]; i++)
+               {
+                  if (block.remaining() < bytes)                             // the block is full, writes it out
+                     position += WeightFile.flush(channel, block, position, crc);
+                  if (layers != null)
+                     block.putDouble(layers[n][i]);
+                  else
+                     block.putFloat(layers32[n][i]);
+               }
+            } // for (int n = 0; n < numNodes.length - 1; n++)
+         } // for (int s = -1; s < states; s++)
+         WeightFile.flush(channel, block, position, crc);
+
+         ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+         header.putInt(MAGIC).putInt(VERSION).putInt(bytes).putInt(numNodes.length);
+         for (int n = 0; n < numNodes.length; n++)
+            header.putInt(numNodes[n]);
+         header.putLong(epoch).putLong(augmentSeed).putLong(optimizerSteps).putInt(states).putInt(random.length).putLong(crc.getValue());
+         header.flip();
+         SampleFile.writeFully(channel, header, 0);
+         channel.force(true);                                                // on disk before it replaces the last checkpoint
+      } // try
+      finally
+      {
+         channel.close();
+      }
+
+      Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   } // public void save(String file) throws IOException
+
+   /**
+    * Reads a Checkpoint from a file, checking its layers and its checksum.
+    *
+    * @param file           the name of the checkpoint file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @return               the Checkpoint
+    * @throws IOException   thrown if the file cannot be read, or does not match the layers or its checksum
+    */
+   public static Checkpoint load(String file, int[] numNodes) throws IOException
+   {
+      FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+
+      try
+      {
+         if (channel.size() < 2 * Integer.BYTES)
+            throw new IOException(file + " is too short to be a checkpoint");
+         ByteBuffer start = channel.map(FileChannel.MapMode.READ_ONLY, 0, 2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+         if (start.getInt() != MAGIC)
+            throw new IOException(file + " is not a checkpoint");
+         int version = start.getInt();
+         if (version < 1 || version > VERSION)
+            throw new IOException(file + " has unsupported version " + version);
+
+         int headerSize = headerSize(numNodes.length, version);
+         if (channel.size() < headerSize)
+            throw new IOException(file + " is too short to be a checkpoint");
+         ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize).order(ByteOrder.LITTLE_ENDIAN);
+         header.position(2 * Integer.BYTES);
+         int bytes = header.getInt();
+         if (bytes != Double.BYTES && bytes != Float.BYTES)
+            throw new IOException(file + " has unsupported weight size " + bytes);
+         int layers = header.getInt();
+         if (layers != numNodes.length)
+            throw new IOException(file + " has " + layers + " layers, expected " + numNodes.length);
+         for (int n = 0; n < layers; n++)                                    // the topology must match dimensions.txt
+         {
+            int nodes = header.getInt();
+            if (nodes != numNodes[n])
+               throw new IOException(file + " has " + nodes + " nodes in layer " + (n + 1) + ", expected " + numNodes[n]);
+         }
+
+         Checkpoint checkpoint = new Checkpoint(numNodes);
+         checkpoint.epoch = header.getLong();
+         checkpoint.augmentSeed = header.getLong();
+         if (version >= 2)
+            checkpoint.optimizerSteps = header.getLong();
+         int states = header.getInt();
+         int randomLength = header.getInt();
+         long checksum = header.getLong();
+
+         long weights = 0;                                                   // the number of values in one layout of w
+         for (int n = 0; n < layers - 1; n++)
+            weights += (long) numNodes[n] * numNodes[n + 1];
+         long bodySize = randomLength + (1 + (long) states) * weights * bytes;
+         if (states < 0 || randomLength < 0 || channel.size() < headerSize + bodySize)
+            throw new IOException(file + " ends before its weights");
+
+         MappedByteBuffer body = channel.map(FileChannel.MapMode.READ_ONLY, headerSize, bodySize);
+         body.order(ByteOrder.LITTLE_ENDIAN);
+         CRC32 crc = new CRC32();
+         crc.update(body.duplicate());
+         if (crc.getValue() != checksum)
+            throw new IOException(file + " is corrupt, its checksum does not match");
+
+         checkpoint.random = new byte[randomLength];
+         body.get(checkpoint.random);
+
+         if (bytes == Double.BYTES)
+            checkpoint.state = new double[states][][];
+         else
+            checkpoint.state32 = new float[states][][];
+
+         for (int s = -1; s < states; s++)                                   // the weights, then every state array
+         {
+            double[][] into = (bytes == Double.BYTES) ? new double[layers - 1][] : null;
+            float[][] into32 = (bytes == Float.BYTES) ? new float[layers - 1][] : null;
+
+            for (int n = 0; n < layers - 1; n++)
+            {
+               int length = numNodes[n] * numNodes[n + 1];
+               if (into != null)
+               {
+                  into[n] = new double[length];
+                  body.asDoubleBuffer().get(into[n]);
+               }
+               else
+               {
+                  into32[n] = new float[length];
+                  body.asFloatBuffer().get(into32[n]);
+               }
+               body.position(body.position() + length * bytes);
+            } // for (int n = 0; n < layers - 1; n++)
+
+            if (s < 0)
+            {
+               checkpoint.w = into;
+               checkpoint.w32 = into32;
+            }
+            else if (into != null)
+               checkpoint.state[s] = into;
+            else
+               checkpoint.state32[s] = into32;
+         } // for (int s = -1; s < states; s++)
+         return checkpoint;
+      } // try
+      finally
+      {
+         channel.close();
+      }
+   } // public static Checkpoint load(String file, int[] numNodes) throws IOException
+
+   /**
+    * Returns the number of bytes in the header of a checkpoint for the given number of layers.
+    *
+    * @param layers    the total number of layers
+    * @param version   the version of the format
+    * @return          the size of the header in bytes
+    */
+   private static int headerSize(int layers, int version)
+   {
+      int longs = (version >= 2) ? 3 : 2;                                    // version 2 added the optimizer steps
+      return 4 * Integer.BYTES + layers * Integer.BYTES + longs * Long.BYTES + 2 * Integer.BYTES + Long.BYTES;
+   }
+} // public class Checkpoint
@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes Checkpoints of a training run every so many iterations or seconds on a thread of its own,
+ * so the training only stops for as long as it takes to copy the weights into a snapshot. The
+ * snapshot is one Checkpoint allocated once and filled again for every checkpoint: the training
+ * fills it at the end of an iteration, when the weights are whole, and the writer thread saves it
+ * while the training goes on changing the weights themselves.
+ *
+ * There is only the one snapshot, so while it is still being written the training does not wait:
+ * the checkpoint that came due is skipped and counted, and the next one is taken when it comes due
+ * again. A checkpoint that cannot be written stops the training with its exception the next time a
+ * checkpoint is taken, or at finish.
+ *
+ * CheckpointWriter - constructs a writer of checkpoints into the given file
+ * due              - returns whether a checkpoint should be taken after the given iteration
+ * take             - returns the snapshot to fill, or null while the last one is still being written
+ * write            - starts writing the filled snapshot on the writer thread
+ * finish           - waits for the last checkpoint to be written and stops the writer thread
+ * written          - returns the number of checkpoints written
+ * skipped          - returns the number of checkpoints skipped because the last one was still being written
+ * copyNanos        - returns how long the training spent filling snapshots
+ */
+public class CheckpointWriter
+{
+   private String file;                             // the checkpoint file, replaced by every checkpoint
+   private int everyIterations;                     // the iterations between checkpoints, 0 for none
+   private long everyNanos;                         // the nanoseconds between checkpoints, 0 for none
+   private long last;                               // when the last checkpoint was taken, from System.nanoTime
+   private long taken;                              // when the snapshot being filled was taken
+   private Checkpoint snapshot;                     // filled by the training and saved by the writer thread
+   private ExecutorService writer;                  // the one thread writing the snapshots
+   private Future<?> pending;                       // the snapshot being written, null if none
+   private int written;                             // the number of checkpoints written
+   private int skipped;                             // the number of checkpoints skipped while one was written
+   private long copied;                             // the nanoseconds the training spent filling snapshots
+
+   /**
+    * Constructs a writer of checkpoints into a file, taken every so many iterations, every so many
+    * seconds, or both, whichever comes first.
+    *
+    * @param file              the name of the checkpoint file
+    * @param numNodes          the number of nodes in each layer
+    * @param everyIterations   the iterations between checkpoints, 0 for none
+    * @param everySeconds      the seconds between checkpoints, 0 for none
+    */
+   public CheckpointWriter(String file, int[] numNodes, int everyIterations, int everySeconds)
+   {
+      if (everyIterations < 0 || everySeconds < 0)
+         throw new IllegalArgumentException("Checkpoint intervals cannot be negative: " +
+                                            everyIterations + " iterations, " + everySeconds + " seconds");
+
+      this.file = file;
+      this.everyIterations = everyIterations;
+      everyNanos = everySeconds * 1000000000L;
+      last = System.nanoTime();
+      snapshot = new Checkpoint(numNodes);
+      writer = Executors.newSingleThreadExecutor(runnable ->
+      {
+         Thread thread = new Thread(runnable, "checkpoint-writer");
+         thread.setDaemon(true);                                             // never keeps the program alive
+         return thread;
+      });
+   } // public CheckpointWriter(String file, int[] numNodes, int everyIterations, int everySeconds)
+
+   /**
+    * Returns whether a checkpoint should be taken after the given number of iterations: every
+    * everyIterations of them, or once everySeconds have passed since the last checkpoint.
+    *
+    * @param iteration   the number of iterations done
+    * @return            true if a checkpoint is due
+    */
+   public boolean due(long iteration)
+   {
+      if (everyIterations > 0 && iteration % everyIterations == 0)
+         return true;
+      return everyNanos > 0 && System.nanoTime() - last >= everyNanos;
+   }
+
+   /**
+    * Returns the snapshot to fill with the state of the training. If the last checkpoint is still
+    * being written, either waits for it or skips this checkpoint and returns null.
+    *
+    * @param wait           whether to wait for the last checkpoint instead of skipping this one
+    * @return               the snapshot, or null if skipped
+    * @throws IOException   thrown if the last checkpoint could not be written, or if interrupted while waiting
+    */
+   public Checkpoint take(boolean wait) throws IOException
+   {
+      if (pending != null && !pending.isDone() && !wait)
+      {
+         skipped++;
+         last = System.nanoTime();                                           // tries again after the next interval
+         return null;
+      }
+      await();
+      taken = System.nanoTime();
+      return snapshot;
+   } // public Checkpoint take(boolean wait) throws IOException
+
+   /**
+    * Starts writing the snapshot returned by take on the writer thread, once the training has filled it.
+    */
+   public void write()
+   {
+      last = System.nanoTime();
+      copied += last - taken;
+      pending = writer.submit(() ->
+      {
+         snapshot.save(file);
+         return null;
+      });
+   }
+
+   /**
+    * Waits for the checkpoint being written, if any, and rethrows the exception that stopped it.
+    *
+    * @throws IOException   thrown if the checkpoint could not be written, or if interrupted while waiting
+    */
+   private void await() throws IOException
+   {
+      if (pending == null)
+         return;
+
+      try
+      {
+         pending.get();
+         written++;
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting for a checkpoint to be written");
+      }
+      catch (ExecutionException e)
+      {
+         if (e.getCause() instanceof IOException)
+            throw (IOException) e.getCause();
+         if (e.getCause() instanceof Error)
+            throw (Error) e.getCause();
+         throw (RuntimeException) e.getCause();
+      }
+      finally
+      {
+         pending = null;
+      }
+   } // private void await() throws IOException
+
+   /**
+    * Waits for the last checkpoint to be written and stops the writer thread.
+    *
+    * @throws IOException   thrown if the checkpoint could not be written, or if interrupted while waiting
+    */
+   public void finish() throws IOException
+   {
+      try
+      {
+         await();
+      }
+      finally
+      {
+         writer.shutdown();
+      }
+   }
+
+   /**
+    * Returns the number of checkpoints written so far.
+    *
+    * @return   the number of checkpoints
+    */
+   public int written()
+   {
+      return written;
+   }
+
+   /**
+    * Returns the number of checkpoints skipped because the last one was still being written.
+    *
+    * @return   the number of checkpoints
+    */
+   public int skipped()
+   {
+      return skipped;
+   }
+
+   /**
+    * Returns how long the training spent filling snapshots, all it was held up by checkpointing
+    * unless it waited for a write.
+    *
+    * @return   the nanoseconds spent
+    */
+   public long copyNanos()
+   {
+      return copied;
+   }
+} // public class CheckpointWriter
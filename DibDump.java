@@ -37,6 +37,17 @@
  *                regardless of how it was read in.
  * Rev: 01/10/17  Was using the term 24-bit color when it was 32-bit in the comments. Fixed the documentation to be correct.
  * REV: 12/13/19  Added a warning message if the bmpFileHeader_bfType is not the expected value of 0x4D42 which are the letters BM. This short field is no longer int-swapped.
+ * Rev: 10/17/26  The header fields and imageArray are no longer static: each DibDump holds one image, so many images can be
+ *                   converted at the same time. main was broken out into readBitmap(), writeBitmap(), writeActivations() and
+ *                   writeGrayscale(), and convertDirectory() converts a whole directory of bitmaps with a pool of threads.
+ * Rev: 10/17/26  readBitmap() reads the whole file at once (memory mapped if large) into a little endian ByteBuffer and
+ *                   decodeRow() unpacks every scan line from it, instead of one readUnsignedByte() per channel. Nothing is
+ *                   byte swapped any more. The color table is read at 14 + biSize and the pels from bfOffBits; 16-bit
+ *                   scan lines are now padded like all the others. The bitmap writers build the file in a buffer too.
+ * Rev: 10/17/26  colorToGrayscale() adds up three precomputed luminance tables, one per channel, instead of multiplying
+ *                   and allocating an RgbQuad for every pel; the tables hold exactly the products the formula computed, so
+ *                   every gray value is unchanged. grayscaleRow() and activationRow() convert a whole row at once, and
+ *                   writeActivations() no longer goes through pelToRGB().
  *
  * Classes in the file:
  *  RgbQuad
@@ -50,14 +61,26 @@
  *  RgbQuad pelToRGB(int pel)
  *  int     rgbToPel(int red, int green, int blue)
  *  int     colorToGrayscale(int pel)
+ *  int     grayscale(int pel)
+ *  void    grayscaleRow(int[] pels, int[] gray)
+ *  void    activationRow(int[] pels, double[] activations, int offset)
+ *  void    readBitmap(String inFileName)
+ *  void    readBitmap(ByteBuffer bmp, String inFileName)
+ *  void    decodeRow(ByteBuffer bmp, int pos, int[] colorPallet, int[] pels)
+ *  void    setImage(int[][] pels)
+ *  void    printPels()
+ *  void    writeActivations(Writer out)
+ *  void    writeBitmap(String outFileName)
+ *  void    writeGrayscale(String outFileName, String[] grayscale)
+ *  int     convertDirectory(String directory, String outFileName, int threads)
  *  void    main(String[] args)
  *
  * There is a lot of cutting and pasting from various
  * documents dealing with bitmaps and I have not taken the
  * time to clean up the formatting in the comments. The C syntax is
  * included for reference. The types are declared in windows.h. The C
- * structures and data arrays are predefined static so that they don't
- * ever fall out of scope.
+ * structures and data arrays are member variables, one set per DibDump
+ * and so per image.
  *
  * I have not "javafied" this file. Much of it needs to be broken out into
  * various specialty methods. These modifications are left as an exercise
@@ -66,8 +89,8 @@
  * Notes on reading bitmaps:
  *
  * The BMP format assumes an Intel integer type (little endian), however, the Java virtual machine
- * uses the Motorola integer type (big endian), so we have to do a bunch of byte swaps to get things
- * to read and write correctly. Also note that many of the values in a bitmap header are unsigned
+ * uses the Motorola integer type (big endian), so DataInputStream would need a bunch of byte swaps to get
+ * things to read and write correctly. A ByteBuffer in little endian order does them for us. Also note that many of the values in a bitmap header are unsigned
  * integers of some kind and Java does not know about unsigned values, except for reading in
  * unsigned byte and unsigned short, but the unsigned int still poses a problem.
  * We don't do any math with the unsigned int values, so we won't see a problem.
@@ -105,7 +128,19 @@
  *   When lossy casts are done (e.g. int to byte) the conversion is done modulo the length of the smaller type.
  */
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 // opens a bitmap image regardless of how it's stored (true color images)
 // unwrap it
@@ -128,31 +163,54 @@ final class RgbQuad
 
 public class DibDump
    {
+   static final int MAP_THRESHOLD = 1 << 20; // files larger than this many bytes are memory mapped instead of read
+
+// the luminance of every value of each color, 0.3 * red, 0.589 * green and 0.11 * blue, and the activation
+// of every gray value, gray / 255. They are computed once, exactly as the formulas compute them.
+   static final double[] RED_LUMINANCE = new double[256];
+   static final double[] GREEN_LUMINANCE = new double[256];
+   static final double[] BLUE_LUMINANCE = new double[256];
+   static final double[] ACTIVATION = new double[256];
+
+   static
+      {
+      for (int c = 0; c < 256; ++c)
+         {
+         RED_LUMINANCE[c] = 0.3 * (double)c;
+         GREEN_LUMINANCE[c] = 0.589 * (double)c;
+         BLUE_LUMINANCE[c] = 0.11 * (double)c;
+         ACTIVATION[c] = (double)c / 255.0;
+         }
+      }
+
 // BITMAPFILEHEADER
-   static int bmpFileHeader_bfType;          // WORD
-   static int bmpFileHeader_bfSize;          // DWORD
-   static int bmpFileHeader_bfReserved1;     // WORD
-   static int bmpFileHeader_bfReserved2;     // WORD
-   static int bmpFileHeader_bfOffBits;       // DWORD
+   int bmpFileHeader_bfType;          // WORD
+   int bmpFileHeader_bfSize;          // DWORD
+   int bmpFileHeader_bfReserved1;     // WORD
+   int bmpFileHeader_bfReserved2;     // WORD
+   int bmpFileHeader_bfOffBits;       // DWORD
 // BITMAPINFOHEADER
-   static int bmpInfoHeader_biSize;          // DWORD
-   static int bmpInfoHeader_biWidth;         // LONG
-   static int bmpInfoHeader_biHeight;        // LONG
-   static int bmpInfoHeader_biPlanes;        // WORD
-   static int bmpInfoHeader_biBitCount;      // WORD
-   static int bmpInfoHeader_biCompression;   // DWORD
-   static int bmpInfoHeader_biSizeImage;     // DWORD
-   static int bmpInfoHeader_biXPelsPerMeter; // LONG
-   static int bmpInfoHeader_biYPelsPerMeter; // LONG
-   static int bmpInfoHeader_biClrUsed;       // DWORD
-   static int bmpInfoHeader_biClrImportant;  // DWORD
+   int bmpInfoHeader_biSize;          // DWORD
+   int bmpInfoHeader_biWidth;         // LONG
+   int bmpInfoHeader_biHeight;        // LONG
+   int bmpInfoHeader_biPlanes;        // WORD
+   int bmpInfoHeader_biBitCount;      // WORD
+   int bmpInfoHeader_biCompression;   // DWORD
+   int bmpInfoHeader_biSizeImage;     // DWORD
+   int bmpInfoHeader_biXPelsPerMeter; // LONG
+   int bmpInfoHeader_biYPelsPerMeter; // LONG
+   int bmpInfoHeader_biClrUsed;       // DWORD
+   int bmpInfoHeader_biClrImportant;  // DWORD
 // The true color pels
-   static int[][] imageArray;
+   int[][] imageArray;
 
 // if bmpInfoHeader_biHeight is negative then the image is a top down DIB. This flag is used to
 // identify it as such. Note that when the image is saved, it will be written out in the usual
 // inverted format with a positive bmpInfoHeader_biHeight value.
-   static boolean topDownDIB = false;
+   boolean topDownDIB = false;
+
+// whether readBitmap prints the header to the console, set for the one image of an interactive run
+   boolean verbose = false;
 /*
 * Methods to go between little and big endian integer formats.
 */
@@ -223,56 +281,103 @@ public class DibDump
  */
    public int colorToGrayscale(int pel)
       {
-      RgbQuad rgb = pelToRGB(pel);
-
-      int lum = (int) Math.round(0.3 * (double)rgb.red + 0.589 * (double)rgb.green + 0.11 * (double)rgb.blue);
+      int lum = grayscale(pel);
 
       return rgbToPel(lum, lum, lum);
       }
+
+/*
+ * The grayscale method returns the gray value, 0 to 255, of a color pel. It used to be
+ *    Math.round(0.3 * (double)rgb.red + 0.589 * (double)rgb.green + 0.11 * (double)rgb.blue)
+ * and the luminance tables hold those very products, added up in the same order, so the result is the same for every
+ * one of the 2^24 colors (checked); adding one half and truncating is Math.round for these sums.
+ */
+   public static int grayscale(int pel)
+      {
+      return (int)(RED_LUMINANCE[(pel >> 16) & 0x00FF] + GREEN_LUMINANCE[(pel >> 8) & 0x00FF]
+                   + BLUE_LUMINANCE[pel & 0x00FF] + 0.5);
+      }
+
+/*
+ * The grayscaleRow method turns a row of color pels into their gray values, 0 to 255, without allocating anything.
+ * gray must hold at least as many values as pels.
+ */
+   public static void grayscaleRow(int[] pels, int[] gray)
+      {
+      for (int j = 0; j < pels.length; ++j)
+         {
+         gray[j] = grayscale(pels[j]);
+         }
+      }
+
+/*
+ * The activationRow method writes the activation of every pel of a row, its gray value divided by 255, into
+ * activations from offset on, without allocating anything. These are the values writeActivations writes.
+ */
+   public static void activationRow(int[] pels, double[] activations, int offset)
+      {
+      for (int j = 0; j < pels.length; ++j)
+         {
+         activations[offset + j] = ACTIVATION[grayscale(pels[j])];
+         }
+      }
 /*
  *
  * ---- MAIN ----
  *
  */
-   public static void main(String[] args) throws IOException
+/*
+ * The readBitmap method reads a bitmap file into the header fields and imageArray of this DibDump, so every image
+ * read gets its own DibDump. The whole file is read into memory at once, or memory mapped if it is larger than
+ * MAP_THRESHOLD, and decoded from there by readBitmap(ByteBuffer bmp, String inFileName).
+ */
+   public void readBitmap(String inFileName) throws IOException
       {
+      FileChannel channel = FileChannel.open(Paths.get(inFileName), StandardOpenOption.READ);
 
-      String inFileName, outFileName;
-      int i, j, k;
+      try
+         {
+         long size = channel.size();
+         ByteBuffer bmp;
+
+         if (size > MAP_THRESHOLD)
+            {
+            bmp = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+         else
+            {
+            bmp = ByteBuffer.allocate((int) size);
+            while (bmp.hasRemaining() && channel.read(bmp) >= 0);   // one read for any file that fits, rarely more
+            }
+         readBitmap(bmp, inFileName);
+         }
+      finally
+         {
+         channel.close();
+         }
+      } // public void readBitmap(String inFileName) throws IOException
+
+/*
+ * This readBitmap method decodes a whole bitmap file held in a buffer into the header fields and imageArray. Every
+ * value is read with an absolute get from the buffer in little endian order, so nothing is byte swapped and the
+ * scan lines are unpacked in bulk by decodeRow, starting at bfOffBits. The buffer is not changed. If verbose is set,
+ * the header is also printed to the console. inFileName is only used in error messages.
+ */
+   public void readBitmap(ByteBuffer bmp, String inFileName) throws IOException
+      {
+      int i;
       int numberOfColors;
-      int pel;
-      int iByteVal, iColumn, iBytesPerRow, iPelsPerRow, iTrailingBits, iDeadBytes;
+      int iBytesPerRow;
 // RBGQUAD
       int rgbQuad_rgbBlue;
       int rgbQuad_rgbGreen;
       int rgbQuad_rgbRed;
-      int rgbQuad_rgbReserved;           // not used in this method
 // The color table
       int[] colorPallet = new int[256];  // reserve space for the largest possible color table
 
-      DibDump dibdumper = new DibDump(); // needed to get to the byte swapping methods
-
-      Scanner input = new Scanner(System.in);
-      System.out.println("Name of the bmp file to convert to grayscale and activations, without bmp at the end: ");
-      String name = input.next();
-
-      if (args.length > 0)
-         inFileName = args[0];
-      else
-         inFileName = name + ".bmp";
-
-      if (args.length > 1)
-         outFileName = args[1];
-      else
-         outFileName = name + "Test.bmp";
-
-      try // lots of things can go wrong when doing file i/o
-         {
-         // Open the file that is the first command line parameter
-         FileInputStream fstream = new FileInputStream(inFileName);
-
-         // Convert our input stream to a DataInputStream
-         DataInputStream in = new DataInputStream(fstream);
+      bmp = bmp.duplicate().order(ByteOrder.LITTLE_ENDIAN); // our own view, so the caller's byte order is left alone
+      if (bmp.limit() < 54) throw new EOFException(inFileName + " is too short to hold a bitmap header");
+      topDownDIB = false;
 
 /*
  *  Read in BITMAPFILEHEADER
@@ -297,14 +402,14 @@ bfOffBits
     Specifies the offset, in bytes, from the BITMAPFILEHEADER structure to the bitmap bits
 */
 
-// Read and Convert to big endian
-         bmpFileHeader_bfType      = in.readUnsignedShort();                         // WORD - un-swapped since it should be the letters BM
-         bmpFileHeader_bfSize      = dibdumper.swapInt(in.readInt());                // DWORD
-         bmpFileHeader_bfReserved1 = dibdumper.swapShort(in.readUnsignedShort());    // WORD
-         bmpFileHeader_bfReserved2 = dibdumper.swapShort(in.readUnsignedShort());    // WORD
-         bmpFileHeader_bfOffBits   = dibdumper.swapInt(in.readInt());                // DWORD
+// Read from the little endian buffer, which needs no swapping
+      bmpFileHeader_bfType      = ((bmp.get(0) & 0x00FF) << 8) | (bmp.get(1) & 0x00FF); // WORD - un-swapped since it should be the letters BM
+      bmpFileHeader_bfSize      = bmp.getInt(2);                                       // DWORD
+      bmpFileHeader_bfReserved1 = bmp.getShort(6) & 0xFFFF;                            // WORD
+      bmpFileHeader_bfReserved2 = bmp.getShort(8) & 0xFFFF;                            // WORD
+      bmpFileHeader_bfOffBits   = bmp.getInt(10);                                      // DWORD
 
-         System.out.printf("\nbfType=%4X bfSize=%d bfReserved1=%h bfReserved2=%h bfOffBits=%d\n\n",
+      if (verbose) System.out.printf("\nbfType=%4X bfSize=%d bfReserved1=%h bfReserved2=%h bfOffBits=%d\n\n",
                            bmpFileHeader_bfType,
                            bmpFileHeader_bfSize,
                            bmpFileHeader_bfReserved1,
@@ -315,7 +420,7 @@ bfOffBits
 /*
 ** The WORD value of 0x424D is reversed from the expected 0x4D42 (BM) because Java is big-endian and BMPs are defined as little-endian
 */
-         if (bmpFileHeader_bfType != 0x424D) System.out.printf("WARNING! This image is NOT a BMP file! Processing anyway... Who am I to argue.\n\n");
+      if (verbose && bmpFileHeader_bfType != 0x424D) System.out.printf("WARNING! This image is NOT a BMP file! Processing anyway... Who am I to argue.\n\n");
 
 /*
  Read in BITMAPINFOHEADER
@@ -413,20 +518,20 @@ An application should use the information stored in the biSize member to locate
 pColor = ((LPSTR)pBitmapInfo + (WORD)(pBitmapInfo->bmiHeader.biSize));
 */
 
-// Read and convert to big endian
-         bmpInfoHeader_biSize          = dibdumper.swapInt(in.readInt());              // DWORD
-         bmpInfoHeader_biWidth         = dibdumper.swapInt(in.readInt());              // LONG
-         bmpInfoHeader_biHeight        = dibdumper.swapInt(in.readInt());              // LONG
-         bmpInfoHeader_biPlanes        = dibdumper.swapShort(in.readUnsignedShort());  // WORD
-         bmpInfoHeader_biBitCount      = dibdumper.swapShort(in.readUnsignedShort());  // WORD
-         bmpInfoHeader_biCompression   = dibdumper.swapInt(in.readInt());              // DWORD
-         bmpInfoHeader_biSizeImage     = dibdumper.swapInt(in.readInt());              // DWORD
-         bmpInfoHeader_biXPelsPerMeter = dibdumper.swapInt(in.readInt());              // LONG
-         bmpInfoHeader_biYPelsPerMeter = dibdumper.swapInt(in.readInt());              // LONG
-         bmpInfoHeader_biClrUsed       = dibdumper.swapInt(in.readInt());              // DWORD
-         bmpInfoHeader_biClrImportant  = dibdumper.swapInt(in.readInt());              // DWORD
-
-         System.out.printf("biSize=%d\nbiWidth=%d\nbiHeight=%d\nbiPlanes=%d\nbiBitCount=%d\nbiCompression=%d\nbiSizeImage=%d\nbiXPelsPerMeter=%d\nbiYPelsPerMeter=%d\nbiClrUsed=%d\nbiClrImportant=%d\n",
+// Read from the little endian buffer
+      bmpInfoHeader_biSize          = bmp.getInt(14);             // DWORD
+      bmpInfoHeader_biWidth         = bmp.getInt(18);             // LONG
+      bmpInfoHeader_biHeight        = bmp.getInt(22);             // LONG
+      bmpInfoHeader_biPlanes        = bmp.getShort(26) & 0xFFFF;  // WORD
+      bmpInfoHeader_biBitCount      = bmp.getShort(28) & 0xFFFF;  // WORD
+      bmpInfoHeader_biCompression   = bmp.getInt(30);             // DWORD
+      bmpInfoHeader_biSizeImage     = bmp.getInt(34);             // DWORD
+      bmpInfoHeader_biXPelsPerMeter = bmp.getInt(38);             // LONG
+      bmpInfoHeader_biYPelsPerMeter = bmp.getInt(42);             // LONG
+      bmpInfoHeader_biClrUsed       = bmp.getInt(46);             // DWORD
+      bmpInfoHeader_biClrImportant  = bmp.getInt(50);             // DWORD
+
+      if (verbose) System.out.printf("biSize=%d\nbiWidth=%d\nbiHeight=%d\nbiPlanes=%d\nbiBitCount=%d\nbiCompression=%d\nbiSizeImage=%d\nbiXPelsPerMeter=%d\nbiYPelsPerMeter=%d\nbiClrUsed=%d\nbiClrImportant=%d\n",
                     bmpInfoHeader_biSize,
                     bmpInfoHeader_biWidth,
                     bmpInfoHeader_biHeight,
@@ -439,16 +544,16 @@ pColor = ((LPSTR)pBitmapInfo + (WORD)(pBitmapInfo->bmiHeader.biSize));
                     bmpInfoHeader_biClrUsed,
                     bmpInfoHeader_biClrImportant);
 
-         System.out.printf("\n");
+      if (verbose) System.out.printf("\n");
 
 // Since we use the height to crate arrays, it cannot have a negative a value. If the height field is
 // less than zero, then make it positive and set the topDownDIB flag to TRUE so we know that the image is
 // stored on disc upsidedown (which means it is actually rightside up).
-        if (bmpInfoHeader_biHeight < 0)
-            {
-            topDownDIB = true;
-            bmpInfoHeader_biHeight = -bmpInfoHeader_biHeight;
-            }
+      if (bmpInfoHeader_biHeight < 0)
+         {
+         topDownDIB = true;
+         bmpInfoHeader_biHeight = -bmpInfoHeader_biHeight;
+         }
 /*
 Now for the color table. For true color images, there isn't one.
 
@@ -462,25 +567,25 @@ typedef struct tagRGBQUAD {
 typedef RGBQUAD FAR* LPRGBQUAD;
 */
 
-         switch (bmpInfoHeader_biBitCount) // Determine the number of colors in the default color table
-            {
-            case 1:
-               numberOfColors = 2;
-               break;
-            case 2:
-               numberOfColors = 4;
-               break;
-            case 4:
-               numberOfColors = 16;
-               break;
-            case 8:
-               numberOfColors = 256;
-               break;
-            default:
-               numberOfColors = 0; // no color table
-            }
+      switch (bmpInfoHeader_biBitCount) // Determine the number of colors in the default color table
+         {
+         case 1:
+            numberOfColors = 2;
+            break;
+         case 2:
+            numberOfColors = 4;
+            break;
+         case 4:
+            numberOfColors = 16;
+            break;
+         case 8:
+            numberOfColors = 256;
+            break;
+         default:
+            numberOfColors = 0; // no color table
+         }
 
-         System.out.printf("Color Depth = %d, %d\n", bmpInfoHeader_biBitCount, numberOfColors);
+      if (verbose) System.out.printf("Color Depth = %d, %d\n", bmpInfoHeader_biBitCount, numberOfColors);
 /*
 * biClrUsed -  Specifies the number of color indexes in the color table that are actually used by the bitmap.
 *     If this value is zero, the bitmap uses the maximum number of colors corresponding to the value of the biBitCount member for the compression mode specified by biCompression.
@@ -489,21 +594,26 @@ typedef RGBQUAD FAR* LPRGBQUAD;
 *     If biBitCount equals 16 or 32, the optimal color palette starts immediately following the three DWORD masks.
 *     If the bitmap is a packed bitmap (a bitmap in which the bitmap array immediately follows the BITMAPINFO header and is referenced by a single pointer), the biClrUsed member must be either zero or the actual size of the color table.
 */
-         if (bmpInfoHeader_biClrUsed > 0) numberOfColors = bmpInfoHeader_biClrUsed;
+      if (bmpInfoHeader_biClrUsed > 0) numberOfColors = bmpInfoHeader_biClrUsed;
+      if (numberOfColors > colorPallet.length) throw new IOException(numberOfColors + " colors in the color table of " + inFileName);
 
-         for (i = 0; i < numberOfColors; ++i) // Read in the color table (or not if numberOfColors is zero)
-            {
-            rgbQuad_rgbBlue      = in.readUnsignedByte(); // lowest byte in the color
-            rgbQuad_rgbGreen     = in.readUnsignedByte();
-            rgbQuad_rgbRed       = in.readUnsignedByte(); // highest byte in the color
-            rgbQuad_rgbReserved  = in.readUnsignedByte();
+      long tablePos = 14L + bmpInfoHeader_biSize; // the color table follows the BITMAPINFOHEADER, whatever its version
+      if (bmpInfoHeader_biSize < 40) throw new IOException("Unsupported info header size " + bmpInfoHeader_biSize + " in " + inFileName);
+      if (tablePos + 4L * numberOfColors > bmp.limit()) throw new EOFException(inFileName + " ends in its color table");
+      int pos = (int) tablePos;
+
+      for (i = 0; i < numberOfColors; ++i, pos += 4) // Read in the color table (or not if numberOfColors is zero)
+         {
+         rgbQuad_rgbBlue      = bmp.get(pos)     & 0x00FF; // lowest byte in the color
+         rgbQuad_rgbGreen     = bmp.get(pos + 1) & 0x00FF;
+         rgbQuad_rgbRed       = bmp.get(pos + 2) & 0x00FF; // highest byte in the color
 
-            // Build the color from the RGB values. Since we declared the rgbQuad values to be int, we can shift and then OR the values
-            // to build up the color. Since we are reading one byte at a time, there are no "endian" issues.
+         // Build the color from the RGB values. Since we declared the rgbQuad values to be int, we can shift and then OR the values
+         // to build up the color. Since we are reading one byte at a time, there are no "endian" issues.
 
-            colorPallet[i] = (rgbQuad_rgbRed << 16) | (rgbQuad_rgbGreen << 8) | rgbQuad_rgbBlue;
+         colorPallet[i] = (rgbQuad_rgbRed << 16) | (rgbQuad_rgbGreen << 8) | rgbQuad_rgbBlue;
 // System.out.printf("DEBUG: Color Table = %d, %06X\n", i, colorPallet[i]);
-            } // for (i = 0; i < numberOfColors; ++i)
+         } // for (i = 0; i < numberOfColors; ++i)
 
 /*
  * Now for the fun part. We need to read in the rest of the bit map, but how we interpret the values depends on the color depth.
@@ -523,265 +633,170 @@ typedef RGBQUAD FAR* LPRGBQUAD;
  *
  */
 
+      switch (bmpInfoHeader_biBitCount)
+         {
+         case 1: case 2: case 4: case 8: case 16: case 24: case 32:
+            break;
+         default:
+            throw new IOException("Unsupported bit count " + bmpInfoHeader_biBitCount + " in " + inFileName);
+         }
+
+      if (bmpInfoHeader_biWidth <= 0 || bmpInfoHeader_biHeight <= 0) // also a height of -2^31, which stays negative
+         throw new IOException("Bad image size " + bmpInfoHeader_biWidth + " x " + bmpInfoHeader_biHeight + " in " + inFileName);
+
+// In long, since a hostile width wraps an int. Every scan line must be in the buffer before imageArray is allocated,
+// so it never holds more than 8 pels per byte of the file.
+      long bytesPerRow = ((long) bmpInfoHeader_biWidth * bmpInfoHeader_biBitCount + 31) / 32 * 4; // including the dead bytes
+      long pixelBytes = bmp.limit() - (long) bmpFileHeader_bfOffBits; // the bytes from the first scan line to the end
+      if (bmpFileHeader_bfOffBits < 0 || bytesPerRow > pixelBytes || bytesPerRow * bmpInfoHeader_biHeight > pixelBytes)
+         throw new EOFException(inFileName + " ends before its last scan line");
+      iBytesPerRow = (int) bytesPerRow;
+
          imageArray = new int[bmpInfoHeader_biHeight][bmpInfoHeader_biWidth]; // Create the array for the pels
+
+      for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
+         {
+         if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
+         decodeRow(bmp, bmpFileHeader_bfOffBits + row * iBytesPerRow, colorPallet, imageArray[i]);
+         }
+      } // public void readBitmap(ByteBuffer bmp, String inFileName) throws IOException
+
 /*
- * I use the same loop structure for each case for clarity so you can see the similarities and differences.
- * The outer loop is over the rows (in reverse), the inner loop over the columns.
+ * The decodeRow method unpacks one scan line, starting at pos in the little endian buffer bmp, into pels, one true color
+ * pel per column. The dead bytes at the end of the scan line are simply never looked at.
  */
-         switch (bmpInfoHeader_biBitCount)
-            {
-            case 1: // each bit is a color, so there are 8 pels per byte.  Works
+   private void decodeRow(ByteBuffer bmp, int pos, int[] colorPallet, int[] pels)
+      {
+      int j;
+      int word;
+      int iPelsPerRow = pels.length;
+
+      switch (bmpInfoHeader_biBitCount)
+         {
+         case 1: // each bit is a color, so there are 8 pels per byte.  Works
 /*
- * Each byte read in is 8 columns, so we need to break them out. We also have to deal with the case
- * where the image width is not an integer multiple of 8, in which case we will
- * have bits from part of the remaining byte. Each color is 1 bit which is masked with 0x01.
+ * Each byte is 8 columns, so we need to break them out; the last byte of an image that is not an integer multiple
+ * of 8 wide holds fewer. Each color is 1 bit which is masked with 0x01.
  * The screen ordering of the pels is High-Bit to Low-Bit, so the most significant element is first in the array of pels.
 */
-               iBytesPerRow = bmpInfoHeader_biWidth / 8;
-               iTrailingBits = bmpInfoHeader_biWidth % 8;
-
-               iDeadBytes = iBytesPerRow;
-               if (iTrailingBits > 0) ++iDeadBytes;
-               iDeadBytes = (4 - iDeadBytes % 4) % 4;
-
-               for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
-                  {
-                  if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
-
-                  for (j = 0; j < iBytesPerRow; ++j)
-                     {
-                     iByteVal = in.readUnsignedByte();
-
-                     for (k = 0; k < 8; ++k)     // Get 8 pels from the one byte
-                        {
-                        iColumn = j * 8 + k;
-                        pel = colorPallet[(iByteVal >> (7 - k)) & 0x01];
-                        imageArray[i][iColumn] = pel;
-                        }
-                     }
-                  if (iTrailingBits > 0) // pick up the trailing bits for images that are not mod 8 columns wide
-                     {
-                     iByteVal = in.readUnsignedByte();
-
-                     for (k = 0; k < iTrailingBits; ++k)
-                        {
-                        iColumn = iBytesPerRow * 8 + k;
-                        pel = colorPallet[(iByteVal >> (7 - k)) & 0x01];
-                        imageArray[i][iColumn] = pel;
-                        }
-                     }
-
-                  for (j = 0; j < iDeadBytes; ++j) in.readUnsignedByte(); // Now read in the "dead bytes" to pad to a 4 byte boundary
-                  }
-               break;
-            case 2: // 4 colors, Each byte is 4 pels (2 bits each),  Should work, not tested.
+            for (j = 0; j < iPelsPerRow; ++j)
+               pels[j] = colorPallet[(bmp.get(pos + (j >> 3)) >> (7 - (j & 7))) & 0x01];
+            break;
+         case 2: // 4 colors, Each byte is 4 pels (2 bits each),  Should work, not tested.
 /*
-* Each byte read in is 4 columns, so we need to break them out. We also have to deal with the case
-* where the image width is not an integer multiple of 4, in which case we will
-* have from 2 to 6 bits of the remaining byte. Each color is 2 bits which is masked with 0x03.
+* Each byte is 4 columns, so we need to break them out. Each color is 2 bits which is masked with 0x03.
 * The screen ordering of the pels is High-Half-Nibble to Low-Half-Nibble, so the most significant element is first in the array of pels.
 */
-               iBytesPerRow = bmpInfoHeader_biWidth / 4;
-               iTrailingBits = bmpInfoHeader_biWidth % 4; // 0, 1, 2 or 3
-
-               iDeadBytes = iBytesPerRow;
-               if (iTrailingBits > 0) ++iDeadBytes;
-               iDeadBytes = (4 - iDeadBytes % 4) % 4;
-
-               for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
-                  {
-                  if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
-
-                  for (j = 0; j < iBytesPerRow; ++j)
-                     {
-                     iByteVal = in.readUnsignedByte();
-
-                     for (k = 0; k < 4; ++k) // Get 4 pels from one byte
-                        {
-                        iColumn = j * 4 + k;
-                        pel = colorPallet[(iByteVal >> ((3 - k) * 2)) & 0x03]; // shift 2 bits at a time and reverse order
-                        imageArray[i][iColumn] = pel;
-                        }
-                     }
-                  if (iTrailingBits > 0) // pick up the trailing nibble for images that are not mod 2 columns wide
-                     {
-                     iByteVal = in.readUnsignedByte();
-
-                     for (k = 0; k < iTrailingBits; ++k)
-                        {
-                        iColumn = iBytesPerRow * 4 + k;
-                        pel = colorPallet[(iByteVal >> ((3 - k) * 2)) & 0x03];
-                        imageArray[i][iColumn] = pel;
-                        }
-                     }
-                  for (j = 0; j < iDeadBytes; ++j) in.readUnsignedByte(); // Now read in the "dead bytes" to pad to a 4 byte boundary
-                  }
-               break;
-            case 4: // 16 colors, Each byte is two pels. Works
+            for (j = 0; j < iPelsPerRow; ++j)
+               pels[j] = colorPallet[(bmp.get(pos + (j >> 2)) >> ((3 - (j & 3)) * 2)) & 0x03]; // shift 2 bits at a time and reverse order
+            break;
+         case 4: // 16 colors, Each byte is two pels. Works
 /*
-* Each byte read in is 2 columns, so we need to break them out. We also have to deal with the case
-* where the image width is not an integer multiple of 2, in which case we will
-* have one nibble from part of the remaining byte. We then read in the dead bytes so that each
-* scan line is a multiple of 4 bytes. Each color is a nibble (4 bits) which is masked with 0x0F.
+* Each byte is 2 columns, so we need to break them out. Each color is a nibble (4 bits) which is masked with 0x0F.
 * The screen ordering of the pels is High-Nibble Low-Nibble, so the most significant element is first in the array of pels.
 */
-               iPelsPerRow   = bmpInfoHeader_biWidth;
-               iBytesPerRow  = iPelsPerRow / 2;
-               iTrailingBits = iPelsPerRow % 2;  // Will either be 0 or 1
-
-               iDeadBytes = iBytesPerRow;
-               if (iTrailingBits > 0) ++iDeadBytes;
-               iDeadBytes = (4 - iDeadBytes % 4) % 4;
-
-               for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
-                  {
-                  if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
-
-                  for (j = 0; j < iBytesPerRow; ++j)
-                     {
-                     iByteVal = in.readUnsignedByte();
-
-                     for (k = 0; k < 2; ++k) // Two pels per byte
-                        {
-                        iColumn = j * 2 + k;          // 1 - k  is needed to have High, Low nibble ordering for the image.
-                        pel = colorPallet[(iByteVal >> ((1 - k) * 4)) & 0x0F]; // shift 4 bits at a time
-                        imageArray[i][iColumn] = pel;
-                        }
-                     }
-
-                  if (iTrailingBits > 0) // pick up the trailing nibble for images that are not mod 2 columns wide
-                     {
-                     iByteVal = in.readUnsignedByte();
-
-                     iColumn = iBytesPerRow * 2;
-                     pel = colorPallet[(iByteVal >> 4) & 0x0F]; // The High nibble is the last remaining pel
-                     imageArray[i][iColumn] = pel;
-                     }
-                  for (j = 0; j < iDeadBytes; ++j) in.readUnsignedByte(); // Now read in the "dead bytes" to pad to a 4 byte boundary
-                  } // for (i = bmpInfoHeader_biHeight - 1; i >= 0; --i)
-               break;
-            case 8: // 1 byte, 1 pel, Works
-/*
-* Each byte read in is 1 column. We then read in the dead bytes so that each scan line is a multiple of 4 bytes.
-*/
-               iPelsPerRow = bmpInfoHeader_biWidth;
-               iDeadBytes = (4 - iPelsPerRow % 4) % 4;
-               for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
-                  {
-                  if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
-
-                  for (j = 0; j < iPelsPerRow; ++j)         // j is now just the column counter
-                     {
-                     iByteVal = in.readUnsignedByte();
-                     pel = colorPallet[iByteVal];
-                     imageArray[i][j] = pel;
-                     }
-
-                  for (j = 0; j < iDeadBytes; ++j) in.readUnsignedByte(); // Now read in the "dead bytes" to pad to a 4 byte boundary
-                  }
-               break;
-            case 16: // Not likely to work (format is not internally consistent), not tested.
+            for (j = 0; j < iPelsPerRow; ++j)
+               pels[j] = colorPallet[(bmp.get(pos + (j >> 1)) >> ((1 - (j & 1)) * 4)) & 0x0F]; // 1 - (j & 1) gives the High, Low nibble ordering
+            break;
+         case 8: // 1 byte, 1 pel, Works
+            for (j = 0; j < iPelsPerRow; ++j)
+               pels[j] = colorPallet[bmp.get(pos + j) & 0x00FF];
+            break;
+         case 16: // Not likely to work (format is not internally consistent), not tested.
 /*
-* Each two bytes read in is 1 column. Each color is 5 bits in the 2 byte word value, so we shift 5 bits and then mask them
-* off with 0x1F which is %11111 in binary. We then read in the dead bytes so that each scan line is a multiple of 4 bytes.
+* Each two bytes is 1 column. Each color is 5 bits in the 2 byte word value, so we shift 5 bits and then mask them
+* off with 0x1F which is %11111 in binary.
 */
-               iPelsPerRow = bmpInfoHeader_biWidth;
-               iDeadBytes = (4 - iPelsPerRow % 4) % 4;
-               for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
-                  {
-                  if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
-
-                  for (j = 0; j < iPelsPerRow; ++j)         // j is now just the column counter
-                     {
-                     pel = dibdumper.swapShort(in.readUnsignedShort()); // Need to deal with little endian values
-                     rgbQuad_rgbBlue      =  pel        & 0x1F;
-                     rgbQuad_rgbGreen     = (pel >> 5)  & 0x1F;
-                     rgbQuad_rgbRed       = (pel >> 10) & 0x1F;
-                     pel = (rgbQuad_rgbRed << 16) | (rgbQuad_rgbGreen << 8) | rgbQuad_rgbBlue;
-                     imageArray[i][j] = pel;
-                     }
-
-                  for (j = 0; j < iDeadBytes; ++j) in.readUnsignedByte(); // Now read in the "dead bytes" to pad to a 4 byte boundary
-                  } // for (i = bmpInfoHeader_biHeight - 1; i >= 0; --i)
-               break;
-            case 24: // Works
-/*
-* Each three bytes read in is 1 column. Each scan line is padded to by a multiple of 4 bytes. The disk image has only 3 however.
+            for (j = 0; j < iPelsPerRow; ++j)
+               {
+               word = bmp.getShort(pos + 2 * j) & 0xFFFF; // already little endian
+               pels[j] = (((word >> 10) & 0x1F) << 16) | (((word >> 5) & 0x1F) << 8) | (word & 0x1F);
+               }
+            break;
+         case 24: // Works
+/*
+* Each three bytes is 1 column, stored as blue, green, red.
 */
-               iPelsPerRow = bmpInfoHeader_biWidth;
-               iDeadBytes = (4 - (iPelsPerRow * 3) % 4) % 4;
-
-               for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
-                  {
-                  if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
-
-                  for (j = 0; j < iPelsPerRow; ++j)         // j is now just the column counter
-                     {
-                     rgbQuad_rgbBlue      = in.readUnsignedByte();
-                     rgbQuad_rgbGreen     = in.readUnsignedByte();
-                     rgbQuad_rgbRed       = in.readUnsignedByte();
-                     pel = (rgbQuad_rgbRed << 16) | (rgbQuad_rgbGreen << 8) | rgbQuad_rgbBlue;
-                     imageArray[i][j] = pel;
-                     }
-                  for (j = 0; j < iDeadBytes; ++j) in.readUnsignedByte(); // Now read in the "dead bytes" to pad to a 4 byte boundary
-                  }
-               break;
-            case 32: // Works
+            for (j = 0; j < iPelsPerRow; ++j, pos += 3)
+               pels[j] = ((bmp.get(pos + 2) & 0x00FF) << 16) | ((bmp.get(pos + 1) & 0x00FF) << 8) | (bmp.get(pos) & 0x00FF);
+            break;
+         case 32: // Works
 /*
-* Each four bytes read in is 1 column. The number of bytes per line will always be a multiple of 4, so there are no dead bytes.
+* Each four bytes is 1 column, stored as blue, green, red and the reserved byte, which is exactly a little endian int.
 */
-               iPelsPerRow = bmpInfoHeader_biWidth;
-               for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
-                  {
-                  if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
-
-                  for (j = 0; j < iPelsPerRow; ++j)         // j is now just the column counter
-                     {
-                     rgbQuad_rgbBlue      = in.readUnsignedByte();
-                     rgbQuad_rgbGreen     = in.readUnsignedByte();
-                     rgbQuad_rgbRed       = in.readUnsignedByte();
-                     rgbQuad_rgbReserved  = in.readUnsignedByte();
-                     pel =  (rgbQuad_rgbReserved << 24) |(rgbQuad_rgbRed << 16) | (rgbQuad_rgbGreen << 8) | rgbQuad_rgbBlue;
-                     imageArray[i][j] = pel;
-                     }
-                  }
-               break;
-            default: // Oops
-               System.out.printf("This error should not occur - 1!\n");
-
-            } // switch (bmpInfoHeader_biBitCount)
+            for (j = 0; j < iPelsPerRow; ++j)
+               pels[j] = bmp.getInt(pos + 4 * j);
+            break;
+         default: // Oops
+            throw new IllegalStateException("This error should not occur - 1!");
+         } // switch (bmpInfoHeader_biBitCount)
+      } // private void decodeRow(ByteBuffer bmp, int pos, int[] colorPallet, int[] pels)
 
-         in.close();
-         fstream.close();
-         } // try
-      catch (Exception e)
-         {
-         System.err.println("File input error" + e);
-         }
 /*
- * Console dump of image bytes in HEX if the image is smaller than 33 x 33
+ * The setImage method makes this DibDump hold an image built in memory, with imageArray[0] as its top row, and sets up
+ * a header for it so it can be written out with writeBitmap.
  */
+   public void setImage(int[][] pels)
+      {
+      imageArray = pels;
+      topDownDIB = false;
+      bmpFileHeader_bfType = 0x424D;                    // the letters BM, un-swapped
+      bmpFileHeader_bfReserved1 = 0;
+      bmpFileHeader_bfReserved2 = 0;
+      bmpInfoHeader_biSize = 40;                        // a plain BITMAPINFOHEADER
+      bmpInfoHeader_biWidth = (pels.length == 0) ? 0 : pels[0].length;
+      bmpInfoHeader_biHeight = pels.length;
+      bmpInfoHeader_biPlanes = 1;
+      bmpInfoHeader_biXPelsPerMeter = 2835;             // 72 dots per inch
+      bmpInfoHeader_biYPelsPerMeter = 2835;
+      } // public void setImage(int[][] pels)
 
+/*
+ * The printPels method dumps the pels to the console in HEX if the image is smaller than 33 x 33.
+ */
+   public void printPels()
+      {
       if ((bmpInfoHeader_biWidth < 33) && (bmpInfoHeader_biHeight < 33))
          {
-         iBytesPerRow = bmpInfoHeader_biWidth;
-         for (i = 0; i < bmpInfoHeader_biHeight; ++i) // read over the rows
+         for (int i = 0; i < bmpInfoHeader_biHeight; ++i) // read over the rows
             {
-            for (j = 0; j < iBytesPerRow; ++j)         // j is now just the column counter
+            for (int j = 0; j < bmpInfoHeader_biWidth; ++j) // j is now just the column counter
                {
                System.out.printf("%08X ", imageArray[i][j]);
                }
             System.out.printf("\n");
             }
          }
+      } // public void printPels()
 
 /*
- * Now write out the true color bitmap (24-bits) to a disk file. This is here mostly to be sure we did it all correctly.
- *
+ * The writeActivations method writes the grayscale value of every pel divided by 255 to out, each followed by a space,
+ * in the order the pels are stored on disk: the bottom row first and every row from left to right. This is the
+ * content of the _act.txt file, one line with no line break at the end.
  */
-      try
+   public void writeActivations(Writer out) throws IOException
+      {
+      StringBuilder line = new StringBuilder(bmpInfoHeader_biWidth * 21); // a value is at most about 20 characters
+      double[] activations = new double[bmpInfoHeader_biWidth];
+      for (int i = bmpInfoHeader_biHeight - 1; i >= 0; --i)    // over the rows (in the usual inverted format)
          {
-         iDeadBytes = (4 - (bmpInfoHeader_biWidth * 3) % 4) % 4;
+         activationRow(imageArray[i], activations, 0);
+         for (int j = 0; j < bmpInfoHeader_biWidth; ++j) // and the columns
+            {
+            line.append(activations[j]).append(' ');
+            }
+         out.write(line.toString());
+         line.setLength(0);
+         }
+      } // public void writeActivations(Writer out) throws IOException
+
+/*
+ * The setTrueColorHeader method changes the header into the one of a 24-bit true color image of the same size, stored
+ * in the usual inverted format, and returns the number of dead bytes that pad each scan line to a 4 byte boundary.
+ */
+   private int setTrueColorHeader()
+      {
+      int iDeadBytes = (4 - (bmpInfoHeader_biWidth * 3) % 4) % 4;
 
          bmpInfoHeader_biSizeImage =  (bmpInfoHeader_biWidth * 3 + iDeadBytes) * bmpInfoHeader_biHeight;
          bmpFileHeader_bfOffBits = 54;        // 54 byte offset for 24 bit images (just open one with this app to get this value)
@@ -791,113 +806,261 @@ typedef RGBQUAD FAR* LPRGBQUAD;
          bmpInfoHeader_biClrUsed = 0;         // Zero for true color
          bmpInfoHeader_biClrImportant = 0;    // Zero for true color
 
-         FileOutputStream fstream = new FileOutputStream(outFileName);
-         DataOutputStream out = new DataOutputStream(fstream);
+      return iDeadBytes;
+      } // private int setTrueColorHeader()
 
+/*
+ * The writeHeader method puts the BITMAPFILEHEADER and BITMAPINFOHEADER into a little endian buffer, so no swapping is needed.
+ */
+   private void writeHeader(ByteBuffer out)
+      {
 // BITMAPFILEHEADER
-         out.writeShort(bmpFileHeader_bfType);                           // WORD - un-swapped since should be the letters BM
-         out.writeInt(dibdumper.swapInt(bmpFileHeader_bfSize));          // DWORD
-         out.writeShort(dibdumper.swapShort(bmpFileHeader_bfReserved1)); // WORD
-         out.writeShort(dibdumper.swapShort(bmpFileHeader_bfReserved2)); // WORD
-         out.writeInt(dibdumper.swapInt(bmpFileHeader_bfOffBits));       // DWORD
+      out.put((byte) (bmpFileHeader_bfType >> 8)); // WORD - un-swapped since should be the letters BM
+      out.put((byte) bmpFileHeader_bfType);
+      out.putInt(bmpFileHeader_bfSize);                    // DWORD
+      out.putShort((short) bmpFileHeader_bfReserved1);     // WORD
+      out.putShort((short) bmpFileHeader_bfReserved2);     // WORD
+      out.putInt(bmpFileHeader_bfOffBits);                 // DWORD
 
 // BITMAPINFOHEADER
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biSize));          // DWORD
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biWidth));         // LONG
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biHeight));        // LONG
-         out.writeShort(dibdumper.swapShort(bmpInfoHeader_biPlanes));    // WORD
-         out.writeShort(dibdumper.swapShort(bmpInfoHeader_biBitCount));  // WORD
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biCompression));   // DWORD
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biSizeImage));     // DWORD
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biXPelsPerMeter)); // LONG
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biYPelsPerMeter)); // LONG
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biClrUsed));       // DWORD
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biClrImportant));  // DWORD
+      out.putInt(bmpInfoHeader_biSize);                    // DWORD
+      out.putInt(bmpInfoHeader_biWidth);                   // LONG
+      out.putInt(bmpInfoHeader_biHeight);                  // LONG
+      out.putShort((short) bmpInfoHeader_biPlanes);        // WORD
+      out.putShort((short) bmpInfoHeader_biBitCount);      // WORD
+      out.putInt(bmpInfoHeader_biCompression);             // DWORD
+      out.putInt(bmpInfoHeader_biSizeImage);               // DWORD
+      out.putInt(bmpInfoHeader_biXPelsPerMeter);           // LONG
+      out.putInt(bmpInfoHeader_biYPelsPerMeter);           // LONG
+      out.putInt(bmpInfoHeader_biClrUsed);                 // DWORD
+      out.putInt(bmpInfoHeader_biClrImportant);            // DWORD
+      } // private void writeHeader(ByteBuffer out)
+
+/*
+ * The writeBitmap method writes the pels out as a true color bitmap (24-bits). This is here mostly to be sure we did it all correctly.
+ * The whole file is built in memory and written with one call.
+ */
+   public void writeBitmap(String outFileName) throws IOException
+      {
+      int iDeadBytes = setTrueColorHeader();
+      ByteBuffer out = ByteBuffer.allocate(bmpFileHeader_bfSize).order(ByteOrder.LITTLE_ENDIAN);
+
+      writeHeader(out);
 
 // there is no color table for this true color image, so write out the pels
-         rgbQuad_rgbReserved = 0;
+      for (int i = bmpInfoHeader_biHeight - 1; i >= 0; --i)    // write over the rows (in the usual inverted format)
+         {
+         for (int j = 0; j < bmpInfoHeader_biWidth; ++j) // and the columns
+            {
+            int pel = imageArray[i][j];
+            out.put((byte) pel);         // lowest byte in the color
+            out.put((byte) (pel >> 8));
+            out.put((byte) (pel >> 16)); // highest byte in the color
+            }
+         out.position(out.position() + iDeadBytes); // the "dead bytes" that pad to a 4 byte boundary are already 0
+         }
+
+      writeFile(outFileName, out);
+      } // public void writeBitmap(String outFileName) throws IOException
 
-         BufferedWriter writeA = new BufferedWriter(new FileWriter(name + "_act.txt"));
-         RgbQuad temp;
-         for (i = bmpInfoHeader_biHeight - 1; i >= 0; --i)    // write over the rows (in the usual inverted format)
+/*
+ * The writeGrayscale method turns a line of activations, as written by writeActivations, back into a 24-bit grayscale bitmap
+ * of the size of this image.
+ */
+   public void writeGrayscale(String outFileName, String[] grayscale) throws IOException
+      {
+      int iDeadBytes = setTrueColorHeader();
+      ByteBuffer out = ByteBuffer.allocate(bmpFileHeader_bfSize).order(ByteOrder.LITTLE_ENDIAN);
+
+      writeHeader(out);
+
+      for (int i = bmpInfoHeader_biHeight - 1; i >= 0; --i)    // write over the rows (in the usual inverted format)
+         {
+         for (int count = 0; count < bmpInfoHeader_biWidth; ++count) // and the columns
             {
-            for (j = 0; j < bmpInfoHeader_biWidth; ++j) // and the columns
+            double gray = Double.parseDouble(grayscale[count + (bmpInfoHeader_biWidth * (bmpInfoHeader_biHeight - 1 - i))]) * 255;
+            out.put((byte) gray); // lowest byte in the color
+            out.put((byte) gray);
+            out.put((byte) gray); // highest byte in the color
+            }
+         out.position(out.position() + iDeadBytes); // the "dead bytes" that pad to a 4 byte boundary are already 0
+         }
+
+      writeFile(outFileName, out);
+      } // public void writeGrayscale(String outFileName, String[] grayscale) throws IOException
+
+/*
+ * The writeFile method writes the whole content of a heap buffer into a file.
+ */
+   private static void writeFile(String outFileName, ByteBuffer out) throws IOException
+      {
+      FileOutputStream fstream = new FileOutputStream(outFileName);
+
+      try
+         {
+         fstream.write(out.array(), 0, out.position());
+         }
+      finally
+         {
+         fstream.close();
+         }
+      } // private static void writeFile(String outFileName, ByteBuffer out) throws IOException
+
+/*
+ * The convertDirectory method reads every .bmp file of a directory, in the order of their names, with a pool of threads,
+ * one DibDump per image, and writes their activations. If outFileName is null, every image gets its own name_act.txt next
+ * to it; otherwise all the activations go into that one file, one line per image in the order of the names. A bitmap that
+ * cannot be read is reported and skipped when every image gets its own file. In the one file, skipping it would move every
+ * later line against the image, and the label, it stands for, so the whole file is deleted and an IOException naming the
+ * bitmap is thrown instead. Returns the number of images converted.
+ */
+   public static int convertDirectory(String directory, String outFileName, int threads) throws IOException, InterruptedException
+      {
+      File[] files = new File(directory).listFiles((dir, fileName) -> fileName.toLowerCase().endsWith(".bmp"));
+      if (files == null) throw new IOException(directory + " is not a directory");
+      Arrays.sort(files);
+
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      List<Future<String>> lines = new ArrayList<Future<String>>();
+      for (File file : files)
+         {
+         lines.add(pool.submit(() ->
+            {
+            DibDump image = new DibDump(); // the header and pels of this image alone
+            image.readBitmap(file.getPath());
+
+            StringWriter line = new StringWriter();
+            if (outFileName != null)
                {
-                  pel = imageArray[i][j];
-                  rgbQuad_rgbBlue  = pel & 0x00FF;
-                  rgbQuad_rgbGreen = (pel >> 8)  & 0x00FF;
-                  rgbQuad_rgbRed   = (pel >> 16) & 0x00FF;
-                  int lum = dibdumper.colorToGrayscale(pel);
-                  temp = dibdumper.pelToRGB(lum);
-                  writeA.write((double) temp.blue / 255.0 + " ");
-
-                  out.writeByte(rgbQuad_rgbBlue); // lowest byte in the color
-                  out.writeByte(rgbQuad_rgbGreen);
-                  out.writeByte(rgbQuad_rgbRed);  // highest byte in the color
-                  if (bmpInfoHeader_biBitCount == 32) out.writeByte(rgbQuad_rgbReserved);
+               image.writeActivations(line);
+               return line.toString();
                }
-
-            if (bmpInfoHeader_biBitCount != 32)
-               {
-               for (j = 0; j < iDeadBytes; ++j)
-                  {
-                  out.writeByte(0); // Now write out the "dead bytes" to pad to a 4 byte boundary
-                  }
+
+            String path = file.getPath();
+            Writer writeA = new BufferedWriter(new FileWriter(path.substring(0, path.length() - 4) + "_act.txt"));
+            try
+               {
+               image.writeActivations(writeA);
                }
-            } // for (i = bmpInfoHeader_biHeight - 1; i >= 0; --i)
-         out.close();
-         fstream.close();
-         writeA.close();
+            finally
+               {
+               writeA.close();
+               }
+            return null;
+            }));
+         } // for (File file : files)
+      pool.shutdown();
 
-     // reads a file of grayscale and revert back to a bmp image
-         FileOutputStream tstream = new FileOutputStream(name + "Gray.bmp");
-         DataOutputStream out2 = new DataOutputStream(tstream);
-
-      // BITMAPFILEHEADER
-         out2.writeShort(bmpFileHeader_bfType);                           // WORD - un-swapped since should be the letters BM
-         out2.writeInt(dibdumper.swapInt(bmpFileHeader_bfSize));          // DWORD
-         out2.writeShort(dibdumper.swapShort(bmpFileHeader_bfReserved1)); // WORD
-         out2.writeShort(dibdumper.swapShort(bmpFileHeader_bfReserved2)); // WORD
-         out2.writeInt(dibdumper.swapInt(bmpFileHeader_bfOffBits));       // DWORD
-
-   //BITMAPINFOHEADER
-         out2.writeInt(dibdumper.swapInt(bmpInfoHeader_biSize));          // DWORD
-         out2.writeInt(dibdumper.swapInt(bmpInfoHeader_biWidth));         // LONG
-         out2.writeInt(dibdumper.swapInt(bmpInfoHeader_biHeight));        // LONG
-         out2.writeShort(dibdumper.swapShort(bmpInfoHeader_biPlanes));    // WORD
-         out2.writeShort(dibdumper.swapShort(bmpInfoHeader_biBitCount));  // WORD
-         out2.writeInt(dibdumper.swapInt(bmpInfoHeader_biCompression));   // DWORD
-         out2.writeInt(dibdumper.swapInt(bmpInfoHeader_biSizeImage));     // DWORD
-         out2.writeInt(dibdumper.swapInt(bmpInfoHeader_biXPelsPerMeter)); // LONG
-         out2.writeInt(dibdumper.swapInt(bmpInfoHeader_biYPelsPerMeter)); // LONG
-         out2.writeInt(dibdumper.swapInt(bmpInfoHeader_biClrUsed));       // DWORD
-         out2.writeInt(dibdumper.swapInt(bmpInfoHeader_biClrImportant));  // DWORD
-
-         String line = "";
-         System.out.println("File name for post-processing activations back into bmp: ");
-         BufferedReader readA = new BufferedReader(new FileReader(input.next()));
-         String[] grayscale = readA.readLine().split(" ");
-         System.out.println(bmpInfoHeader_biWidth + "x" + bmpInfoHeader_biHeight);
-         for (i = bmpInfoHeader_biHeight - 1; i >= 0; --i)    // write over the rows (in the usual inverted format)
+      int converted = 0;
+      BufferedWriter out = (outFileName == null) ? null : new BufferedWriter(new FileWriter(outFileName));
+      try
          {
-            for (int count = 0; count < bmpInfoHeader_biWidth; ++count) // and the columns
-            {
-               double gray = Double.parseDouble(grayscale[count + (bmpInfoHeader_biWidth * (bmpInfoHeader_biHeight - 1 - i))]) * 255;
-               out2.writeByte((int) gray); // lowest byte in the color
-               out2.writeByte((int) gray);
-               out2.writeByte((int) gray);  // highest byte in the color
-            }
-            if (bmpInfoHeader_biBitCount != 32)
+         for (int i = 0; i < files.length; ++i) // in the order of the names, whichever finishes first
             {
-            for (j = 0; j < iDeadBytes; ++j)
+            try
+               {
+               String line = lines.get(i).get();
+               if (out != null)
+                  {
+                  out.write(line);
+                  out.newLine();
+                  }
+               ++converted;
+               }
+            catch (ExecutionException e)
                {
-               out2.writeByte(0); // Now write out the "dead bytes" to pad to a 4 byte boundary
+               if (out != null) // the lines after it would no longer match the names
+                  {
+                  out.close();
+                  out = null;
+                  new File(outFileName).delete();
+                  throw new IOException("File input error " + files[i] + ", " + outFileName + " deleted: " + e.getCause(), e.getCause());
+                  }
+               System.err.println("File input error " + files[i] + ": " + e.getCause());
                }
             }
          }
-         out2.close();
-         tstream.close();
+      finally
+         {
+         if (out != null) out.close();
+         pool.shutdownNow();
+         }
+      return converted;
+      } // public static int convertDirectory(String directory, String outFileName, int threads)
 
+/*
+ *
+ * ---- MAIN ----
+ *
+ * With no arguments, asks for the name of one bitmap, converts it and asks for an activations file to turn back into a bitmap.
+ * With -dir, converts a whole directory of bitmaps without asking anything:
+ *    java DibDump -dir <directory> [-o <activations file>] [-threads <number of threads>]
+ */
+   public static void main(String[] args) throws IOException, InterruptedException
+      {
+      if (args.length > 1 && args[0].equals("-dir"))
+         {
+         String outFileName = null;                                 // null for one _act.txt per image
+         int threads = Runtime.getRuntime().availableProcessors();
+
+         for (int i = 2; i + 1 < args.length; i += 2)
+            {
+            if (args[i].equals("-o")) outFileName = args[i + 1];
+            else if (args[i].equals("-threads")) threads = Integer.parseInt(args[i + 1]);
+            else throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+
+         long start = System.nanoTime();
+         int converted = convertDirectory(args[1], outFileName, threads);
+         System.out.printf("Converted %d bitmaps in %.1f ms with %d threads\n", converted, (System.nanoTime() - start) / 1e6, threads);
+         return;
+         } // if (args.length > 1 && args[0].equals("-dir"))
+
+      String inFileName, outFileName;
+
+      DibDump dibdumper = new DibDump(); // holds the header and pels of the one image
+      dibdumper.verbose = true;
+
+      Scanner input = new Scanner(System.in);
+      System.out.println("Name of the bmp file to convert to grayscale and activations, without bmp at the end: ");
+      String name = input.next();
+
+      if (args.length > 0)
+         inFileName = args[0];
+      else
+         inFileName = name + ".bmp";
+
+      if (args.length > 1)
+         outFileName = args[1];
+      else
+         outFileName = name + "Test.bmp";
+
+      try // lots of things can go wrong when doing file i/o
+         {
+         dibdumper.readBitmap(inFileName);
+         }
+      catch (Exception e)
+         {
+         System.err.println("File input error" + e);
+         }
+
+      dibdumper.printPels();
+
+      try
+         {
+         dibdumper.writeBitmap(outFileName);
+
+         BufferedWriter writeA = new BufferedWriter(new FileWriter(name + "_act.txt"));
+         dibdumper.writeActivations(writeA);
+         writeA.close();
+
+     // reads a file of grayscale and revert back to a bmp image
+         System.out.println("File name for post-processing activations back into bmp: ");
+         BufferedReader readA = new BufferedReader(new FileReader(input.next()));
+         String[] grayscale = readA.readLine().split(" ");
+         readA.close();
+         System.out.println(dibdumper.bmpInfoHeader_biWidth + "x" + dibdumper.bmpInfoHeader_biHeight);
+         dibdumper.writeGrayscale(name + "Gray.bmp", grayscale);
          }
       catch (Exception e)
          {
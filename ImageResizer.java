@@ -30,7 +30,21 @@ public class ImageResizer
         // reads input image
         File inputFile = new File(inputImagePath);
         BufferedImage inputImage = ImageIO.read(inputFile);
+        resize(inputImage, outputImagePath, scaledWidth, scaledHeight);
+    }
 
+    /**
+     * Resizes an image already read to a absolute width and height and saves it
+     * @param inputImage the original image
+     * @param outputImagePath Path to save the resized image
+     * @param scaledWidth absolute width in pixels
+     * @param scaledHeight absolute height in pixels
+     * @throws IOException
+     */
+    private static void resize(BufferedImage inputImage,
+            String outputImagePath, int scaledWidth, int scaledHeight)
+            throws IOException
+    {
         // creates output image
         BufferedImage outputImage = new BufferedImage(scaledWidth,
                 scaledHeight, inputImage.getType());
@@ -63,7 +77,7 @@ public class ImageResizer
         BufferedImage inputImage = ImageIO.read(inputFile);
         int scaledWidth = (int) (inputImage.getWidth() * percent);
         int scaledHeight = (int) (inputImage.getHeight() * percent);
-        resize(inputImagePath, outputImagePath, scaledWidth, scaledHeight);
+        resize(inputImage, outputImagePath, scaledWidth, scaledHeight);
     }
 
     /**
@@ -0,0 +1,655 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteOrder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP server that loads a trained Perceptron once, as a Model, and scores the test sets
+ * posted to it. Requests that arrive close together are coalesced into one batch for
+ * Model.outputBatch: a batch is run as soon as it holds maxBatch test sets, or once the oldest
+ * request in it has waited for the latency budget, whichever comes first.
+ *
+ * POST /predict takes either text, one test set per line with its input values separated by white
+ * spaces (any values after the inputs, such as T values, are ignored), or a bitmap of any size, which
+ * BitmapPipeline resizes to a square input layer and turns into activations the way DibDump does:
+ * grayscale divided by 255, bottom row first. The response holds the values of the output nodes, one
+ * line per test set.
+ *
+ * The server listens on the loopback address unless another one is given, see start. A request body
+ * larger than the largest one the input layer can use, a bitmap of MAX_PIXELS pels or text of a full
+ * batch of test sets, see setMaxBody, and a bitmap of more than MAX_PIXELS pels are answered with 413
+ * before anything is decoded, so no request can make the server allocate more than that. Requests
+ * still queued when the server stops, or not scored within RESULT_TIMEOUT seconds, are answered
+ * with 503. A batch that fails, even with an Error such as OutOfMemoryError, fails only its own
+ * requests; the batching thread goes on with the next batch.
+ *
+ * GET /stats returns the counters of the server, one "name value" pair per line: requests, test
+ * sets, batches, failures, throughput since the start, and the 50th and 99th percentile latencies
+ * of the last LATENCY_WINDOW requests, measured from receiving a request to sending its response.
+ *
+ * InferenceServer - constructs a server for a loaded Model
+ * setMaxBody      - sets the largest request body accepted
+ * start           - starts the batching threads and listens for requests
+ * stop            - stops listening, lets the batching threads finish and fails the requests still queued
+ * submit          - scores test sets through the batching threads, waiting for the result
+ * stats           - returns the counters of the server as text
+ * main            - parses the options and runs a server until the process is ended
+ */
+public class InferenceServer
+{
+   private static final int LATENCY_WINDOW = 10000;  // the number of latest request latencies kept for the percentiles
+   public static final long MAX_PIXELS = 2048 * 2048;  // the most pels a posted bitmap may have
+   private static final int BITMAP_HEADERS = 14 + 40 + 256 * 4;  // the file and info headers and the largest color table
+   private static final int BYTES_PER_VALUE = 32;   // the room given to every input value in a text body
+   private static final long MAX_BODY = Integer.MAX_VALUE - 8;  // the largest body a byte array can hold
+   public static final long RESULT_TIMEOUT = 60;    // the seconds submit waits for the batch of a request
+
+   private Model model;                             // the shared model every batch runs through
+   private BitmapPipeline bitmaps;                  // turns posted bitmaps into inputs, null if the input layer is not square
+   private int maxBatch;                            // the number of test sets that makes a batch run right away
+   private long maxWait;                            // the latency budget, in nanoseconds, a request may wait for others
+   private long maxBody;                            // the largest request body accepted, in bytes
+   private LinkedBlockingQueue<PendingRequest> queue = new LinkedBlockingQueue<PendingRequest>();
+   private HttpServer server;                       // accepts the connections
+   private ExecutorService handlers;                // the threads handling requests, each waits for its batch
+   private List<Thread> batchers = new ArrayList<Thread>();  // the threads forming and running batches
+   private volatile boolean running;                // whether the batching threads keep taking requests
+
+   private long started = System.nanoTime();        // when the server was constructed, for the throughput
+   private AtomicLong requests = new AtomicLong();  // the number of requests answered
+   private AtomicLong samples = new AtomicLong();   // the number of test sets scored
+   private AtomicLong batches = new AtomicLong();   // the number of batches run
+   private AtomicLong failures = new AtomicLong();  // the number of requests answered with an error
+   private long[] latencies = new long[LATENCY_WINDOW];  // a ring of the latest latencies in nanoseconds
+   private long latencyCount;                       // the number of latencies ever recorded into the ring
+
+   /**
+    * Constructs a server for the given Model.
+    *
+    * @param model           the model that scores every batch
+    * @param maxBatch        the number of test sets that makes a batch run without waiting any longer
+    * @param maxWaitMicros   the latency budget: how long, in microseconds, a request may wait for others
+    */
+   public InferenceServer(Model model, int maxBatch, long maxWaitMicros)
+   {
+      if (maxBatch < 1 || maxWaitMicros < 0)
+         throw new IllegalArgumentException("Batches need at least 1 test set and a wait of at least 0");
+
+      this.model = model;
+      this.maxBatch = maxBatch;
+      maxWait = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+
+      try
+      {
+         bitmaps = BitmapPipeline.forInputs(model.numInputs(), model.numOutputs());
+      }
+      catch (IOException e)                                                  // only text can be posted then
+      {
+         bitmaps = null;
+      }
+
+      maxBody = (long) maxBatch * model.numInputs() * BYTES_PER_VALUE;       // a full batch of text
+      if (bitmaps != null)                                                   // or a 32-bit bitmap of MAX_PIXELS pels
+         maxBody = Math.max(maxBody, BITMAP_HEADERS + 4 * MAX_PIXELS);
+      maxBody = Math.min(maxBody, MAX_BODY);                                 // large batches of wide layers overflow it
+   } // public InferenceServer(Model model, int maxBatch, long maxWaitMicros)
+
+   /**
+    * Sets the largest request body accepted; larger ones are answered with 413 without being read.
+    * By default it is the larger of a 32-bit bitmap of MAX_PIXELS pels, if bitmaps can be posted,
+    * and text of maxBatch test sets with 32 characters for every input value, but at most
+    * Integer.MAX_VALUE - 8 bytes.
+    *
+    * @param bytes   the largest body in bytes, at least 1
+    */
+   public void setMaxBody(long bytes)
+   {
+      if (bytes < 1 || bytes > MAX_BODY)
+         throw new IllegalArgumentException("The largest body must be from 1 to " + MAX_BODY +
+                                            " bytes, not " + bytes);
+      maxBody = bytes;
+   }
+
+   /**
+    * Starts the batching threads and listens for requests on the given port of the loopback address,
+    * so only the local machine can reach the server.
+    *
+    * @param port           the port to listen on, 0 for any free port
+    * @param threads        the number of threads handling requests
+    * @param workers        the number of threads forming and running batches
+    * @return               the port the server listens on
+    * @throws IOException   thrown if the port cannot be opened
+    */
+   public int start(int port, int threads, int workers) throws IOException
+   {
+      return start(InetAddress.getLoopbackAddress(), port, threads, workers);
+   }
+
+   /**
+    * Starts the batching threads and listens for requests on the given address and port. Java 17 has
+    * no virtual threads, so requests are handled by a fixed pool whose size bounds the number of
+    * requests that can wait for a batch at the same time.
+    *
+    * @param address        the address to listen on, the wildcard address for every interface
+    * @param port           the port to listen on, 0 for any free port
+    * @param threads        the number of threads handling requests
+    * @param workers        the number of threads forming and running batches
+    * @return               the port the server listens on
+    * @throws IOException   thrown if the port cannot be opened
+    */
+   public int start(InetAddress address, int port, int threads, int workers) throws IOException
+   {
+      running = true;
+      for (int i = 0; i < workers; i++)
+      {
+         Thread batcher = new Thread(this::batchLoop, "batcher-" + i);
+         batcher.setDaemon(true);
+         batcher.start();
+         batchers.add(batcher);
+      }
+
+      handlers = Executors.newFixedThreadPool(threads);
+      server = HttpServer.create(new InetSocketAddress(address, port), 0);
+      server.createContext("/predict", this::handlePredict);
+      server.createContext("/stats", this::handleStats);
+      server.setExecutor(handlers);
+      server.start();
+      return server.getAddress().getPort();
+   } // public int start(InetAddress address, int port, int threads, int workers) throws IOException
+
+   /**
+    * Stops listening, waiting up to a second for open exchanges, and stops the batching threads.
+    * The requests still waiting in the queue then fail, so nothing waits for a batch that never runs.
+    */
+   public void stop()
+   {
+      server.stop(1);
+      handlers.shutdown();
+      running = false;
+      for (Thread batcher : batchers)
+         batcher.interrupt();
+      failQueued();
+   }
+
+   /**
+    * Fails every request waiting in the queue because the server has stopped.
+    */
+   private void failQueued()
+   {
+      PendingRequest request;
+      while ((request = queue.poll()) != null)
+         request.result.completeExceptionally(new RejectedExecutionException("Server is stopping"));
+   }
+
+   /**
+    * Scores the given test sets in the next batch and waits up to RESULT_TIMEOUT seconds for their
+    * outputs. A request that times out is taken off the queue, so it is not scored afterwards.
+    *
+    * @param inputs                  the values of the input nodes, one row per test set
+    * @return                        the values of the output nodes, one row per test set
+    * @throws InterruptedException   thrown if the calling thread is interrupted while waiting
+    * @throws ExecutionException     thrown if running the batch failed
+    * @throws TimeoutException       thrown if no batch scored the test sets within RESULT_TIMEOUT seconds
+    */
+   public double[][] submit(double[][] inputs) throws InterruptedException, ExecutionException, TimeoutException
+   {
+      PendingRequest request = new PendingRequest();
+      request.inputs = inputs;
+      request.result = new CompletableFuture<double[][]>();
+      request.arrived = System.nanoTime();
+      queue.add(request);
+      if (!running)                                                          // stop may have failed the queue already
+         failQueued();
+
+      try
+      {
+         return request.result.get(RESULT_TIMEOUT, TimeUnit.SECONDS);
+      }
+      catch (TimeoutException e)                                             // a batch may still be running it
+      {
+         queue.remove(request);
+         request.result.completeExceptionally(e);
+         throw e;
+      }
+   } // public double[][] submit(double[][] inputs) throws InterruptedException, ExecutionException, TimeoutException
+
+   /**
+    * Forms and runs batches until the server stops: waits for a request, then keeps taking requests
+    * until the batch is full or the first request has waited for the latency budget, runs all their
+    * test sets through the model at once and hands every request its own rows of the outputs.
+    */
+   private void batchLoop()
+   {
+      List<PendingRequest> batch = new ArrayList<PendingRequest>();
+
+      while (running)
+      {
+         try
+         {
+            PendingRequest first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null)
+               continue;
+
+            batch.clear();
+            batch.add(first);
+            int rows = first.inputs.length;
+            long deadline = first.arrived + maxWait;
+
+            while (rows < maxBatch)                                          // gathers more requests within the budget
+            {
+               long left = deadline - System.nanoTime();
+               PendingRequest next = (left > 0) ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+               if (next == null)
+                  break;
+               batch.add(next);
+               rows += next.inputs.length;
+            }
+
+            run(batch, rows);
+         } // try
+         catch (InterruptedException e)                                     // the requests gathered so far never run
+         {
+            for (PendingRequest request : batch)
+               request.result.completeExceptionally(new RejectedExecutionException("Server is stopping"));
+            Thread.currentThread().interrupt();
+            return;
+         }
+      } // while (running)
+   } // private void batchLoop()
+
+   /**
+    * Runs the test sets of every request in the batch through the model at once and completes the
+    * requests. Anything thrown, an Error included, fails the requests of the batch instead of ending
+    * the batching thread, which would leave them and every later request waiting.
+    *
+    * @param batch   the requests of the batch
+    * @param rows    the number of test sets in all of them
+    */
+   private void run(List<PendingRequest> batch, int rows)
+   {
+      try
+      {
+         double[][] inputs = new double[rows][];                             // the rows of every request, not copied
+         int row = 0;
+         for (PendingRequest request : batch)
+         {
+            System.arraycopy(request.inputs, 0, inputs, row, request.inputs.length);
+            row += request.inputs.length;
+         }
+
+         double[][] outputs = model.outputBatch(inputs);
+         row = 0;
+         for (PendingRequest request : batch)
+         {
+            request.result.complete(Arrays.copyOfRange(outputs, row, row + request.inputs.length));
+            row += request.inputs.length;
+         }
+      }
+      catch (Throwable e)
+      {
+         for (PendingRequest request : batch)
+            request.result.completeExceptionally(e);
+      }
+      batches.incrementAndGet();
+   } // private void run(List<PendingRequest> batch, int rows)
+
+   /**
+    * Answers POST /predict with the outputs of the posted test sets, see the class comment.
+    *
+    * @param exchange       the request and its response
+    * @throws IOException   thrown if the response cannot be sent
+    */
+   private void handlePredict(HttpExchange exchange) throws IOException
+   {
+      long start = System.nanoTime();
+
+      try
+      {
+         if (!exchange.getRequestMethod().equals("POST"))
+         {
+            respond(exchange, 405, "Use POST\n");
+            failures.incrementAndGet();
+            return;
+         }
+
+         byte[] body = readBody(exchange);
+         if (body == null)
+         {
+            failures.incrementAndGet();
+            respond(exchange, 413, "The body is larger than " + maxBody + " bytes\n");
+            return;
+         }
+         boolean bitmap = body.length > 1 && body[0] == 'B' && body[1] == 'M';
+         if (bitmap && pels(body) > MAX_PIXELS)
+         {
+            failures.incrementAndGet();
+            respond(exchange, 413, "The bitmap has more than " + MAX_PIXELS + " pels\n");
+            return;
+         }
+         double[][] inputs = bitmap ? parseBitmap(body) : parseVectors(body);
+         double[][] outputs = submit(inputs);
+
+         StringBuilder text = new StringBuilder();
+         for (double[] output : outputs)
+         {
+            for (int i = 0; i < output.length; i++)
+               text.append(i == 0 ? "" : " ").append(output[i]);
+            text.append('\n');
+         }
+         respond(exchange, 200, text.toString());
+
+         requests.incrementAndGet();
+         samples.addAndGet(inputs.length);
+         recordLatency(System.nanoTime() - start);
+      } // try
+      catch (IllegalArgumentException e)                                     // the body could not be read as test sets
+      {
+         failures.incrementAndGet();
+         respond(exchange, 400, e.getMessage() + "\n");
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         failures.incrementAndGet();
+         respond(exchange, 503, "Server is stopping\n");
+      }
+      catch (TimeoutException e)
+      {
+         failures.incrementAndGet();
+         respond(exchange, 503, "No batch scored the request within " + RESULT_TIMEOUT + " seconds\n");
+      }
+      catch (ExecutionException e)
+      {
+         failures.incrementAndGet();
+         if (e.getCause() instanceof RejectedExecutionException)
+            respond(exchange, 503, "Server is stopping\n");
+         else
+            respond(exchange, 500, e.getCause() + "\n");
+      }
+   } // private void handlePredict(HttpExchange exchange) throws IOException
+
+   /**
+    * Reads the body of a request, unless it is larger than maxBody: a Content-Length above it is
+    * refused without reading anything, and otherwise reading stops one byte past it.
+    *
+    * @param exchange       the request
+    * @return               the body, or null if it is too large
+    * @throws IOException   thrown if the body cannot be read
+    */
+   private byte[] readBody(HttpExchange exchange) throws IOException
+   {
+      String length = exchange.getRequestHeaders().getFirst("Content-Length");
+      try
+      {
+         if (length != null && Long.parseLong(length.trim()) > maxBody)
+            return null;
+      }
+      catch (NumberFormatException e)                                        // left to the limit on reading
+      {
+      }
+
+      InputStream in = exchange.getRequestBody();
+      byte[] body = in.readNBytes((int) maxBody + 1);
+      return (body.length > maxBody) ? null : body;
+   } // private byte[] readBody(HttpExchange exchange) throws IOException
+
+   /**
+    * Returns the number of pels a bitmap says it has, from the width and height in its info header,
+    * before anything of it is decoded.
+    *
+    * @param body   the bitmap
+    * @return       the width times the height, both taken as positive, 0 if the headers are cut short
+    */
+   private static long pels(byte[] body)
+   {
+      if (body.length < 26)                                                  // left to DibDump to reject
+         return 0;
+      ByteBuffer header = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+      return Math.abs((long) header.getInt(18)) * Math.abs((long) header.getInt(22));
+   }
+
+   /**
+    * Answers GET /stats with the counters of the server.
+    *
+    * @param exchange       the request and its response
+    * @throws IOException   thrown if the response cannot be sent
+    */
+   private void handleStats(HttpExchange exchange) throws IOException
+   {
+      respond(exchange, 200, stats());
+   }
+
+   /**
+    * Sends a text response and closes the exchange.
+    *
+    * @param exchange       the request and its response
+    * @param status         the HTTP status code
+    * @param text           the body of the response
+    * @throws IOException   thrown if the response cannot be sent
+    */
+   private static void respond(HttpExchange exchange, int status, String text) throws IOException
+   {
+      byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody())
+      {
+         out.write(bytes);
+      }
+   }
+
+   /**
+    * Reads test sets from text, one per non-blank line with the input values separated by white spaces.
+    *
+    * @param body   the body of the request
+    * @return       the values of the input nodes, one row per test set
+    * @throws IllegalArgumentException   thrown if a line has too few values or one is not a number
+    */
+   private double[][] parseVectors(byte[] body)
+   {
+      int numInputs = model.numInputs();
+      List<double[]> rows = new ArrayList<double[]>();
+
+      for (String line : new String(body, StandardCharsets.UTF_8).split("\n"))
+      {
+         String trimmed = line.trim();
+         if (trimmed.isEmpty())
+            continue;
+
+         String[] values = trimmed.split("\\s+");
+         if (values.length < numInputs)
+            throw new IllegalArgumentException("Line " + (rows.size() + 1) + " has " + values.length +
+                                               " values, expected " + numInputs);
+
+         double[] row = new double[numInputs];
+         for (int k = 0; k < numInputs; k++)
+            row[k] = Double.parseDouble(values[k]);                          // NumberFormatException is an IllegalArgumentException
+         rows.add(row);
+      } // for (String line : new String(body, StandardCharsets.UTF_8).split("\n"))
+
+      if (rows.isEmpty())
+         throw new IllegalArgumentException("No test sets in the request");
+      return rows.toArray(new double[rows.size()][]);
+   } // private double[][] parseVectors(byte[] body)
+
+   /**
+    * Turns a bitmap into one test set, decoded by DibDump and resized and converted by BitmapPipeline.
+    *
+    * @param body   the bitmap
+    * @return       one row of input values
+    * @throws IllegalArgumentException   thrown if the bitmap cannot be read or the input layer is not square
+    */
+   private double[][] parseBitmap(byte[] body)
+   {
+      if (bitmaps == null)
+         throw new IllegalArgumentException(model.numInputs() + " input nodes do not make a square image, post text");
+
+      DibDump image = new DibDump();
+      try
+      {
+         image.readBitmap(ByteBuffer.wrap(body), "the bitmap");
+      }
+      catch (IOException | RuntimeException e)
+      {
+         throw new IllegalArgumentException("Unreadable bitmap: " + e.getMessage());
+      }
+
+      double[] row = new double[model.numInputs()];
+      bitmaps.activations(image, row);
+      return new double[][] {row};
+   } // private double[][] parseBitmap(byte[] body)
+
+   /**
+    * Records the latency of one request into the ring of the latest latencies.
+    *
+    * @param nanos   the latency in nanoseconds
+    */
+   private synchronized void recordLatency(long nanos)
+   {
+      latencies[(int) (latencyCount % LATENCY_WINDOW)] = nanos;
+      latencyCount++;
+   }
+
+   /**
+    * Returns the counters of the server, one "name value" pair per line.
+    *
+    * @return   the counters as text
+    */
+   public String stats()
+   {
+      long[] window;
+      synchronized (this)
+      {
+         window = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_WINDOW));
+      }
+      Arrays.sort(window);
+
+      double seconds = (System.nanoTime() - started) / 1e9;
+      long answered = requests.get();
+      long scored = samples.get();
+      long run = batches.get();
+
+      StringBuilder text = new StringBuilder();
+      text.append("requests ").append(answered).append('\n');
+      text.append("samples ").append(scored).append('\n');
+      text.append("batches ").append(run).append('\n');
+      text.append("failures ").append(failures.get()).append('\n');
+      text.append("mean_batch_size ").append(run == 0 ? 0.0 : (double) scored / run).append('\n');
+      text.append("uptime_seconds ").append(seconds).append('\n');
+      text.append("requests_per_second ").append(answered / seconds).append('\n');
+      text.append("samples_per_second ").append(scored / seconds).append('\n');
+      text.append("latency_p50_ms ").append(percentile(window, 0.50) / 1e6).append('\n');
+      text.append("latency_p99_ms ").append(percentile(window, 0.99) / 1e6).append('\n');
+      return text.toString();
+   } // public String stats()
+
+   /**
+    * Returns the given percentile of sorted values, the smallest value at least that fraction of them do not exceed.
+    *
+    * @param sorted     the values in ascending order
+    * @param fraction   the percentile as a fraction, from 0 to 1
+    * @return           the percentile, 0 if there are no values
+    */
+   static double percentile(long[] sorted, double fraction)
+   {
+      if (sorted.length == 0)
+         return 0.0;
+      int index = (int) Math.ceil(fraction * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+   }
+
+   /**
+    * Loads the model and runs a server until the process is ended. The topology is read from
+    * dimensions.txt. Options, all optional:
+    *    -port 8080          the port to listen on
+    *    -bind 127.0.0.1     the address to listen on, 0.0.0.0 for every interface (default: the loopback address)
+    *    -w weights.txt      the weights file, text or binary
+    *    -p double           the precision, double or float
+    *    -sigmoid exact      the threshold function, exact or fast, see Perceptron.setFastSigmoid
+    *    -batch 32           the number of test sets that makes a batch run right away
+    *    -wait 2000          the latency budget in microseconds
+    *    -threads 64         the number of threads handling requests
+    *    -workers 1          the number of threads running batches
+    *    -maxbody 17000000   the largest request body in bytes (default: see setMaxBody)
+    *
+    * @param args           the options
+    * @throws IOException   thrown if the model cannot be loaded or the port cannot be opened
+    */
+   public static void main(String[] args) throws IOException
+   {
+      int port = 8080;
+      InetAddress address = InetAddress.getLoopbackAddress();
+      String weights = "weights.txt";
+      boolean single = false;
+      boolean fast = false;
+      int maxBatch = 32;
+      long maxWait = 2000;
+      int threads = 64;
+      int workers = 1;
+      long maxBody = 0;
+
+      for (int i = 0; i + 1 < args.length; i += 2)                           // every option is followed by its value
+      {
+         String value = args[i + 1];
+         if (args[i].equals("-port"))
+            port = Integer.parseInt(value);
+         else if (args[i].equals("-bind"))
+            address = InetAddress.getByName(value);
+         else if (args[i].equals("-w"))
+            weights = value;
+         else if (args[i].equals("-p"))
+            single = value.equalsIgnoreCase("float");
+         else if (args[i].equals("-sigmoid"))
+            fast = value.equalsIgnoreCase("fast");
+         else if (args[i].equals("-batch"))
+            maxBatch = Integer.parseInt(value);
+         else if (args[i].equals("-wait"))
+            maxWait = Long.parseLong(value);
+         else if (args[i].equals("-threads"))
+            threads = Integer.parseInt(value);
+         else if (args[i].equals("-workers"))
+            workers = Integer.parseInt(value);
+         else if (args[i].equals("-maxbody"))
+            maxBody = Long.parseLong(value);
+         else
+            throw new IllegalArgumentException("Unknown option " + args[i]);
+      } // for (int i = 0; i + 1 < args.length; i += 2)
+
+      Model model = Model.load(weights, Perceptron.readDimensions("dimensions.txt"), single, fast);
+      InferenceServer server = new InferenceServer(model, maxBatch, maxWait);
+      if (maxBody > 0)
+         server.setMaxBody(maxBody);
+      int bound = server.start(address, port, threads, workers);
+      System.out.println("Serving " + weights + " on " + address.getHostAddress() + " port " + bound +
+                         ", batches of up to " + maxBatch + " test sets within " + maxWait + " microseconds");
+   } // public static void main(String[] args) throws IOException
+} // public class InferenceServer
+
+/*
+ * A member-variable-only class for holding a request waiting in the queue of an InferenceServer:
+ * its test sets, the future completed with their outputs, and when it arrived.
+ */
+final class PendingRequest
+{
+   double[][] inputs;
+   CompletableFuture<double[][]> result;
+   long arrived;
+}
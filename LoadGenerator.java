@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends concurrent requests of random test sets to a running InferenceServer and reports what the
+ * clients saw: requests answered and failed, throughput, and the 50th and 99th percentile latencies.
+ * Every client thread sends one request at a time and the next one as soon as it is answered, so the
+ * number of clients is the number of requests the server has in flight. The counters of the server
+ * are printed after the run for comparison.
+ *
+ * run    - sends the requests from every client and returns their latencies
+ * main   - parses the options, runs the load and prints the results
+ */
+public class LoadGenerator
+{
+   /**
+    * Sends the given number of requests, shared among the clients, and returns their latencies.
+    *
+    * @param client     the HTTP client every thread sends through
+    * @param url        the address of /predict
+    * @param clients    the number of threads sending requests
+    * @param requests   the number of requests to send in all
+    * @param body       the body of every request
+    * @param failures   counts the requests not answered with status 200
+    * @return           the latency of every answered request, in nanoseconds
+    * @throws InterruptedException   thrown if interrupted while waiting for the clients
+    */
+   static long[] run(HttpClient client, String url, int clients, int requests, String body, AtomicLong failures)
+         throws InterruptedException
+   {
+      long[] latencies = new long[requests];
+      AtomicInteger next = new AtomicInteger();                              // the index of the next request to send
+      HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                                       .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+
+      Thread[] threads = new Thread[clients];
+      for (int c = 0; c < clients; c++)
+      {
+         threads[c] = new Thread(() ->
+         {
+            for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement())
+            {
+               long start = System.nanoTime();
+               try
+               {
+                  HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                  latencies[i] = System.nanoTime() - start;
+                  if (response.statusCode() != 200)
+                  {
+                     failures.incrementAndGet();
+                     latencies[i] = -1;
+                  }
+               }
+               catch (IOException | InterruptedException e)
+               {
+                  failures.incrementAndGet();
+                  latencies[i] = -1;
+               }
+            } // for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement())
+         });
+         threads[c].start();
+      } // for (int c = 0; c < clients; c++)
+
+      for (Thread thread : threads)
+         thread.join();
+
+      return Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+   } // static long[] run(HttpClient client, String url, int clients, int requests, String body, ...)
+
+   /**
+    * Runs a load against a server. The number of inputs is read from dimensions.txt. Options, all optional:
+    *    -url http://localhost:8080   the address of the server
+    *    -c 16                        the number of client threads
+    *    -n 2000                      the number of requests
+    *    -rows 1                      the number of test sets in every request
+    *    -wn 200                      the number of requests sent first to warm up, not measured
+    *
+    * @param args   the options
+    * @throws IOException            thrown if dimensions.txt or the counters of the server cannot be read
+    * @throws InterruptedException   thrown if interrupted while waiting for the clients
+    */
+   public static void main(String[] args) throws IOException, InterruptedException
+   {
+      String url = "http://localhost:8080";
+      int clients = 16;
+      int requests = 2000;
+      int rows = 1;
+      int warmup = 200;
+
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         String value = args[i + 1];
+         if (args[i].equals("-url"))
+            url = value;
+         else if (args[i].equals("-c"))
+            clients = Integer.parseInt(value);
+         else if (args[i].equals("-n"))
+            requests = Integer.parseInt(value);
+         else if (args[i].equals("-rows"))
+            rows = Integer.parseInt(value);
+         else if (args[i].equals("-wn"))
+            warmup = Integer.parseInt(value);
+         else
+            throw new IllegalArgumentException("Unknown option " + args[i]);
+      } // for (int i = 0; i + 1 < args.length; i += 2)
+
+      int numInputs = Perceptron.readDimensions("dimensions.txt")[0];
+      Random rand = new Random(42);
+      StringBuilder body = new StringBuilder();
+      for (int r = 0; r < rows; r++)
+      {
+         for (int k = 0; k < numInputs; k++)
+            body.append(rand.nextDouble()).append(' ');
+         body.append('\n');
+      }
+
+      HttpClient client = HttpClient.newHttpClient();
+      AtomicLong failures = new AtomicLong();
+      run(client, url + "/predict", clients, warmup, body.toString(), failures);
+
+      failures.set(0);
+      long start = System.nanoTime();
+      long[] latencies = run(client, url + "/predict", clients, requests, body.toString(), failures);
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      System.out.println("Clients: " + clients + ", test sets per request: " + rows);
+      System.out.println("Requests answered: " + latencies.length + ", failed: " + failures.get());
+      System.out.printf("Throughput: %.1f requests/s, %.1f test sets/s%n", latencies.length / seconds,
+                        (double) latencies.length * rows / seconds);
+      System.out.printf("Latency: p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                        InferenceServer.percentile(latencies, 0.50) / 1e6,
+                        InferenceServer.percentile(latencies, 0.99) / 1e6,
+                        latencies.length == 0 ? 0.0 : latencies[latencies.length - 1] / 1e6);
+
+      HttpRequest stats = HttpRequest.newBuilder(URI.create(url + "/stats")).GET().build();
+      System.out.println();
+      System.out.println("Server counters:");
+      System.out.print(client.send(stats, HttpResponse.BodyHandlers.ofString()).body());
+   } // public static void main(String[] args) throws IOException, InterruptedException
+} // public class LoadGenerator
@@ -0,0 +1,166 @@
+import java.io.IOException;
+
+/**
+ * A trained Perceptron that can only be run, never changed, so that one copy of its weights can be
+ * shared by any number of threads. The topology and the weights are read once when the Model is
+ * loaded; every call works on scratch arrays that belong to the calling thread alone, kept in a
+ * ThreadLocal, so nothing is written that another thread reads and no locking is needed.
+ *
+ * Each thread that runs the Model holds one Tile of activations (SAMPLE_TILE test sets of every
+ * hidden layer) in place of a whole copy of the weights.
+ *
+ * load         - loads the weights of a Perceptron from a weights file into a new Model
+ * numInputs    - returns the number of input nodes
+ * numOutputs   - returns the number of output nodes
+ * layers       - returns the number of nodes in every layer
+ * output       - runs one test set through the Model
+ * outputBatch  - runs many test sets through the Model at once
+ */
+public final class Model
+{
+   private final Perceptron net;                    // holds the weights and topology, never changed after loading
+   private final int[] numNodes;                    // the number of nodes in every layer, input layer first
+   private final ThreadLocal<Tile> tiles;           // the activation arrays of every thread running the Model
+   private final ThreadLocal<double[][][]> rows;    // one-row wrappers of the inputs and outputs given to output
+
+   /**
+    * Constructs a Model around a Perceptron whose weights are set; use load to create one.
+    *
+    * @param net        the Perceptron, which nothing else may hold
+    * @param numNodes   the number of nodes in every layer
+    * @param single     whether the Perceptron runs in single precision
+    */
+   private Model(Perceptron net, int[] numNodes, boolean single)
+   {
+      this.net = net;
+      this.numNodes = numNodes.clone();
+      tiles = ThreadLocal.withInitial(() -> new Tile(this.numNodes, single));
+      rows = ThreadLocal.withInitial(() -> new double[2][1][]);
+   }
+
+   /**
+    * Loads the weights of a Perceptron with the given layers from a weights file, text or binary,
+    * to be run with the exact sigmoid.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in every layer, input layer first, like readDimensions returns
+    * @param single         true to keep the weights as floats, see Perceptron.setFloat
+    * @return               the loaded Model
+    * @throws IOException   thrown if the weights file cannot be read or does not fit the layers
+    */
+   public static Model load(String file, int[] numNodes, boolean single) throws IOException
+   {
+      return load(file, numNodes, single, false);
+   }
+
+   /**
+    * Loads the weights of a Perceptron with the given layers from a weights file, text or binary,
+    * to be run with the exact or the fast sigmoid.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in every layer, input layer first, like readDimensions returns
+    * @param single         true to keep the weights as floats, see Perceptron.setFloat
+    * @param fast           true to run with the fast sigmoid, see Perceptron.setFastSigmoid
+    * @return               the loaded Model
+    * @throws IOException   thrown if the weights file cannot be read or does not fit the layers
+    */
+   public static Model load(String file, int[] numNodes, boolean single, boolean fast) throws IOException
+   {
+      int[] hidden = new int[numNodes.length - 2];
+      for (int n = 1; n < numNodes.length - 1; n++)
+         hidden[n - 1] = numNodes[n];
+
+      Perceptron net = new Perceptron(numNodes[0], hidden, numNodes[numNodes.length - 1]);
+      net.setFloat(single);
+      net.setFastSigmoid(fast);
+      net.setWeightsFile(file);
+      net.setWeights();
+      return new Model(net, numNodes, single);
+   } // public static Model load(String file, int[] numNodes, boolean single, boolean fast) throws IOException
+
+   /**
+    * Returns the number of input nodes.
+    *
+    * @return   the number of values in every row of inputs
+    */
+   public int numInputs()
+   {
+      return numNodes[0];
+   }
+
+   /**
+    * Returns the number of output nodes.
+    *
+    * @return   the number of values in every row of outputs
+    */
+   public int numOutputs()
+   {
+      return numNodes[numNodes.length - 1];
+   }
+
+   /**
+    * Returns the number of nodes in every layer, input layer first.
+    *
+    * @return   a copy of the topology
+    */
+   public int[] layers()
+   {
+      return numNodes.clone();
+   }
+
+   /**
+    * Runs one test set through the Model and returns the values of its output nodes, exactly as
+    * Perceptron.output computes them.
+    *
+    * @param inputs   the values of the input nodes
+    * @return         the values of the output nodes
+    */
+   public double[] output(double[] inputs)
+   {
+      double[] outputs = new double[numOutputs()];
+      output(inputs, outputs);
+      return outputs;
+   }
+
+   /**
+    * Runs one test set through the Model into the given array, without allocating anything once the
+    * calling thread has run the Model before.
+    *
+    * @param inputs    the values of the input nodes
+    * @param outputs   filled with the values of the output nodes
+    */
+   public void output(double[] inputs, double[] outputs)
+   {
+      double[][][] row = rows.get();
+      row[0][0] = inputs;
+      row[1][0] = outputs;
+      net.outputBatch(row[0], row[1], 1, tiles.get());
+      row[0][0] = null;                                                      // keeps no reference to the caller's arrays
+      row[1][0] = null;
+   }
+
+   /**
+    * Runs many test sets through the Model at once, see Perceptron.outputBatch.
+    *
+    * @param inputs   the values of the input nodes, one row per test set
+    * @return         the values of the output nodes, one row per test set
+    */
+   public double[][] outputBatch(double[][] inputs)
+   {
+      double[][] outputs = new double[inputs.length][numOutputs()];
+      outputBatch(inputs, outputs, inputs.length);
+      return outputs;
+   }
+
+   /**
+    * Runs the first count test sets through the Model at once into the given arrays.
+    *
+    * @param inputs    the values of the input nodes, one row per test set
+    * @param outputs   filled with the values of the output nodes, one row per test set
+    * @param count     the number of test sets to run, from the first row
+    */
+   public void outputBatch(double[][] inputs, double[][] outputs, int count)
+   {
+      net.outputBatch(inputs, outputs, count, tiles.get());
+   }
+} // public final class Model
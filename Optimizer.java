@@ -0,0 +1,350 @@
+import java.util.Locale;
+
+/**
+ * Turns the weight changes a batch adds up into the change actually made to the weights, for the
+ * update rules other than plain gradient descent. The changes of a batch are lambda times the
+ * direction of steepest descent, summed over its test sets, see Perceptron.backPropagate; below, d is
+ * that sum and g = d / lambda the summed direction itself.
+ *
+ *    momentum   v = mu * v + d                              w += v
+ *    nesterov   v = mu * v + d                              w += mu * v + d
+ *    rmsprop    s = rho * s + (1 - rho) * g * g             w += lambda * g / (sqrt(s) + epsilon)
+ *    adam       m = beta1 * m + (1 - beta1) * g
+ *               s = beta2 * s + (1 - beta2) * g * g         w += lambda * m' / (sqrt(s') + epsilon)
+ * where m' and s' are m and s divided by 1 - beta1^t and 1 - beta2^t after t steps (bias correction).
+ * Nesterov is written in the form that needs no weights but the current ones. RMSProp and Adam scale
+ * every weight by its own running size of g, so they want a much smaller lambda than plain gradient
+ * descent, around 0.001.
+ *
+ * The state of the rule, v, or s, or m and s, is kept in arrays laid out like the weights, one per
+ * layer of w, in doubles or floats like the weights, so a Checkpoint saves and restores it with them.
+ * Every weight is updated on its own, so the ranges of a layer can be updated by different threads.
+ *
+ * parse        - makes an Optimizer from a line such as "adam 0.9 0.999 1e-8"
+ * checkLambda  - throws if the rule cannot learn with the given learning factor
+ * allocate     - allocates the state arrays for the given layers
+ * states       - returns the number of state arrays the rule keeps
+ * beginStep    - counts one more step and works out the factors of the step
+ * update       - updates a range of one layer of weights with the summed changes of a batch
+ * update32     - updates a range of one layer of weights kept as floats
+ * state        - returns the state arrays in doubles
+ * state32      - returns the state arrays in floats
+ * setState     - sets the state arrays and the number of steps taken, from a checkpoint
+ * steps        - returns the number of steps taken
+ * toString     - returns the rule and its hyperparameters, in the form parse reads
+ */
+public class Optimizer
+{
+   public static final String MOMENTUM = "momentum";
+   public static final String NESTEROV = "nesterov";
+   public static final String RMSPROP = "rmsprop";
+   public static final String ADAM = "adam";
+   private static final int KIND_MOMENTUM = 0;      // the rules as numbers, for the loops over the weights
+   private static final int KIND_NESTEROV = 1;
+   private static final int KIND_RMSPROP = 2;
+   private static final int KIND_ADAM = 3;
+
+   private String rule;                             // one of the rules above
+   private int kind;                                // the rule as one of the KIND numbers
+   private double beta1;                            // mu for momentum and nesterov, beta1 for adam
+   private double beta2;                            // rho for rmsprop, beta2 for adam
+   private double epsilon;                          // keeps rmsprop and adam from dividing by 0
+   private double lambda;                           // the learning factor the changes were multiplied by
+   private long steps;                              // the number of steps taken
+   private double scale;                            // the factor of the current step, lambda with bias correction
+   private double correction2;                      // 1 - beta2^t for the current step of adam, 1 otherwise
+   private double[][][] state;                      // v, s, or m and s, laid out like w, null in single precision
+   private float[][][] state32;                     // the same as floats, null in double precision
+
+   /**
+    * Constructs an Optimizer for one of the rules with the given hyperparameters.
+    *
+    * @param rule      momentum, nesterov, rmsprop or adam
+    * @param beta1     mu for momentum and nesterov, beta1 for adam, ignored by rmsprop
+    * @param beta2     rho for rmsprop, beta2 for adam, ignored by momentum and nesterov
+    * @param epsilon   added to the root of s by rmsprop and adam
+    */
+   public Optimizer(String rule, double beta1, double beta2, double epsilon)
+   {
+      rule = rule.toLowerCase(Locale.ROOT);
+      if (!rule.equals(MOMENTUM) && !rule.equals(NESTEROV) && !rule.equals(RMSPROP) && !rule.equals(ADAM))
+         throw new IllegalArgumentException("Unknown optimizer: " + rule);
+      if (!(beta1 >= 0.0 && beta1 < 1.0 && beta2 >= 0.0 && beta2 < 1.0))    // NaN fails too
+         throw new IllegalArgumentException("Decay rates must be at least 0 and below 1: " + beta1 + ", " + beta2);
+      if (!(epsilon > 0.0 && epsilon < Double.POSITIVE_INFINITY) && (rule.equals(RMSPROP) || rule.equals(ADAM)))
+         throw new IllegalArgumentException("Epsilon must be above 0 and finite: " + epsilon);
+
+      this.rule = rule;
+      kind = rule.equals(MOMENTUM) ? KIND_MOMENTUM : rule.equals(NESTEROV) ? KIND_NESTEROV :
+             rule.equals(RMSPROP) ? KIND_RMSPROP : KIND_ADAM;
+      this.beta1 = beta1;
+      this.beta2 = beta2;
+      this.epsilon = epsilon;
+   } // public Optimizer(String rule, double beta1, double beta2, double epsilon)
+
+   /**
+    * Makes an Optimizer from a line naming the rule, optionally followed by its hyperparameters:
+    * "momentum [mu]", "nesterov [mu]", "rmsprop [rho [epsilon]]" or "adam [beta1 [beta2 [epsilon]]]".
+    * The defaults are mu 0.9, rho 0.9, beta1 0.9, beta2 0.999 and epsilon 1e-8. The line "sgd" means
+    * plain gradient descent, which needs no Optimizer.
+    *
+    * @param line   the line
+    * @return       the Optimizer, or null for "sgd"
+    */
+   public static Optimizer parse(String line)
+   {
+      String[] words = line.trim().split("\\s+");
+      String rule = words[0].toLowerCase(Locale.ROOT);
+      double[] values = new double[words.length - 1];
+      for (int v = 0; v < values.length; v++)
+         values[v] = Double.parseDouble(words[v + 1]);
+
+      if (rule.equals("sgd"))
+         return null;
+      if (rule.equals(MOMENTUM) || rule.equals(NESTEROV))
+         return new Optimizer(rule, value(values, 0, 0.9), 0.0, 0.0);
+      if (rule.equals(RMSPROP))
+         return new Optimizer(rule, 0.0, value(values, 0, 0.9), value(values, 1, 1e-8));
+      return new Optimizer(rule, value(values, 0, 0.9), value(values, 1, 0.999), value(values, 2, 1e-8));
+   } // public static Optimizer parse(String line)
+
+   /**
+    * Returns one of the values given on a line, or its default if the line ends before it.
+    *
+    * @param values     the values given
+    * @param index      the index of the value
+    * @param fallback   the default
+    * @return           the value
+    */
+   private static double value(double[] values, int index, double fallback)
+   {
+      return (index < values.length) ? values[index] : fallback;
+   }
+
+   /**
+    * Throws if the rule cannot learn with the given learning factor: every rule needs one above 0
+    * and finite, since the summed changes are divided by it to find g, which a learning factor of 0
+    * turns into NaN weights.
+    *
+    * @param lambda   the learning factor the changes are multiplied by
+    * @throws IllegalArgumentException   thrown if lambda is not above 0 and finite
+    */
+   public void checkLambda(double lambda)
+   {
+      if (!(lambda > 0.0 && lambda < Double.POSITIVE_INFINITY))
+         throw new IllegalArgumentException("The learning factor must be above 0 and finite for " + rule + ": " + lambda);
+   }
+
+   /**
+    * Allocates zeroed state arrays laid out like the weights of the given layers, and starts counting
+    * steps from 0.
+    *
+    * @param numNodes   the number of nodes in each layer
+    * @param single     whether the weights are kept as floats
+    * @param lambda     the learning factor the changes are multiplied by, above 0
+    */
+   public void allocate(int[] numNodes, boolean single, double lambda)
+   {
+      checkLambda(lambda);
+      this.lambda = lambda;
+      steps = 0;
+      int states = states();
+
+      state = single ? null : new double[states][numNodes.length - 1][];
+      state32 = single ? new float[states][numNodes.length - 1][] : null;
+      for (int s = 0; s < states; s++)
+      {
+         for (int n = 0; n < numNodes.length - 1; n++)
+         {
+            if (single)
+               state32[s][n] = new float[numNodes[n] * numNodes[n + 1]];
+            else
+               state[s][n] = new double[numNodes[n] * numNodes[n + 1]];
+         }
+      } // for (int s = 0; s < states; s++)
+   } // public void allocate(int[] numNodes, boolean single, double lambda)
+
+   /**
+    * Returns the number of state arrays the rule keeps per layer of weights.
+    *
+    * @return   2 for adam, 1 otherwise
+    */
+   public int states()
+   {
+      return (kind == KIND_ADAM) ? 2 : 1;
+   }
+
+   /**
+    * Counts one more step and works out the factors it uses, before any range of it is updated.
+    */
+   public void beginStep()
+   {
+      steps++;
+      scale = lambda;
+      correction2 = 1.0;
+      if (kind == KIND_ADAM)
+      {
+         scale = lambda / (1.0 - Math.pow(beta1, steps));
+         correction2 = 1.0 - Math.pow(beta2, steps);
+      }
+   } // public void beginStep()
+
+   /**
+    * Updates the weights of one layer from one index up to another with the summed changes of a
+    * batch, which are zeroed for the next batch.
+    *
+    * @param layer     the layer of weights
+    * @param weights   the weights of the layer
+    * @param deltas    the summed changes of the batch, lambda times the direction of descent
+    * @param from      the first index to update
+    * @param to        the index after the last one
+    */
+   public void update(int layer, double[] weights, double[] deltas, int from, int to)
+   {
+      double[] first = state[0][layer];                                      // v, s, or m
+      double[] second = (state.length > 1) ? state[1][layer] : null;         // s of adam
+
+      for (int i = from; i < to; i++)
+      {
+         double d = deltas[i];
+         deltas[i] = 0.0;
+         double g = d / lambda;
+
+         switch (kind)
+         {
+            case KIND_MOMENTUM:
+               first[i] = beta1 * first[i] + d;
+               weights[i] += first[i];
+               break;
+            case KIND_NESTEROV:
+               first[i] = beta1 * first[i] + d;
+               weights[i] += beta1 * first[i] + d;
+               break;
+            case KIND_RMSPROP:
+               first[i] = beta2 * first[i] + (1.0 - beta2) * g * g;
+               weights[i] += lambda * g / (Math.sqrt(first[i]) + epsilon);
+               break;
+            default:
+               first[i] = beta1 * first[i] + (1.0 - beta1) * g;
+               second[i] = beta2 * second[i] + (1.0 - beta2) * g * g;
+               weights[i] += scale * first[i] / (Math.sqrt(second[i] / correction2) + epsilon);
+         } // switch (kind)
+      } // for (int i = from; i < to; i++)
+   } // public void update(int layer, double[] weights, double[] deltas, int from, int to)
+
+   /**
+    * Updates the weights of one layer kept as floats, see update. Every change is worked out in
+    * doubles from the state, which is kept as floats.
+    *
+    * @param layer     the layer of weights
+    * @param weights   the weights of the layer
+    * @param deltas    the summed changes of the batch, lambda times the direction of descent
+    * @param from      the first index to update
+    * @param to        the index after the last one
+    */
+   public void update32(int layer, float[] weights, float[] deltas, int from, int to)
+   {
+      float[] first = state32[0][layer];
+      float[] second = (state32.length > 1) ? state32[1][layer] : null;
+
+      for (int i = from; i < to; i++)
+      {
+         double d = deltas[i];
+         deltas[i] = 0.0f;
+         double g = d / lambda;
+         double change;
+
+         switch (kind)
+         {
+            case KIND_MOMENTUM:
+            case KIND_NESTEROV:
+               double v = beta1 * first[i] + d;
+               first[i] = (float) v;
+               change = (kind == KIND_NESTEROV) ? beta1 * v + d : v;
+               break;
+            case KIND_RMSPROP:
+               double r = beta2 * first[i] + (1.0 - beta2) * g * g;
+               first[i] = (float) r;
+               change = lambda * g / (Math.sqrt(r) + epsilon);
+               break;
+            default:
+               double m = beta1 * first[i] + (1.0 - beta1) * g;
+               double a = beta2 * second[i] + (1.0 - beta2) * g * g;
+               first[i] = (float) m;
+               second[i] = (float) a;
+               change = scale * m / (Math.sqrt(a / correction2) + epsilon);
+         } // switch (kind)
+         weights[i] += (float) change;
+      } // for (int i = from; i < to; i++)
+   } // public void update32(int layer, float[] weights, float[] deltas, int from, int to)
+
+   /**
+    * Returns the state arrays in doubles, laid out like the weights.
+    *
+    * @return   the state arrays, null in single precision
+    */
+   public double[][][] state()
+   {
+      return state;
+   }
+
+   /**
+    * Returns the state arrays in floats, laid out like the weights.
+    *
+    * @return   the state arrays, null in double precision
+    */
+   public float[][][] state32()
+   {
+      return state32;
+   }
+
+   /**
+    * Sets the state arrays and the number of steps taken, to go on from a checkpoint. The arrays
+    * are converted if they are not in the precision of the allocated ones.
+    *
+    * @param from     the state arrays in doubles, or null
+    * @param from32   the state arrays in floats, or null
+    * @param steps    the number of steps taken
+    */
+   public void setState(double[][][] from, float[][][] from32, long steps)
+   {
+      int states = (from != null) ? from.length : from32.length;
+      if (states != states())
+         throw new IllegalArgumentException("The checkpoint holds " + states + " optimizer state arrays, " +
+                                            rule + " keeps " + states());
+
+      for (int s = 0; s < states; s++)
+      {
+         if (state != null)
+            state[s] = (from != null) ? from[s] : WeightFile.toDouble(from32[s]);
+         else
+            state32[s] = (from32 != null) ? from32[s] : WeightFile.toFloat(from[s]);
+      }
+      this.steps = steps;
+   } // public void setState(double[][][] from, float[][][] from32, long steps)
+
+   /**
+    * Returns the number of steps taken, one per batch applied.
+    *
+    * @return   the number of steps
+    */
+   public long steps()
+   {
+      return steps;
+   }
+
+   /**
+    * Returns the rule and its hyperparameters in the form parse reads.
+    *
+    * @return   the rule and its hyperparameters
+    */
+   @Override
+   public String toString()
+   {
+      if (rule.equals(MOMENTUM) || rule.equals(NESTEROV))
+         return rule + " " + beta1;
+      if (rule.equals(RMSPROP))
+         return rule + " " + beta2 + " " + epsilon;
+      return rule + " " + beta1 + " " + beta2 + " " + epsilon;
+   }
+} // public class Optimizer
@@ -1,10 +1,17 @@
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
 
 /**
  * @author Helen Li
@@ -21,23 +28,48 @@ import java.util.Scanner;
  * layer, and the last line with the number of output nodes.
  * A file named weights.txt, with a value on each line. It should start with
  * w[0][0][0], increments the third index, and then the second index, and lastly the first.
+ * In memory the weights are kept in one contiguous array per layer, see the instance variable w.
+ * Weights files may also be in the binary format of the WeightFile class, which loads much faster.
+ * In single precision, see setFloat, the weights are kept as floats in w32 instead.
  * A file (name is decided by the user), with each set of input on one line, separated
  * by white spaces. The last value of each line should be the T value for the respective set.
+ * It may also be a binary file of test sets made from such a text file, see SampleFile.
  * A file (name is decided by the user) with all relevant values needed for training,
  * see more descriptions about the file formatting in the block comment of the main method.
  *
- * Perceptron   - constructor to create a Perceptron object
- * setA         - initializes the 2D instance variable array a with a proper size
- * setWeights   - initializes the 3D instance variable array w with a proper size and fills it with weights from weights.txt
- * output       - computes the dot product sums and uses those values to fill the instance variable array a
- * threshold    - takes in a value, passes it into a mathematical function as the x variable, and returns the output
- * derivative   - calculates the derivative of the threshold function at the value given by the parameter
- * calcError    - calculates the error value by squaring the difference between T value and outputs and dividing it by 2
- * run          - tests the Perceptron by setting up a and w, reading inputs, computing outputs, and calculating error values
- * randomizeW   - fills the 3D instance variable array w with randomized weights, limited without bounds given by parameter
- * gradient     - implemented with the back propagation algorithm and adjusts weights using gradient descent to minimize error
- * train        - trains the Perceptron using the gradient descent method implemented with back propagation
- * main         - static method that serves as a tester for the Perceptron class to train/run the Perceptron
+ * Perceptron     - constructor to create a Perceptron object
+ * setA           - initializes the 2D instance variable array a with a proper size
+ * setWeights     - initializes the 2D instance variable array w with a proper size and fills it with weights from weights.txt
+ * setWeightsFile - sets the name of the weights file read by setWeights, weights.txt by default
+ * setInputs      - copies the values of one test set into the input layer
+ * output         - computes the dot product sums and uses those values to fill the instance variable array a
+ * outputBatch    - computes the output nodes of many test sets at once, as products of matrices
+ * threshold      - takes in a value, passes it into a mathematical function as the x variable, and returns the output
+ * derivative     - calculates the derivative of the threshold function at the value given by the parameter
+ * calcError      - calculates the error value by squaring the difference between T value and outputs and dividing it by 2
+ * run            - tests the Perceptron by setting up a and w, reading inputs, computing outputs, and calculating error values
+ * randomizeW     - fills the 2D instance variable array w with randomized weights, limited without bounds given by parameter
+ * gradient       - implemented with the back propagation algorithm and adjusts weights using gradient descent to minimize error
+ * setBatchSize   - sets how many test sets are accumulated into one change of the weights during training
+ * setThreads     - sets how many threads share the test sets of every batch during training
+ * setSeed        - seeds the random number generator used to randomize the weights
+ * setErrorCheck  - sets how often the error values of all test sets are recomputed during training
+ * setChunkSize   - sets how many test sets are held in memory at a time when training streams the input file
+ * setShuffle     - sets how many test sets the shuffle buffer mixes when training streams the input file
+ * setFloat       - switches the weights, activations, psis and omegas between doubles and floats
+ * setAugment     - sets how many augmented copies of every test set are trained on in each iteration
+ * setPrefetch    - sets how many chunks a loader thread reads ahead when training streams the input file
+ * setParsers     - sets how many threads parse the lines of a text input file when training streams it
+ * setCheckpoint  - sets how often the state of training is written into a checkpoint file in the background
+ * setResume      - sets whether training goes on from the checkpoint file instead of starting over
+ * setTelemetry   - sets the file a record of every training iteration is written into
+ * setValidation  - sets the held out test sets that decide when training stops early and which weights are kept
+ * setOptimizer   - sets the rule that turns the weight changes of a batch into the change made, see Optimizer
+ * setFastSigmoid - switches the threshold function between the exact sigmoid and the faster one of Sigmoid
+ * iterationsUsed - returns the number of iterations the last training ended after
+ * train          - trains the Perceptron using the gradient descent method implemented with back propagation
+ * readDimensions - reads the number of nodes in each layer from a file formatted like dimensions.txt
+ * main           - static method that serves as a tester for the Perceptron class to train/run the Perceptron
  */
 public class Perceptron
 {
@@ -46,8 +78,41 @@ public class Perceptron
    private int numTotalLayers;                // the total number of layers
    private int[] numNodes;                    // stores the number of nodes in each layer of the Perceptron
    private double[][] a;                      // nodes array: first index as activation layer, second index as position of node in layer
-   private double[][][] w;                    // weights array: first index as activation layer, second index as position of node
-                                              // before the weight, and third index as position of node after weights
+   private double[][] w;                      // weights array: first index as activation layer, second index is the flattened
+                                              // position j * numNodes[n] + k, where k is the node before the weight and j the
+                                              // node after it, so each row j is contiguous for the dot products
+   static final int SAMPLE_TILE = 32;         // the number of test sets outputBatch runs through the weights together
+   private static final int RUN_BATCH = 256;  // the number of test sets run reads and runs through outputBatch at a time
+
+   private float[][] w32;                     // the weights as floats in the layout of w, used instead of w (which is then null)
+                                              // in single precision
+   private float[][] a32;                     // the nodes as floats, filled by output in single precision and copied into a
+   private boolean singlePrecision = false;   // whether w, a, psi and omega are kept as floats, see setFloat
+   private int batchSize = 1;                 // number of test sets whose weight changes are added up before w is changed,
+                                              // 1 adjusts w after every set and 0 after every full pass over all sets
+   private int numThreads = 1;                // number of threads that split the test sets of a batch between them
+   private int errorCheck = 0;                // 0 recomputes the error values after every batch, K > 0 keeps the errors found
+                                              // while training and recomputes all of them only every K iterations
+   private Random rand = new Random();        // random number generator used to randomize the weights and shuffle
+   private String weightsFile = "weights.txt";  // the file setWeights reads the weights from, text or binary
+   private int chunkSize = 0;                 // 0 loads every test set into memory once, N > 0 reads the input file again
+                                              // every iteration, N test sets at a time
+   private int shuffleSize = 0;               // the number of test sets mixed by the shuffle buffer when streaming, 0 for none
+   private int augmentCopies = 0;             // the number of augmented copies of every test set per iteration, 0 for none
+   private int prefetch = 0;                  // the number of chunks read ahead by a loader thread when streaming, 0 for none
+   private int parsers = 1;                   // the number of threads parsing the lines of a text file when streaming
+   private int checkpointIterations = 0;      // the iterations between checkpoints, 0 for none
+   private int checkpointSeconds = 0;         // the seconds between checkpoints, 0 for none
+   private boolean resume = false;            // whether gradient goes on from the checkpoint instead of randomizing w
+   private String telemetryFile = null;       // the file the record of every iteration is written into, null for none
+   private String validationSource = null;    // the file of held out test sets, or the percentage held out, null for none
+   private int validateEvery = 1;             // the iterations between validations
+   private int patience = 0;                  // the validations in a row without improvement before stopping, 0 never stops
+   private Optimizer optimizer = null;        // the update rule of the weights, null for plain gradient descent
+   private boolean fastSigmoid = false;       // whether threshold interpolates the sigmoid from a table, see Sigmoid
+   private int iterationsUsed;                // the iterations the last training ended after, resumed ones included
+   private long[] phaseNanos = new long[Telemetry.PHASES];  // the nanoseconds spent in every phase of the current iteration
+   private double errorSum;                   // the sum of the error values of the last pass over a loader
 
    /**
     * Constructs a new Perceptron with the given number of input activation nodes,
@@ -84,177 +149,1496 @@ public class Perceptron
 
       for (int n = 0; n < numTotalLayers; n++)   // iterates over all activation layers
          a[n] = new double[numNodes[n]];         // the size of array a for the current layer is the number of nodes in it
+
+      a32 = new float[numTotalLayers][];         // the same nodes as floats, for single precision
+      for (int n = 0; n < numTotalLayers; n++)
+         a32[n] = new float[numNodes[n]];
+   }
+
+   /**
+    * Initializes the 2D instance variable called w with a proper size and fills it with
+    * values of weights read from the weights file, weights.txt unless setWeightsFile says otherwise.
+    *
+    * The proper size of array w should be [number of activation layers with another layer on its righthand side]
+    * [the number of nodes in the layer before the weights * the number of nodes in the layer after the weights].
+    * Text files list the weights with the index of the node after the weights changing fastest, so every value
+    * is stored at its transposed position j * numNodes[n] + k, keeping each row of w in the order output reads it.
+    * Binary files, recognized by their first bytes, already hold w in this layout and are memory mapped, see WeightFile.
+    * In single precision the weights are read into w32 instead, straight from a binary file of floats.
+    *
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   public void setWeights() throws IOException
+   {
+      if (singlePrecision)
+         w32 = WeightFile.loadFloats(weightsFile, numNodes);
+      else
+         w = WeightFile.load(weightsFile, numNodes);               // total weights layers is numHiddenLayer + 1 (add the layer from inputs)
+   }
+
+   /**
+    * Switches the Perceptron between double precision, the default and the reference, and single
+    * precision. In single precision the weights, the activations, the psis and the omegas are kept
+    * as floats, which halves the memory the dot products stream through; the dot products are
+    * summed in floats as well, while the threshold function and the error values are still
+    * computed in doubles. Weights already set are converted, and are written out as floats
+    * when saved to a binary file.
+    *
+    * @param single   true for floats, false for doubles
+    */
+   public void setFloat(boolean single)
+   {
+      singlePrecision = single;
+
+      if (single && w != null)
+      {
+         w32 = WeightFile.toFloat(w);
+         w = null;
+      }
+      else if (!single && w32 != null)
+      {
+         w = WeightFile.toDouble(w32);
+         w32 = null;
+      }
+   } // public void setFloat(boolean single)
+
+   /**
+    * Sets the name of the file setWeights reads the weights from, in either the text or the binary format.
+    *
+    * @param file   the name of the weights file
+    */
+   public void setWeightsFile(String file)
+   {
+      weightsFile = file;
+   }
+
+   /**
+    * Copies the given values into the instance variable array inputNodes, so that output runs
+    * them through the Perceptron.
+    *
+    * @param inputs   the values of the input nodes, at least as many as there are input nodes
+    */
+   public void setInputs(double[] inputs)
+   {
+      System.arraycopy(inputs, 0, inputNodes, 0, numNodes[0]);
+   }
+
+   /**
+    * Fills the instance variable array a with its proper values and returns a 2D
+    * array with the sum of dot products between activation node values and weight
+    * values for every node.
+    *
+    * Fills the first layer, the input layer, with instance variable array inputNodes.
+    * Iterates through all activation layers in the Perceptron starting from the
+    * first hidden layer. Goes through each node of every layer, fills it by computing
+    * the dot product sums between the activation node values and weight values, and
+    * throws the dot product into the threshold method.
+    */
+   public void output()
+   {
+      a[0] = inputNodes;                                   // fills the first layer with inputNodes that has values of all input nodes
+
+      if (singlePrecision)                                 // runs through the floats and copies the nodes into a
+      {
+         forward32(inputNodes, a32);
+         for (int n = 1; n < numTotalLayers; n++)
+         {
+            for (int j = 0; j < numNodes[n]; j++)
+               a[n][j] = a32[n][j];
+         }
+         return;
+      } // if (singlePrecision)
+
+      for (int n = 1; n < numTotalLayers; n++)             // iterates over all layers except the first, handled above
+      {
+         int left = numNodes[n - 1];                       // number of nodes in the layer to the left, also the length of a row of w
+         double[] prev = a[n - 1];
+         double[] weights = w[n - 1];
+
+         for (int j = 0; j < numNodes[n]; j++)             // iterates over nodes in the layer to the right of the weights layer
+         {
+            double sum = 0.0;                              // zeroes sum to ensure accurate computations for every evaluation
+            int row = j * left;                            // start of the contiguous row of weights feeding node j
+
+            for (int k = 0; k < left; k++)                 // iterates over nodes in the layer to the left of the weights layer
+               sum += prev[k] * weights[row + k];          // dot product = nodes left of weights * weights
+
+            a[n][j] = threshold(sum);                      // current node is the dot product sum thrown into the threshold method
+         } // for (int j = 0; j < numNodes[n]; j++)
+      } // for (int n = 1; n < numTotalLayers; n++)
+    } // public void output()
+
+   /**
+    * Runs many test sets through the Perceptron at once and returns the values of their output nodes,
+    * without changing inputNodes or a.
+    *
+    * The test sets are taken in tiles of SAMPLE_TILE, and every layer of a tile is computed as one
+    * product of the matrix of its activations and the matrix of weights: each row of weights is used
+    * by the whole tile while it is in the cache, and every value of it that is loaded is used by
+    * several test sets at once, so the weights are streamed through the cache once per tile instead
+    * of once per test set. Every dot product is still summed in the order output uses, so the results
+    * are exactly those of output, in either precision.
+    *
+    * @param inputs   the values of the input nodes, one row per test set
+    * @return         the values of the output nodes, one row per test set
+    */
+   public double[][] outputBatch(double[][] inputs)
+   {
+      double[][] outputs = new double[inputs.length][numNodes[numTotalLayers - 1]];
+      outputBatch(inputs, outputs, inputs.length, new Tile(numNodes, singlePrecision));
+      return outputs;
    }
 
    /**
-    * Initializes the 3D instance variable called w with a proper size and fills it with
-    * values of weights read from a file named weights.txt using a BufferedReader.
+    * Runs the first count test sets through the Perceptron like outputBatch(double[][]), using the
+    * activation arrays of the given Tile. Only the weights and the topology are read, nothing of the
+    * Perceptron is written, so any number of threads may call this at once as long as each has its
+    * own Tile and nobody changes the weights, see Model.
+    *
+    * @param inputs    the values of the input nodes, one row per test set
+    * @param outputs   filled with the values of the output nodes, one row per test set
+    * @param count     the number of test sets to run, from the first row
+    * @param tile      the activation arrays of the calling thread
+    */
+   void outputBatch(double[][] inputs, double[][] outputs, int count, Tile tile)
+   {
+      int lastLayer = numTotalLayers - 1;
+
+      for (int first = 0; first < count; first += SAMPLE_TILE)              // iterates over the tiles of test sets
+      {
+         int size = Math.min(SAMPLE_TILE, count - first);
+
+         if (singlePrecision)
+         {
+            float[][][] act = tile.a32;
+            for (int s = 0; s < size; s++)                                   // rounds the inputs of the tile to floats
+            {
+               for (int k = 0; k < numNodes[0]; k++)
+                  act[0][s][k] = (float) inputs[first + s][k];
+            }
+
+            for (int n = 1; n < numTotalLayers; n++)
+               multiply32(act[n - 1], act[n], size, w32[n - 1], numNodes[n - 1], numNodes[n]);
+
+            for (int s = 0; s < size; s++)
+            {
+               for (int i = 0; i < numNodes[lastLayer]; i++)
+                  outputs[first + s][i] = act[lastLayer][s][i];
+            }
+         } // if (singlePrecision)
+         else
+         {
+            for (int n = 1; n < numTotalLayers; n++)                         // the input layer is read straight from inputs, and the
+            {                                                                // output layer written straight into outputs
+               double[][] prev = (n == 1) ? inputs : tile.a[n - 1];
+               double[][] next = (n == lastLayer) ? outputs : tile.a[n];
+               multiply(prev, (n == 1) ? first : 0, next, (n == lastLayer) ? first : 0, size,
+                        w[n - 1], numNodes[n - 1], numNodes[n]);
+            }
+         } // else
+      } // for (int first = 0; first < count; first += SAMPLE_TILE)
+   } // void outputBatch(double[][] inputs, double[][] outputs, int count, Tile tile)
+
+   /**
+    * Computes one layer for a tile of test sets: the node j of every test set s is the dot product of
+    * row s of prev and row j of the weights, thrown into the threshold method. Four test sets are
+    * done at a time so that every weight loaded is used four times, each with its own running sum.
+    *
+    * @param prev       the activations of the layer to the left, one row per test set
+    * @param prevFrom   the row of prev holding the first test set of the tile
+    * @param next       filled with the activations of the layer to the right, one row per test set
+    * @param nextFrom   the row of next for the first test set of the tile
+    * @param size       the number of test sets in the tile
+    * @param weights    the weights between the two layers, laid out like a layer of w
+    * @param left       the number of nodes in the layer to the left
+    * @param right      the number of nodes in the layer to the right
+    */
+   private void multiply(double[][] prev, int prevFrom, double[][] next, int nextFrom, int size,
+                         double[] weights, int left, int right)
+   {
+      for (int j = 0; j < right; j++)                                        // iterates over the rows of weights
+      {
+         int row = j * left;                                                 // start of the row of weights feeding node j
+         int s = 0;
+
+         for (; s + 3 < size; s += 4)                                        // four test sets share every weight loaded
+         {
+            double[] p0 = prev[prevFrom + s];
+            double[] p1 = prev[prevFrom + s + 1];
+            double[] p2 = prev[prevFrom + s + 2];
+            double[] p3 = prev[prevFrom + s + 3];
+            double sum0 = 0.0;
+            double sum1 = 0.0;
+            double sum2 = 0.0;
+            double sum3 = 0.0;
+
+            for (int k = 0; k < left; k++)
+            {
+               double weight = weights[row + k];
+               sum0 += p0[k] * weight;
+               sum1 += p1[k] * weight;
+               sum2 += p2[k] * weight;
+               sum3 += p3[k] * weight;
+            }
+
+            next[nextFrom + s][j] = threshold(sum0);
+            next[nextFrom + s + 1][j] = threshold(sum1);
+            next[nextFrom + s + 2][j] = threshold(sum2);
+            next[nextFrom + s + 3][j] = threshold(sum3);
+         } // for (; s + 3 < size; s += 4)
+
+         for (; s < size; s++)                                               // the test sets left over at the end of the tile
+         {
+            double[] p = prev[prevFrom + s];
+            double sum = 0.0;
+
+            for (int k = 0; k < left; k++)
+               sum += p[k] * weights[row + k];
+
+            next[nextFrom + s][j] = threshold(sum);
+         }
+      } // for (int j = 0; j < right; j++)
+   } // private void multiply(double[][] prev, int prevFrom, double[][] next, int nextFrom, int size,
+     // double[] weights, int left, int right)
+
+   /**
+    * Computes one layer for a tile of test sets in single precision, see multiply. Two test sets are
+    * done at a time, each summed in the four interleaved partial sums forward32 uses.
+    *
+    * @param prev      the activations of the layer to the left, one row per test set
+    * @param next      filled with the activations of the layer to the right, one row per test set
+    * @param size      the number of test sets in the tile
+    * @param weights   the weights between the two layers, laid out like a layer of w32
+    * @param left      the number of nodes in the layer to the left
+    * @param right     the number of nodes in the layer to the right
+    */
+   private void multiply32(float[][] prev, float[][] next, int size, float[] weights, int left, int right)
+   {
+      int end = left - left % 4;                                             // the nodes summed in the partial sums
+
+      for (int j = 0; j < right; j++)
+      {
+         int row = j * left;
+
+         for (int s = 0; s < size; s += 2)                                   // the second test set repeats the first at the end
+         {                                                                   // of an odd tile, and is then thrown away
+            float[] p = prev[s];
+            float[] q = prev[Math.min(s + 1, size - 1)];
+            float p0 = 0.0f;
+            float p1 = 0.0f;
+            float p2 = 0.0f;
+            float p3 = 0.0f;
+            float q0 = 0.0f;
+            float q1 = 0.0f;
+            float q2 = 0.0f;
+            float q3 = 0.0f;
+
+            for (int k = 0; k < end; k += 4)
+            {
+               float w0 = weights[row + k];
+               float w1 = weights[row + k + 1];
+               float w2 = weights[row + k + 2];
+               float w3 = weights[row + k + 3];
+               p0 += p[k] * w0;
+               p1 += p[k + 1] * w1;
+               p2 += p[k + 2] * w2;
+               p3 += p[k + 3] * w3;
+               q0 += q[k] * w0;
+               q1 += q[k + 1] * w1;
+               q2 += q[k + 2] * w2;
+               q3 += q[k + 3] * w3;
+            } // for (int k = 0; k < end; k += 4)
+
+            for (int k = end; k < left; k++)                                 // the nodes left over when left is not a multiple of 4
+            {
+               p0 += p[k] * weights[row + k];
+               q0 += q[k] * weights[row + k];
+            }
+
+            next[s][j] = (float) threshold((p0 + p1) + (p2 + p3));
+            if (s + 1 < size)
+               next[s + 1][j] = (float) threshold((q0 + q1) + (q2 + q3));
+         } // for (int s = 0; s < size; s += 2)
+      } // for (int j = 0; j < right; j++)
+   } // private void multiply32(float[][] prev, float[][] next, int size, float[] weights, int left, int right)
+
+   /**
+    * Computes the output of param arg by throwing it into a threshold function.
+    * The threshold function is sigmoid for this version of the Perceptron, exact or within
+    * Sigmoid.MAX_ERROR of it if setFastSigmoid asked for the fast one.
+    *
+    * @param arg   the input value that becomes the "x" in the threshold function
+    * @return      the output after value is thrown into the threshold function
+    */
+   public double threshold(double arg)
+   {
+      if (fastSigmoid)
+         return Sigmoid.fast(arg);
+      return 1.0 / (1.0 + Math.exp(-arg));
+   }
+
+   /**
+    * Defines the derivative of the threshold function and returns the output
+    * of the derivative function at the parameter arg.
+    *
+    * @param arg   the value at which the derivative function is evaluated
+    * @return      the value returned by the derivative function at arg
+    */
+   public double derivative(double arg)
+   {
+      double deriv = threshold(arg);  // stores the value of the derivative of threshold
+      return deriv * (1.0 - deriv);
+   }
+
+   /**
+    * Computes and returns the error value, which is calculated by squaring the
+    * difference between tValues and the output values in the last layer of array a
+    * computed by output method and then dividing the sum of all differences by 2.
+    *
+    * @param tValue   stores the expected truth values, hence called T values
+    * @return         the error value
+    */
+   public double calcError(double[] tValue)
+   {
+      return calcError(tValue, a[numTotalLayers - 1]);      // the outputs are the nodes in the last layer
+   }
+
+   /**
+    * Computes and returns the error value of the given output nodes, see calcError(double[]).
+    *
+    * @param tValue    stores the expected truth values, hence called T values
+    * @param outputs   the values of the nodes in the last layer
+    * @return          the error value
+    */
+   static double calcError(double[] tValue, double[] outputs)
+   {
+      double error = 0.0;
+
+      for (int i = 0; i < outputs.length; i++)              // loops over every node in the last layer
+      {
+         double difference = tValue[i] - outputs[i];        // finds the difference between the truth value and the node
+         error += difference * difference;                  // square the difference and add to the error
+      }
+
+      return error * 0.5;                                   // multiply the error value by 0.5
+   } // static double calcError(double[] tValue, double[] outputs)
+
+   /**
+    * Computes and returns the error value of the given output nodes kept as floats, see calcError(double[]).
+    *
+    * @param tValue    stores the expected truth values, hence called T values
+    * @param outputs   the values of the nodes in the last layer
+    * @return          the error value
+    */
+   private static double calcError(double[] tValue, float[] outputs)
+   {
+      double error = 0.0;
+
+      for (int i = 0; i < outputs.length; i++)              // loops over every node in the last layer
+      {
+         double difference = tValue[i] - outputs[i];        // finds the difference between the truth value and the node
+         error += difference * difference;                  // square the difference and add to the error
+      }
+
+      return error * 0.5;                                   // multiply the error value by 0.5
+   } // private static double calcError(double[] tValue, float[] outputs)
+
+   /**
+    * Initializes the 2D instance variable called w with a proper size, fills it with
+    * randomized weights that fall between the range given by the parameters, and writes
+    * all the weight values into a file whose name is given by parameter as well, in the
+    * binary format if the name ends with ".bin" and in the text format otherwise.
+    *
+    * @param low            the lower limit for randomized weights
+    * @param high           the higher limit for randomized weights
+    * @param file           the name of file where the user wants his or her weights to be stored in
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   public void randomizeW(double low, double high, String file) throws IOException
+   {
+      w = new double[numHiddenLayer + 1][];                          // total weights layers is numHiddenLayer + 1 (add the layer from inputs)
+
+      for (int n = 0; n < numHiddenLayer + 1; n++)                   // iterates over all layers of weights
+      {
+         w[n] = new double[numNodes[n] * numNodes[n + 1]];           // one contiguous block for every weight between layer n and n + 1
+
+         for (int k = 0; k < numNodes[n]; k++)                       // iterates over the nodes in the layer before this layer of weights
+         {
+            for (int j = 0; j < numNodes[n + 1]; j++)                // iterates over the nodes in the layer after this layer of weights
+            {
+               double weight = rand.nextDouble() * (high - low) + low;  // weights should fall within the range of param low and high
+               w[n][j * numNodes[n] + k] = weight;                   // stored at the transposed position, see setWeights
+            }
+
+         } // for (int k = 0; k < numNodes[n]; k++)
+      } // for (int n = 0; n < numHiddenLayer + 1; n++)
+
+      if (singlePrecision)                                           // rounds the weights to floats before they are used or saved
+      {
+         w32 = WeightFile.toFloat(w);
+         w = null;
+      }
+      saveWeights(file);                                             // writes the randomized weight values into a file
+   } // public void randomizeW(double low, double high, String file) throws IOException
+
+   /**
+    * Writes the weights into a file, in the binary format if the name ends with ".bin" and in the
+    * text format otherwise, as floats in single precision.
+    *
+    * @param file           the name of the weights file
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   private void saveWeights(String file) throws IOException
+   {
+      if (singlePrecision)
+         WeightFile.save(file, numNodes, w32);
+      else
+         WeightFile.save(file, numNodes, w);
+   }
+
+   /**
+    * Sets the batch size used by the gradient method. With a batch size of 1 the weights are
+    * adjusted after every test set (stochastic gradient descent), with a batch size of N the
+    * weight changes of N consecutive test sets are added up and applied once (mini-batch), and
+    * with a batch size of 0, or one at least as large as the number of test sets, the changes of
+    * all test sets are applied once per iteration (full batch).
+    *
+    * @param size   the number of test sets per change of the weights, 0 for all of them
+    */
+   public void setBatchSize(int size)
+   {
+      if (size < 0)
+         throw new IllegalArgumentException("Batch size cannot be negative: " + size);
+      batchSize = size;
+   }
+
+   /**
+    * Sets the number of threads used by the gradient method. The test sets of every batch are
+    * split into at most this many contiguous shards, each run by its own thread with its own
+    * Workspace, and the weight changes of the shards are added into w in shard order. Training is
+    * therefore repeatable for a given seed and number of threads. Only batch sizes larger than 1
+    * can be split, a batch size of 1 always trains on a single thread, but the passes that
+    * recompute the error values are split between the threads either way.
+    *
+    * @param threads   the number of threads, at least 1
+    */
+   public void setThreads(int threads)
+   {
+      if (threads < 1)
+         throw new IllegalArgumentException("Number of threads must be at least 1: " + threads);
+      numThreads = threads;
+   }
+
+   /**
+    * Sets how the gradient method finds the error values it compares with the error threshold.
+    *
+    * With 0 (the default) every test set is run through the Perceptron again right after its
+    * batch has adjusted the weights, which costs a second forward pass per test set. With K > 0
+    * the error found by the forward pass of the training itself is kept instead, and every test
+    * set is run again with the current weights only every K iterations, or sooner when all kept
+    * errors are below the threshold. Training only stops on errors computed by such a full pass.
+    *
+    * @param interval   0 to check after every batch, or the number of iterations between full checks
+    */
+   public void setErrorCheck(int interval)
+   {
+      if (interval < 0)
+         throw new IllegalArgumentException("Error check interval cannot be negative: " + interval);
+      errorCheck = interval;
+   }
+
+   /**
+    * Sets whether the gradient method streams the input file. With 0 (the default) all test sets
+    * are read into memory once before training. With N > 0 only N test sets are held at a time:
+    * every iteration reads the file again from the start, trains on it chunk by chunk and keeps
+    * only the largest error value, so files of any size can be trained on. The chunk is rounded up
+    * to a whole number of batches, and a batch size of 0 applies the changes once per pass.
+    *
+    * @param size   the number of test sets held in memory at a time, 0 to load all of them
+    */
+   public void setChunkSize(int size)
+   {
+      if (size < 0)
+         throw new IllegalArgumentException("Chunk size cannot be negative: " + size);
+      chunkSize = size;
+   }
+
+   /**
+    * Sets the size of the shuffle buffer used when the gradient method streams the input file, see
+    * SampleReader. Every pass then visits the test sets in a different order drawn from the random
+    * number generator that randomizes the weights, so a seeded run is still repeatable.
+    *
+    * @param size   the number of test sets held in the shuffle buffer, 0 to keep the order of the file
+    */
+   public void setShuffle(int size)
+   {
+      if (size < 0)
+         throw new IllegalArgumentException("Shuffle buffer size cannot be negative: " + size);
+      shuffleSize = size;
+   }
+
+   /**
+    * Sets how many augmented copies of every test set the gradient method trains on in each
+    * iteration besides the test sets themselves, see Augmenter: the images of the input layer, which
+    * must be square, are moved, turned, scaled and given noise, differently in every iteration. The
+    * copies of the next iteration are made by other threads while the current one trains. Only the
+    * test sets themselves count toward the error threshold, and augmenting needs them all in
+    * memory, so a chunk size of 0.
+    *
+    * @param copies   the number of copies of every test set per iteration, 0 for none
+    */
+   public void setAugment(int copies)
+   {
+      if (copies < 0)
+         throw new IllegalArgumentException("Number of augmented copies cannot be negative: " + copies);
+      augmentCopies = copies;
+   }
+
+   /**
+    * Sets how many chunks of test sets a loader thread reads ahead while the gradient method streams
+    * the input file, see SampleLoader, so that reading and parsing the file overlap with the
+    * training. The loader waits once that many chunks are ready, so the memory used stays bounded.
+    * The test sets and their order do not change, nor does the trained Perceptron.
+    *
+    * @param chunks   the number of chunks read ahead, 0 to read every chunk on the training thread
+    */
+   public void setPrefetch(int chunks)
+   {
+      if (chunks < 0)
+         throw new IllegalArgumentException("Prefetch cannot be negative: " + chunks);
+      prefetch = chunks;
+   }
+
+   /**
+    * Sets how many threads parse the lines of a text input file while the gradient method streams
+    * it, see SampleReader.setParsers. The test sets and their order do not change.
+    *
+    * @param threads   the number of threads, at least 1
+    */
+   public void setParsers(int threads)
+   {
+      if (threads < 1)
+         throw new IllegalArgumentException("Number of parser threads must be at least 1: " + threads);
+      parsers = threads;
+   }
+
+   /**
+    * Sets how often the gradient method writes a checkpoint, see Checkpoint: the weights, the number
+    * of iterations done and the state of the random number generators, into the weights file name
+    * followed by ".ckpt". Checkpoints are taken between iterations, every so many iterations or
+    * seconds, whichever comes first, and written by a thread of their own while training goes on,
+    * see CheckpointWriter. A last checkpoint is written when training ends.
+    *
+    * @param iterations   the iterations between checkpoints, 0 for none
+    * @param seconds      the seconds between checkpoints, 0 for none
+    */
+   public void setCheckpoint(int iterations, int seconds)
+   {
+      if (iterations < 0 || seconds < 0)
+         throw new IllegalArgumentException("Checkpoint intervals cannot be negative: " +
+                                            iterations + " iterations, " + seconds + " seconds");
+      checkpointIterations = iterations;
+      checkpointSeconds = seconds;
+   }
+
+   /**
+    * Sets whether the gradient method goes on from the checkpoint of its weights file instead of
+    * randomizing the weights, see setCheckpoint. The iterations done before count toward the
+    * maximum, and with the same hyperparameters the weights come out the same as if training had
+    * never stopped.
+    *
+    * @param resume   true to go on from the checkpoint
+    */
+   public void setResume(boolean resume)
+   {
+      this.resume = resume;
+   }
+
+   /**
+    * Sets the file the gradient method writes a record of every iteration into, see Telemetry: the
+    * mean and largest error value, the test sets trained on per second, the time spent in every
+    * phase and the bytes allocated. The records are written between iterations only.
+    *
+    * @param file   the name of the file, JSON lines if it ends with ".jsonl", or null for none
+    */
+   public void setTelemetry(String file)
+   {
+      telemetryFile = file;
+   }
+
+   /**
+    * Sets the test sets the gradient method holds out of the training to validate the weights on,
+    * see Validator: either the name of a file of test sets, text or binary, or a percentage such as
+    * "20%" of the last test sets of the input file, which are then not trained on. Every so many
+    * iterations the weights are scored on a thread of their own by the mean error value of the held
+    * out test sets; training stops once patience scores in a row have not improved on the best, and
+    * the weights that scored best are the ones kept. A percentage needs every test set in memory,
+    * so a chunk size of 0.
+    *
+    * @param source     the file of held out test sets or the percentage held out, null for no validation
+    * @param every      the iterations between validations, at least 1
+    * @param patience   the validations in a row without improvement before training stops, 0 never to stop early
+    */
+   public void setValidation(String source, int every, int patience)
+   {
+      if (every < 1)
+         throw new IllegalArgumentException("Iterations between validations must be at least 1: " + every);
+      if (patience < 0)
+         throw new IllegalArgumentException("Patience cannot be negative: " + patience);
+      validationSource = source;
+      validateEvery = every;
+      this.patience = patience;
+   }
+
+   /**
+    * Sets the rule the gradient method updates the weights by, see Optimizer: "sgd", plain gradient
+    * descent, the default, or "momentum", "nesterov", "rmsprop" or "adam", each optionally followed by
+    * its hyperparameters. The rule is applied to the summed changes of every batch, so with a rule
+    * a batch size of 1 no longer changes the weights in place, and its state is kept in checkpoints.
+    *
+    * @param rule   the rule and its hyperparameters, such as "adam 0.9 0.999 1e-8"
+    */
+   public void setOptimizer(String rule)
+   {
+      optimizer = Optimizer.parse(rule);
+   }
+
+   /**
+    * Switches the threshold function between the exact sigmoid, the default, and the fast one of
+    * Sigmoid, which interpolates it from a table instead of calling Math.exp for every node and
+    * differs from it by at most Sigmoid.MAX_ERROR. It applies to running and to training, whose
+    * back propagation takes the derivative from the activations and so follows the same function.
+    *
+    * @param fast   true for the fast sigmoid, false for the exact one
+    */
+   public void setFastSigmoid(boolean fast)
+   {
+      fastSigmoid = fast;
+   }
+
+   /**
+    * Returns the number of iterations the last training ended after, the one gradient prints as
+    * "Iterations used"; it is below the most allowed only if every error value reached the threshold
+    * or validation stopped the training early.
+    *
+    * @return   the iterations used, 0 before any training
+    */
+   public int iterationsUsed()
+   {
+      return iterationsUsed;
+   }
+
+   /**
+    * Copies the weights of another Perceptron with the same layers and precision into this one,
+    * into the arrays this one already has, so a copy taken again and again allocates nothing.
+    *
+    * @param from   the Perceptron whose weights are copied
+    */
+   void copyWeights(Perceptron from)
+   {
+      if (from.w32 != null)
+      {
+         if (w32 == null)
+            w32 = new float[from.w32.length][];
+         for (int n = 0; n < from.w32.length; n++)
+         {
+            if (w32[n] == null)
+               w32[n] = new float[from.w32[n].length];
+            System.arraycopy(from.w32[n], 0, w32[n], 0, from.w32[n].length);
+         }
+         w = null;
+         return;
+      } // if (from.w32 != null)
+
+      if (w == null)
+         w = new double[from.w.length][];
+      for (int n = 0; n < from.w.length; n++)
+      {
+         if (w[n] == null)
+            w[n] = new double[from.w[n].length];
+         System.arraycopy(from.w[n], 0, w[n], 0, from.w[n].length);
+      }
+      w32 = null;
+   } // void copyWeights(Perceptron from)
+
+   /**
+    * Seeds the random number generator used by randomizeW and the shuffle buffer so that training can be repeated.
+    *
+    * @param seed   the seed for the random number generator
+    */
+   public void setSeed(long seed)
+   {
+      rand = new Random(seed);
+   }
+
+   /**
+    * Runs one test set through the Perceptron using the arrays of the given Workspace instead of
+    * the instance variables, so several threads can do this at the same time. Fills the first
+    * layer of ws.a with the inputs, and every later layer with the dot product sums thrown into
+    * the threshold method.
+    *
+    * @param inputs   the values of the input nodes for the current test set
+    * @param ws       the Workspace whose a array is filled
+    */
+   private void forward(double[] inputs, Workspace ws)
+   {
+      double[][] act = ws.a;
+      act[0] = inputs;                                                       // initializes the input layer with the correct set of inputs
+
+      for (int n = 1; n < numTotalLayers; n++)                               // iterates over all layers except the first, handled above
+      {
+         int left = numNodes[n - 1];                                         // length of one contiguous row of weights in w[n - 1]
+         double[] prev = act[n - 1];
+         double[] weights = w[n - 1];
+
+         for (int j = 0; j < numNodes[n]; j++)                               // iterates over nodes in the layer to the right of the weights
+         {
+            double sum = 0.0;                                                // zeroes sum to ensure accurate computations for every case
+            int row = j * left;                                              // start of the row of weights feeding node j
+
+            for (int k = 0; k < left; k++)                                   // iterates over nodes in the layer to the left of the weights
+               sum += prev[k] * weights[row + k];                            // dot product = nodes left of weights * weights
+
+            act[n][j] = threshold(sum);                                      // current node is the dot product sum thrown into threshold method
+         } // for (int j = 0; j < numNodes[n]; j++)
+      } // for (int n = 1; n < numTotalLayers; n++)
+   } // private void forward(double[] inputs, Workspace ws)
+
+   /**
+    * Runs one test set through the Perceptron in single precision, like forward does with doubles.
+    * The inputs are rounded to floats into the first layer of act, and every dot product is summed in
+    * four interleaved float partial sums before it is thrown into the threshold method, so the sums
+    * differ from a single running sum in the last bits.
+    *
+    * @param inputs   the values of the input nodes for the current test set
+    * @param act      the nodes of every layer as floats, filled by this method
+    */
+   private void forward32(double[] inputs, float[][] act)
+   {
+      float[] first = act[0];
+      for (int k = 0; k < numNodes[0]; k++)                                  // initializes the input layer with the correct set of inputs
+         first[k] = (float) inputs[k];
+
+      for (int n = 1; n < numTotalLayers; n++)                               // iterates over all layers except the first, handled above
+      {
+         int left = numNodes[n - 1];                                         // length of one contiguous row of weights in w32[n - 1]
+         float[] prev = act[n - 1];
+         float[] weights = w32[n - 1];
+
+         for (int j = 0; j < numNodes[n]; j++)                               // iterates over nodes in the layer to the right of the weights
+         {
+            float sum0 = 0.0f;                                               // four partial sums that do not wait on each other,
+            float sum1 = 0.0f;                                               // a single one would make every addition wait for the last
+            float sum2 = 0.0f;
+            float sum3 = 0.0f;
+            int row = j * left;                                              // start of the row of weights feeding node j
+            int k = 0;
+
+            for (; k + 3 < left; k += 4)                                     // dot product = nodes left of weights * weights
+            {
+               sum0 += prev[k] * weights[row + k];
+               sum1 += prev[k + 1] * weights[row + k + 1];
+               sum2 += prev[k + 2] * weights[row + k + 2];
+               sum3 += prev[k + 3] * weights[row + k + 3];
+            }
+            for (; k < left; k++)                                            // the nodes left over when left is not a multiple of 4
+               sum0 += prev[k] * weights[row + k];
+
+            act[n][j] = (float) threshold((sum0 + sum1) + (sum2 + sum3));
+         } // for (int j = 0; j < numNodes[n]; j++)
+      } // for (int n = 1; n < numTotalLayers; n++)
+   } // private void forward32(double[] inputs, float[][] act)
+
+   /**
+    * Runs one test set through the Perceptron and back propagates its error. The forward pass
+    * fills ws.a, then for every layer from the last back to the first the psis are computed,
+    * then the omegas of the layer to the left, and then the change of every weight, lambda * psi
+    * * activation, is added into ws.deltaW. The derivative of the threshold function is taken from
+    * the activations already in ws.a, so no exponential is computed after the forward pass. Every
+    * omega is computed with the weights as they were before this call, so ws.deltaW may be w
+    * itself to adjust the weights in place.
+    *
+    * @param inputs   the values of the input nodes for the current test set
+    * @param tValue   the truth values for the current test set
+    * @param lambda   the learning factor, how far weights move for each step
+    * @param ws       the Workspace holding the arrays of the thread running this test set
+    * @return         the error value of the forward pass, before the weights were changed
+    */
+   private double backPropagate(double[] inputs, double[] tValue, double lambda, Workspace ws)
+   {
+      int lastLayer = numTotalLayers - 1;                                    // the last layer index pointing to the output layer
+      double[][] act = ws.a;
+      double[][] psi = ws.psi;
+      double[][] omega = ws.omega;
+
+      forward(inputs, ws);
+
+      for (int i = 0; i < numNodes[lastLayer]; i++)                          // iterates over last layer to calculate special "omegas" (only for
+         omega[lastLayer][i] = tValue[i] - act[lastLayer][i];                // the last layer) as the differences between T values and outputs
+
+      for (int alpha = lastLayer; alpha > 0; alpha--)                        // alpha represents the index of the current layer
+      {
+         int left = numNodes[alpha - 1];                                     // length of one contiguous row of weights in w[alpha - 1]
+         double[] prev = act[alpha - 1];
+         double[] curr = act[alpha];
+         double[] weights = w[alpha - 1];
+         double[] delta = ws.deltaW[alpha - 1];                              // the same array as weights when the batch size is 1
+         double[] omegaLeft = omega[alpha - 1];
+
+         for (int beta = 0; beta < numNodes[alpha]; beta++)                  // beta represents the index of nodes in the current layer
+            psi[alpha][beta] = omega[alpha][beta] *                          // psi stores the product of the current omega value and the
+                               (curr[beta] * (1.0 - curr[beta]));            // derivative at theta, which for the sigmoid is a * (1 - a)
+
+         if (alpha > 1)                                                      // the input layer has no omega, nothing uses it
+         {
+            for (int gamma = 0; gamma < left; gamma++)                       // zeroes omega to avoid overlap between test cases
+               omegaLeft[gamma] = 0.0;
+
+            for (int beta = 0; beta < numNodes[alpha]; beta++)               // walks the rows of w so the gamma loop reads w contiguously
+            {
+               double psiBeta = psi[alpha][beta];
+               int row = beta * left;                                        // start of the row of weights feeding node beta
+
+               for (int gamma = 0; gamma < left; gamma++)                    // gamma represents the index of nodes in the layer to the left
+                  omegaLeft[gamma] += psiBeta * weights[row + gamma];        // omega of the layer to the left is the sum of products of psi
+            }                                                                // and weights connecting to the current layer
+         } // if (alpha > 1)
+
+         for (int beta = 0; beta < numNodes[alpha]; beta++)                  // updates weights now that their old values have been used
+         {                                                                   // for omega
+            double step = lambda * psi[alpha][beta];
+            int row = beta * left;
+
+            for (int gamma = 0; gamma < left; gamma++)
+               delta[row + gamma] += step * prev[gamma];
+         }
+      } // for (int alpha = lastLayer; alpha > 0; alpha--)
+
+      return calcError(tValue, act[lastLayer]);                              // the outputs are still those of the forward pass
+   } // private double backPropagate(double[] inputs, double[] tValue, double lambda, Workspace ws)
+
+   /**
+    * Runs one test set through the Perceptron and back propagates its error in single precision,
+    * in the same phases as backPropagate, using the float arrays of the Workspace and w32.
+    *
+    * @param inputs   the values of the input nodes for the current test set
+    * @param tValue   the truth values for the current test set
+    * @param lambda   the learning factor, how far weights move for each step
+    * @param ws       the Workspace holding the arrays of the thread running this test set
+    * @return         the error value of the forward pass, before the weights were changed
+    */
+   private double backPropagate32(double[] inputs, double[] tValue, float lambda, Workspace ws)
+   {
+      int lastLayer = numTotalLayers - 1;
+      float[][] act = ws.a32;
+      float[][] psi = ws.psi32;
+      float[][] omega = ws.omega32;
+
+      forward32(inputs, act);
+
+      for (int i = 0; i < numNodes[lastLayer]; i++)                          // the omegas of the last layer are the differences
+         omega[lastLayer][i] = (float) (tValue[i] - act[lastLayer][i]);      // between T values and outputs
+
+      for (int alpha = lastLayer; alpha > 0; alpha--)                        // alpha represents the index of the current layer
+      {
+         int left = numNodes[alpha - 1];
+         float[] prev = act[alpha - 1];
+         float[] curr = act[alpha];
+         float[] weights = w32[alpha - 1];
+         float[] delta = ws.deltaW32[alpha - 1];                             // the same array as weights when the batch size is 1
+         float[] omegaLeft = omega[alpha - 1];
+
+         for (int beta = 0; beta < numNodes[alpha]; beta++)                  // psi is omega times the derivative at theta, a * (1 - a)
+            psi[alpha][beta] = omega[alpha][beta] * (curr[beta] * (1.0f - curr[beta]));
+
+         if (alpha > 1)                                                      // the input layer has no omega, nothing uses it
+         {
+            for (int gamma = 0; gamma < left; gamma++)
+               omegaLeft[gamma] = 0.0f;
+
+            for (int beta = 0; beta < numNodes[alpha]; beta++)               // walks the rows of w32 so the gamma loop reads it contiguously
+            {
+               float psiBeta = psi[alpha][beta];
+               int row = beta * left;
+
+               for (int gamma = 0; gamma < left; gamma++)
+                  omegaLeft[gamma] += psiBeta * weights[row + gamma];
+            }
+         } // if (alpha > 1)
+
+         for (int beta = 0; beta < numNodes[alpha]; beta++)                  // updates weights now that their old values have been used
+         {
+            float step = lambda * psi[alpha][beta];
+            int row = beta * left;
+
+            for (int gamma = 0; gamma < left; gamma++)
+               delta[row + gamma] += step * prev[gamma];
+         }
+      } // for (int alpha = lastLayer; alpha > 0; alpha--)
+
+      return calcError(tValue, act[lastLayer]);
+   } // private double backPropagate32(double[] inputs, double[] tValue, float lambda, Workspace ws)
+
+   /**
+    * Adds the weight changes accumulated in the first shards Workspaces into w, in the order of the
+    * Workspaces, and zeroes them for the next batch. Every layer of w is split into index ranges
+    * that are handled by the threads of pool, so the result does not depend on the scheduling.
+    *
+    * @param pool         the pool running the ranges, or null to do all of them on this thread
+    * @param workspaces   the Workspaces holding the accumulated weight changes
+    * @param shards       the number of Workspaces used by the current batch
+    */
+   private void applyDeltas(ForkJoinPool pool, Workspace[] workspaces, int shards)
+   {
+      long start = System.nanoTime();
+      if (optimizer != null)
+         applyOptimizer(pool, workspaces, shards);
+      else if (singlePrecision)
+         applyDeltas32(pool, workspaces, shards);
+      else
+         applyDeltas64(pool, workspaces, shards);
+      phaseNanos[Telemetry.APPLY] += System.nanoTime() - start;
+   }
+
+   /**
+    * Adds up the weight changes of the first shards Workspaces in shard order into the first one and
+    * hands the sums to the Optimizer, which updates w or w32 and zeroes them. Every layer is split
+    * into index ranges like in applyDeltas.
+    *
+    * @param pool         the pool running the ranges, or null to do all of them on this thread
+    * @param workspaces   the Workspaces holding the accumulated weight changes
+    * @param shards       the number of Workspaces used by the current batch
+    */
+   private void applyOptimizer(ForkJoinPool pool, Workspace[] workspaces, int shards)
+   {
+      int parts = (pool == null) ? 1 : numThreads;
+      optimizer.beginStep();
+
+      for (int n = 0; n < numTotalLayers - 1; n++)
+      {
+         int layer = n;
+         int length = singlePrecision ? w32[n].length : w[n].length;
+
+         inParallel(pool, parts, part ->
+         {
+            int from = (int) ((long) length * part / parts);
+            int to = (int) ((long) length * (part + 1) / parts);
+
+            if (singlePrecision)
+            {
+               float[] sum = workspaces[0].deltaW32[layer];
+               for (int s = 1; s < shards; s++)                              // adds the changes of every shard in order
+               {
+                  float[] delta = workspaces[s].deltaW32[layer];
+                  for (int i = from; i < to; i++)
+                  {
+                     sum[i] += delta[i];
+                     delta[i] = 0.0f;
+                  }
+               }
+               optimizer.update32(layer, w32[layer], sum, from, to);
+            }
+            else
+            {
+               double[] sum = workspaces[0].deltaW[layer];
+               for (int s = 1; s < shards; s++)
+               {
+                  double[] delta = workspaces[s].deltaW[layer];
+                  for (int i = from; i < to; i++)
+                  {
+                     sum[i] += delta[i];
+                     delta[i] = 0.0;
+                  }
+               }
+               optimizer.update(layer, w[layer], sum, from, to);
+            } // if (singlePrecision)
+         });
+      } // for (int n = 0; n < numTotalLayers - 1; n++)
+   } // private void applyOptimizer(ForkJoinPool pool, Workspace[] workspaces, int shards)
+
+   /**
+    * Adds the weight changes accumulated as doubles in the first shards Workspaces into w, see applyDeltas.
+    *
+    * @param pool         the pool running the ranges, or null to do all of them on this thread
+    * @param workspaces   the Workspaces holding the accumulated weight changes
+    * @param shards       the number of Workspaces used by the current batch
+    */
+   private void applyDeltas64(ForkJoinPool pool, Workspace[] workspaces, int shards)
+   {
+
+      int parts = (pool == null) ? 1 : numThreads;                           // the number of index ranges per layer of w
+
+      for (int n = 0; n < numTotalLayers - 1; n++)                           // iterates over all layers of weights
+      {
+         double[] weights = w[n];
+         int layer = n;
+
+         inParallel(pool, parts, part ->
+         {
+            int from = (int) ((long) weights.length * part / parts);         // the range of weights this part adds up
+            int to = (int) ((long) weights.length * (part + 1) / parts);
+
+            for (int i = from; i < to; i++)
+            {
+               double sum = weights[i];
+
+               for (int s = 0; s < shards; s++)                              // adds the changes of every shard in order
+               {
+                  double[] delta = workspaces[s].deltaW[layer];
+                  sum += delta[i];
+                  delta[i] = 0.0;                                            // zeroes the changes for the next batch
+               }
+               weights[i] = sum;
+            } // for (int i = from; i < to; i++)
+         });
+      } // for (int n = 0; n < numTotalLayers - 1; n++)
+   } // private void applyDeltas64(ForkJoinPool pool, Workspace[] workspaces, int shards)
+
+   /**
+    * Adds the weight changes accumulated as floats in the first shards Workspaces into w32, see applyDeltas.
+    *
+    * @param pool         the pool running the ranges, or null to do all of them on this thread
+    * @param workspaces   the Workspaces holding the accumulated weight changes
+    * @param shards       the number of Workspaces used by the current batch
+    */
+   private void applyDeltas32(ForkJoinPool pool, Workspace[] workspaces, int shards)
+   {
+      int parts = (pool == null) ? 1 : numThreads;
+
+      for (int n = 0; n < numTotalLayers - 1; n++)
+      {
+         float[] weights = w32[n];
+         int layer = n;
+
+         inParallel(pool, parts, part ->
+         {
+            int from = (int) ((long) weights.length * part / parts);
+            int to = (int) ((long) weights.length * (part + 1) / parts);
+
+            for (int i = from; i < to; i++)
+            {
+               float sum = weights[i];
+
+               for (int s = 0; s < shards; s++)
+               {
+                  float[] delta = workspaces[s].deltaW32[layer];
+                  sum += delta[i];
+                  delta[i] = 0.0f;
+               }
+               weights[i] = sum;
+            } // for (int i = from; i < to; i++)
+         });
+      } // for (int n = 0; n < numTotalLayers - 1; n++)
+   } // private void applyDeltas32(ForkJoinPool pool, Workspace[] workspaces, int shards)
+
+   /**
+    * Runs the test sets from index from up to index to through the Perceptron with the current
+    * weights and stores their error values, splitting them over the Workspaces and threads given.
+    *
+    * @param pool         the pool running the shards, or null to do all of them on this thread
+    * @param workspaces   the Workspaces of the threads, one per shard
+    * @param inputs       the input values of every test set
+    * @param t            the truth values of every test set
+    * @param error        stores the error value computed for each test set
+    * @param from         the index of the first test set to run
+    * @param to           the index after the last test set to run
+    */
+   private void evaluate(ForkJoinPool pool, Workspace[] workspaces, double[][] inputs, double[][] t,
+                         double[] error, int from, int to)
+   {
+      int lastLayer = numTotalLayers - 1;
+      int shards = Math.min(workspaces.length, to - from);                   // each shard is a contiguous range of the test sets
+      long start = System.nanoTime();
+
+      inParallel(pool, shards, s ->
+      {
+         int end = from + (to - from) * (s + 1) / shards;
+         for (int test = from + (to - from) * s / shards; test < end; test++)
+         {
+            if (singlePrecision)
+            {
+               forward32(inputs[test], workspaces[s].a32);
+               error[test] = calcError(t[test], workspaces[s].a32[lastLayer]);
+            }
+            else
+            {
+               forward(inputs[test], workspaces[s]);
+               error[test] = calcError(t[test], workspaces[s].a[lastLayer]);
+            }
+         } // for (int test = from + (to - from) * s / shards; test < end; test++)
+      });
+      phaseNanos[Telemetry.CHECK] += System.nanoTime() - start;
+   } // private void evaluate(ForkJoinPool pool, Workspace[] workspaces, double[][] inputs, double[][] t,
+     // double[] error, int from, int to)
+
+   /**
+    * Calls task with every number from 0 to tasks - 1, spreading the calls over the threads of
+    * pool and returning once all of them are finished.
+    *
+    * @param pool    the pool running the calls, or null to make them one after another on this thread
+    * @param tasks   the number of calls to make
+    * @param task    the work to do, given the number of the call
+    */
+   private static void inParallel(ForkJoinPool pool, int tasks, IntConsumer task)
+   {
+      if (pool == null || tasks == 1)
+      {
+         for (int i = 0; i < tasks; i++)
+            task.accept(i);
+         return;
+      }
+
+      List<Callable<Void>> calls = new ArrayList<Callable<Void>>();
+      for (int i = 0; i < tasks; i++)
+      {
+         int index = i;
+         calls.add(() ->
+         {
+            task.accept(index);
+            return null;
+         });
+      }
+
+      try
+      {
+         for (Future<Void> result : pool.invokeAll(calls))                   // waits for every call, rethrowing what it threw
+            result.get();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while training", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Training thread failed", e.getCause());
+      }
+   } // private static void inParallel(ForkJoinPool pool, int tasks, IntConsumer task)
+
+   /**
+    * Runs the first count test sets of the given arrays through the back propagation in batches of
+    * the given size, splitting every batch into shards for the threads, and stores the error value of
+    * every test set: the one found by its forward pass, or with an error check interval of 0 the one
+    * computed again with the weights its batch was applied to.
     *
-    * The proper size of array w should be [number of activation layers with another layer on its righthand side]
-    * [the number of nodes in the layer before the weights][the number of nodes in the layer after the weights].
-    *
-    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    * @param pool         the pool running the shards, or null to do all of them on this thread
+    * @param workspaces   the Workspaces of the threads, one per shard
+    * @param inputs       the input values of every test set
+    * @param t            the truth values of every test set
+    * @param error        stores the error value of each test set
+    * @param count        the number of test sets to train on
+    * @param batch        the number of test sets per change of w
+    * @param lambda       the learning factor
+    * @param apply        whether the changes of every batch are applied, false to keep adding them up in deltaW
     */
-   public void setWeights() throws IOException
+   private void trainSets(ForkJoinPool pool, Workspace[] workspaces, double[][] inputs, double[][] t,
+                          double[] error, int count, int batch, double lambda, boolean apply)
    {
-      BufferedReader readW = new BufferedReader
-                             (new FileReader("weights.txt"));      // creates a BufferedReader to read weights from the weights.txt
+      float lambda32 = (float) lambda;                                       // the learning factor for single precision
 
-      w = new double[numHiddenLayer + 1][0][0];                    // total weights layers is numHiddenLayer + 1 (add the layer from inputs)
-
-      for (int n = 0; n < numHiddenLayer + 1; n++)                 // iterates over all layers of weights
+      for (int start = 0; start < count; start += batch)                     // iterates over every batch of test sets
       {
-         w[n] = new double[numNodes[n]][0];                        // second index of w array is the number of nodes in the layer left of weights
-
-         for (int k = 0; k < numNodes[n]; k++)                     // iterates over the number of nodes in the layer before this layer of weights
-         {
-            w[n][k] = new double[numNodes[n + 1]];                 // third index of w array is the number of nodes in the layer right of weights
-
-            for (int j = 0; j < numNodes[n + 1]; j++)              // iterates over the number of nodes from the layer after this layer of weights
+         int first = start;
+         int end = Math.min(start + batch, count);                           // the last batch may be smaller than the others
+         int shards = Math.min(workspaces.length, end - start);              // each shard is a contiguous range of the batch
+         long began = System.nanoTime();
+
+         inParallel(pool, shards, s ->                                       // accumulates the changes of every test set in the batch
+         {                                                                   // and keeps the error of its forward pass
+            int to = first + (end - first) * (s + 1) / shards;
+            for (int test = first + (end - first) * s / shards; test < to; test++)
             {
-               w[n][k][j] = Double.parseDouble(readW.readLine());  // parses the next line in weights.txt into a double and stores in w array
-               //System.out.println("w[" + n + "][" + k + "][" + j   // prints out weight values with its respective indices for purposes of debug
-               //                   + "]: " + w[n][k][j] + " ");
+               if (singlePrecision)
+                  error[test] = backPropagate32(inputs[test], t[test], lambda32, workspaces[s]);
+               else
+                  error[test] = backPropagate(inputs[test], t[test], lambda, workspaces[s]);
             }
-         } // for (int k = 0; k < numNodes[n]; k++)
+         });
+         phaseNanos[Telemetry.TRAIN] += System.nanoTime() - began;          // timed per batch, never per test set
 
-      } // for (int n = 0; n < numHiddenLayer + 1; n++)
-   } // public void setWeights() throws IOException
+         if (apply)
+         {
+            if (batch > 1 || optimizer != null)                              // applies the changes added up over the batch
+               applyDeltas(pool, workspaces, shards);
+
+            if (errorCheck == 0)                                             // calculates the error values for the batch
+               evaluate(pool, workspaces, inputs, t, error, start, end);     // with the adjusted weights
+         }
+      } // for (int start = 0; start < count; start += batch)
+   } // private void trainSets(ForkJoinPool pool, Workspace[] workspaces, double[][] inputs, double[][] t,
+     // double[] error, int count, int batch, double lambda, boolean apply)
 
    /**
-    * Fills the instance variable array a with its proper values and returns a 2D
-    * array with the sum of dot products between activation node values and weight
-    * values for every node.
+    * Makes one training pass over every test set of the loader, one chunk at a time. With wholeEpoch
+    * the changes of all test sets are added up and applied once at the end of the pass, otherwise
+    * every chunk is trained on in batches of the given size.
     *
-    * Fills the first layer, the input layer, with instance variable array inputNodes.
-    * Iterates through all activation layers in the Perceptron starting from the
-    * first hidden layer. Goes through each node of every layer, fills it by computing
-    * the dot product sums between the activation node values and weight values, and
-    * throws the dot product into the threshold method.
+    * @param loader         hands out the chunks of test sets
+    * @param pool           the pool running the shards, or null to do all of them on this thread
+    * @param workspaces     the Workspaces of the threads, one per shard
+    * @param error          holds the error values of one chunk
+    * @param batch          the number of test sets per change of w, dividing the length of the chunk
+    * @param lambda         the learning factor
+    * @param wholeEpoch     whether all test sets make up a single batch
+    * @return               the largest error value of the pass, see trainSets
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
     */
-   public void output()
+   private double trainStream(SampleLoader loader, ForkJoinPool pool, Workspace[] workspaces, double[] error,
+                              int batch, double lambda, boolean wholeEpoch) throws IOException
    {
-      a[0] = inputNodes;                                   // fills the first layer with inputNodes that has values of all input nodes
+      double worst = 0.0;
+      boolean last;
+      errorSum = 0.0;
 
-      for (int n = 1; n < numTotalLayers; n++)             // iterates over all layers except the first, handled above
+      do
       {
-         for (int j = 0; j < numNodes[n]; j++)             // iterates over nodes in the layer to the right of the weights layer
-         {
-            a[n][j] = 0.0;                                 // zeroes temp to ensure accurate computations for every evaluation
-
-            for (int k = 0; k < numNodes[n - 1]; k++)      // iterates over nodes in the layer to the left of the weights layer
-               a[n][j] += (a[n - 1][k] * w[n - 1][k][j]);  // dot product = nodes left of weights * weights
+         SampleChunk chunk = nextChunk(loader);
+         trainSets(pool, workspaces, chunk.inputs, chunk.t, error, chunk.count, batch, lambda, !wholeEpoch);
+         worst = Math.max(worst, maxError(error, chunk.count));
+         errorSum += sumError(error, chunk.count);
+         last = chunk.last;
+         loader.release(chunk);
+      }
+      while (!last);
 
-            a[n][j] = threshold(a[n][j]);                  // current node is the dot product sum thrown into the threshold method
-         } // for (int j = 0; j < numNodes[n]; j++)
-      } // for (int n = 1; n < numTotalLayers; n++)
-    } // public void output()
+      if (wholeEpoch)                                                        // applies the changes of the whole pass at once
+      {
+         applyDeltas(pool, workspaces, workspaces.length);
+         if (errorCheck == 0)
+            worst = evaluateAll(loader, pool, workspaces, null, null, error, 0);
+      }
+      return worst;
+   } // private double trainStream(SampleLoader loader, ForkJoinPool pool, Workspace[] workspaces, double[] error,
+     // int batch, double lambda, boolean wholeEpoch) throws IOException
 
    /**
-    * Computes the output of param arg by throwing it into a threshold function.
-    * The threshold function is sigmoid for this version of the Perceptron.
+    * Recomputes the error values of every test set with the current weights, either of the first count
+    * test sets held in the arrays, or of all test sets of the loader, one chunk at a time.
     *
-    * @param arg   the input value that becomes the "x" in the threshold function
-    * @return      the output after value is thrown into the threshold function
+    * @param loader         hands out the chunks of test sets when streaming, or null if the arrays hold them all
+    * @param pool           the pool running the shards, or null to do all of them on this thread
+    * @param workspaces     the Workspaces of the threads, one per shard
+    * @param inputs         the input values of every test set, ignored when streaming
+    * @param t              the truth values of every test set, ignored when streaming
+    * @param error          stores the error values
+    * @param count          the number of test sets in the arrays, ignored when streaming
+    * @return               the largest error value
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
     */
-   public double threshold(double arg)
+   private double evaluateAll(SampleLoader loader, ForkJoinPool pool, Workspace[] workspaces, double[][] inputs,
+                              double[][] t, double[] error, int count) throws IOException
    {
-      return 1.0 / (1.0 + Math.exp(-arg));
-   }
+      if (loader == null)
+      {
+         evaluate(pool, workspaces, inputs, t, error, 0, count);
+         return maxError(error, count);
+      }
+
+      double worst = 0.0;
+      boolean last;
+      errorSum = 0.0;
+
+      do
+      {
+         SampleChunk chunk = nextChunk(loader);
+         evaluate(pool, workspaces, chunk.inputs, chunk.t, error, 0, chunk.count);
+         worst = Math.max(worst, maxError(error, chunk.count));
+         errorSum += sumError(error, chunk.count);
+         last = chunk.last;
+         loader.release(chunk);
+      }
+      while (!last);
+
+      return worst;
+   } // private double evaluateAll(SampleLoader loader, ForkJoinPool pool, Workspace[] workspaces, double[][] inputs,
+     // double[][] t, double[] error, int count) throws IOException
 
    /**
-    * Defines the derivative of the threshold function and returns the output
-    * of the derivative function at the parameter arg.
+    * Fills the given arrays with the next test sets of the reader, as many as they hold.
     *
-    * @param arg   the value at which the derivative function is evaluated
-    * @return      the value returned by the derivative function at arg
+    * @param reader         the reader of the test sets
+    * @param inputs         filled with the input values
+    * @param t              filled with the truth values
+    * @return               the number of test sets read, less than the length of the arrays once the pass ends
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
     */
-   public double derivative(double arg)
+   private static int readChunk(SampleReader reader, double[][] inputs, double[][] t) throws IOException
    {
-      double deriv = threshold(arg);  // stores the value of the derivative of threshold
-      return deriv * (1.0 - deriv);
+      int count = 0;
+      while (count < inputs.length && reader.next(inputs[count], t[count]))
+         count++;
+      return count;
    }
 
    /**
-    * Computes and returns the error value, which is calculated by squaring the
-    * difference between tValues and the output values in the last layer of array a
-    * computed by output method and then dividing the sum of all differences by 2.
+    * Returns the augmented copies of the next iteration from an Augmenter, counting the time waited
+    * for them as input.
     *
-    * @param tValue   stores the expected truth values, hence called T values
-    * @return         the error value
+    * @param augmenter      the Augmenter making the copies
+    * @return               the input values of the copies
+    * @throws IOException   thrown if interrupted while waiting for the copies
     */
-   public double calcError(double[] tValue)
+   private double[][] nextAugmented(Augmenter augmenter) throws IOException
    {
-      double error = 0.0;
-      int lastLayer = numTotalLayers - 1;                   // represents the index of the last layer
-
-      for (int i = 0; i < numNodes[lastLayer]; i++)         // loops over every node in the last layer
+      long start = System.nanoTime();
+      try
       {
-         double difference = tValue[i] - a[lastLayer][i];   // finds the difference between the truth value and the node
-         error += difference * difference;                  // square the difference and add to the error
+         return augmenter.nextEpoch();
       }
-
-      return error * 0.5;                                   // multiply the error value by 0.5
-   } // public double calcError(double[] tValue)
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting for augmented test sets");
+      }
+      finally
+      {
+         phaseNanos[Telemetry.INPUT] += System.nanoTime() - start;
+      }
+   } // private double[][] nextAugmented(Augmenter augmenter) throws IOException
 
    /**
-    * Initializes the 3D instance variable called w with a proper size, fills it with
-    * randomized weights that fall between the range given by the parameters, and writes
-    * all the weight values into a file whose name is given by parameter as well.
+    * Returns the next chunk of test sets of a loader, counting the time waited for it as input.
     *
-    * @param low            the lower limit for randomized weights
-    * @param high           the higher limit for randomized weights
-    * @param file           the name of file where the user wants his or her weights to be stored in
+    * @param loader         hands out the chunks of test sets
+    * @return               the chunk
     * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
     */
-   public void randomizeW(double low, double high, String file) throws IOException
+   private SampleChunk nextChunk(SampleLoader loader) throws IOException
    {
-      BufferedWriter writeW = new BufferedWriter
-                              (new FileWriter(file));                // creates a BufferedWriter to write weights into a file
-      Random rand = new Random();
-
-      w = new double[numHiddenLayer + 1][0][0];                      // total weights layers is numHiddenLayer + 1 (add the layer from inputs)
+      long start = System.nanoTime();
+      SampleChunk chunk = loader.next();
+      phaseNanos[Telemetry.INPUT] += System.nanoTime() - start;
+      return chunk;
+   }
 
-      for (int n = 0; n < numHiddenLayer + 1; n++)                   // iterates over all layers of weights
+   /**
+    * Takes a checkpoint of the training between two iterations and starts writing it in the
+    * background, unless the last checkpoint is still being written and wait is false.
+    *
+    * @param checkpoints    the writer of the checkpoints
+    * @param wait           whether to wait for the last checkpoint instead of skipping this one
+    * @param iteration      the number of iterations done
+    * @param loader         hands out the chunks when streaming, or null
+    * @param augmentSeed    the seed of the augmented copies, 0 if there are none
+    * @throws IOException   thrown if the last checkpoint could not be written
+    */
+   private void checkpoint(CheckpointWriter checkpoints, boolean wait, int iteration, SampleLoader loader,
+                           long augmentSeed) throws IOException
+   {
+      long start = System.nanoTime();
+      Checkpoint snapshot = checkpoints.take(wait);
+      if (snapshot != null)                                                  // null while still writing the last one
       {
-         w[n] = new double[numNodes[n]][0];                          // second index of w is the number of nodes in the layer left of weights
+         snapshot.epoch = iteration;
+         snapshot.augmentSeed = augmentSeed;
+         snapshot.random = (loader != null) ? loader.randomState() : Checkpoint.saveRandom(rand);
+         snapshot.optimizerSteps = (optimizer != null) ? optimizer.steps() : 0;
+         snapshot.setWeights(w, w32, (optimizer != null) ? optimizer.state() : null,
+                             (optimizer != null) ? optimizer.state32() : null);
+         checkpoints.write();
+      }
+      phaseNanos[Telemetry.CHECKPOINT] += System.nanoTime() - start;
+   } // private void checkpoint(CheckpointWriter checkpoints, boolean wait, int iteration, SampleLoader loader,
 
-         for (int k = 0; k < numNodes[n]; k++)                       // iterates over the nodes in the layer before this layer of weights
-         {
-            w[n][k] = new double[numNodes[n + 1]];                   // third index of w is the number of nodes in the layer right of weights
+   /**
+    * Goes on from the checkpoint of a weights file: restores the weights, in the precision set by
+    * setFloat, and the random number generator.
+    *
+    * @param file           the name of the weights file whose checkpoint is read
+    * @return               the checkpoint
+    * @throws IOException   thrown if the checkpoint cannot be read or does not match the Perceptron
+    */
+   private Checkpoint resumeFrom(String file) throws IOException
+   {
+      Checkpoint checkpoint = Checkpoint.load(file + Checkpoint.SUFFIX, numNodes);
 
-            for (int j = 0; j < numNodes[n + 1]; j++)                // iterates over the nodes in the layer after this layer of weights
-            {
-               w[n][k][j] = rand.nextDouble() * (high - low) + low;  // weights should fall within the range of param low and high
-               writeW.write(String.valueOf(w[n][k][j]) + "\n");      // writes the randomized weight values into a file
-            }
+      if (singlePrecision)
+      {
+         w32 = (checkpoint.w32 != null) ? checkpoint.w32 : WeightFile.toFloat(checkpoint.w);
+         w = null;
+      }
+      else
+      {
+         w = (checkpoint.w != null) ? checkpoint.w : WeightFile.toDouble(checkpoint.w32);
+         w32 = null;
+      }
+      rand = Checkpoint.loadRandom(checkpoint.random);
+      return checkpoint;
+   } // private Checkpoint resumeFrom(String file) throws IOException
 
-         } // for (int k = 0; k < numNodes[n]; k++)
-      } // for (int n = 0; n < numHiddenLayer + 1; n++)
+   /**
+    * Returns the largest of the first count error values, or NaN if any of them is NaN.
+    *
+    * @param error   the error values
+    * @param count   the number of error values to look at
+    * @return        the largest error value, 0 if count is 0
+    */
+   private static double maxError(double[] error, int count)
+   {
+      double worst = 0.0;
+      for (int test = 0; test < count; test++)
+         worst = Math.max(worst, error[test]);                               // Math.max keeps a NaN once it has seen one
+      return worst;
+   }
 
-      writeW.close();                                                // closes the file to finish writing
-   } // public void randomizeW(double low, double high, String file) throws IOException
+   /**
+    * Returns the sum of the first count error values.
+    *
+    * @param error   the error values
+    * @param count   the number of error values to add up
+    * @return        the sum
+    */
+   private static double sumError(double[] error, int count)
+   {
+      double sum = 0.0;
+      for (int test = 0; test < count; test++)
+         sum += error[test];
+      return sum;
+   }
 
    /**
     * Randomizes weights given the bounds using the randomizeW method. Implemented
     * with the back propagation algorithm to train and minimize errors. Adjusts the
-    * weights in 3D instance variable array w using the gradient descent to find the
+    * weights in 2D instance variable array w using the gradient descent to find the
     * best set of values that allows all given test sets to reach an error value
     * that is less than or equal to the parameter error threshold given by the user.
     * For more detailed mathematical explanations about the gradient descent, refer
     * to Dr. Nelson's notes in file "4-Three_Plus_Layer_Network."
     *
+    * The test sets are visited in batches of the size given by setBatchSize. The weight changes of
+    * every set in a batch are computed with the same weights and added up in deltaW, which is
+    * applied to w once the batch is done; the error values of the batch are then computed with
+    * the adjusted weights. A batch size of 1 adjusts w in place, exactly like plain gradient descent.
+    * Each batch is split into shards run by the threads given by setThreads, see applyDeltas.
+    * How often the error values are recomputed is given by setErrorCheck.
+    *
+    * Unless setChunkSize says otherwise all test sets are loaded into memory once. With a chunk size
+    * every iteration instead reads the input file again, one chunk of test sets at a time and through
+    * the shuffle buffer given by setShuffle, so the memory used does not depend on the size of the file.
+    * The chunks may be read ahead by a loader thread, see setPrefetch and setParsers.
+    *
+    * With setAugment every iteration trains on the test sets followed by augmented copies of them,
+    * made ahead of time by an Augmenter; the error values are those of the test sets themselves.
+    *
+    * With setCheckpoint the state of training is written into a checkpoint file in the background
+    * every so many iterations or seconds, and with setResume training goes on from that file
+    * instead of randomizing the weights. With setTelemetry a record of every iteration is written
+    * into a file, see Telemetry. With setValidation the weights are scored on held out test sets in
+    * the background, training stops early once the score stops improving, and the weights that scored
+    * best are kept, see Validator.
+    *
     * If error threshold is not reached, the method will stop adjusting weights after the
     * number of training iterations exceeds the limit given by the parameter iterations.
     * After the method stops adjusting weights, training is done, so it prints out all
     * final weight values, the truth values and the output nodes side by side, and the
-    * error reached for each test set onto the console. The final values of the weights
+    * error reached for each test set onto the console. When streaming, only the number
+    * of test sets and the largest error are printed. The final values of the weights
     * in w would also be written in a file whose name is determined by parameter file
     * given by the user.
     *
     * @param iterations     the maximum number of iterations allowed before stopping training
-    * @param file           the file name that user wants the trained weights to be written in
-    * @param numTests       the number of test sets given in the inputs.txt
+    * @param file           the file name that user wants the trained weights to be written in, binary if it ends with ".bin"
+    * @param numTests       the number of test sets given in the inputs.txt, 0 or less to use all of them
     * @param threshold      specifies what the maximum error acceptable for ending training
     * @param lambda         specifies the learning factor, how far weights move for each step
     * @param low            the lower limit for randomized weights
@@ -265,105 +1649,258 @@ public class Perceptron
    public void gradient(int iterations, String file, int numTests, double threshold, double lambda,
                         double low, double high, String input) throws IOException
    {
-      randomizeW(low, high, file);                                           // randomize weights to start off
-
       int current = 0;                                                       // the current number of iterations
       boolean trained = false;                                               // whether error has reached the threshold value
+      boolean checked = true;                                                // whether error holds the errors of the current weights
+      double worst = 0.0;                                                    // the largest error value of the last pass
+      Checkpoint resumed = null;                                             // the checkpoint training goes on from, if any
+
+      if (resume)
+      {
+         resumed = resumeFrom(file);                                         // the weights and random numbers where they were
+         current = (int) Math.min(resumed.epoch, iterations);
+         checked = current < iterations;                                     // the errors are found after training otherwise
+      }
+      else
+         randomizeW(low, high, file);                                        // randomize weights to start off
+
+      if (optimizer != null)                                                 // its state starts at 0 with the weights
+         optimizer.allocate(numNodes, singlePrecision, lambda);
+      if (resumed != null)
+      {
+         int states = (resumed.state != null) ? resumed.state.length : resumed.state32.length;
+         if (optimizer != null)
+            optimizer.setState(resumed.state, resumed.state32, resumed.optimizerSteps);
+         else if (states > 0)
+            throw new IllegalArgumentException("The checkpoint was written by an optimizer, set it to resume");
+      }
 
       int lastLayer = numTotalLayers - 1;                                    // the last layer index pointing to the output layer
       int numInputs = numNodes[0];                                           // number of nodes in the input layer
       int numOutputs = numNodes[lastLayer];                                  // number of nodes in the output layer
 
-      double[][] testSets = new double[numTests][numInputs];                 // stores the input layer nodes for each test set
-      double[][] t = new double[numTests][numOutputs];                       // stores the truth values for each test set
-      double[] error = new double[numTests];                                 // stores the error value for each test set
+      SampleReader reader = SampleReader.open(input, numInputs, numOutputs); // reads the test sets, text or binary
+      reader.setLimit(Math.max(numTests, 0));                                // the rest of the file is ignored
+
+      boolean streaming = chunkSize > 0;                                     // whether the file is read again every iteration
+      boolean wholeEpoch = streaming && batchSize == 0;                      // whether all test sets of a pass make up one batch
+      int capacity;                                                          // the number of test sets held in memory
+      SampleLoader loader = null;                                            // hands out the chunks when streaming
 
-      double[][] theta = new double[numTotalLayers][];                       // stores the sum of dot products for each layer
-      double[][] psi = new double[numTotalLayers][];
-      double[][] omega = new double[numTotalLayers][];                       // stores the sum of products of psi and weights for each layer
-      for (int n = 0; n < numTotalLayers; n++)                               // iterates over all layers to initialize theta, psi, and omega
+      if (streaming && augmentCopies > 0)
+         throw new IllegalArgumentException("Augmenting needs every test set in memory, set the chunk size to 0");
+
+      if (streaming)
       {
-         omega[n] = new double[numNodes[n]];                                 // size of omega, psi, and theta for the current index
-         psi[n] = new double[numNodes[n]];                                   // is the number of nodes in the current layer
-         theta[n] = new double[numNodes[n]];
+         reader.setShuffle(shuffleSize, rand);
+         capacity = chunkSize;
+         if (batchSize > 1)                                                  // rounds the chunk up to whole batches so that
+            capacity = (int) Math.min(Integer.MAX_VALUE,                     // no batch is split between two chunks
+                                      ((long) chunkSize + batchSize - 1) / batchSize * batchSize);
+         reader.setParsers(parsers);
+         loader = new SampleLoader(reader, rand, capacity, prefetch, numInputs, numOutputs);
       }
+      else
+      {
+         if (numTests <= 0)                                                  // counts the test sets with a first pass
+         {
+            double[] inputs = new double[numInputs];
+            double[] tValue = new double[numOutputs];
+            while (reader.next(inputs, tValue))
+               ;
+            numTests = (int) reader.count();
+            reader.reset();
+         }
+         capacity = numTests;
+      } // if (streaming)
 
-      BufferedReader readI = new BufferedReader                              // creates a BufferedReader to read inputs from inputs.txt
-                             (new FileReader(input));
+      int held = streaming ? 0 : capacity;                                   // the loader holds the chunks when streaming
+      double[][] testSets = new double[held][numInputs];                     // stores the input layer nodes for each test set
+      double[][] t = new double[held][numOutputs];                           // stores the truth values for each test set
+      double[] error = new double[capacity];                                 // stores the error value for each test set
 
-      String[] line = new String[numInputs + numOutputs];                    // an empty array of Strings that holds inputs and T values
-      for (int test = 0; test < numTests; test++)                            // fills testSets and t arrays with inputs and T values
+      if (!streaming)
       {
-         line = readI.readLine().split(" ");                                 // puts each String that is separated by white spaces in the
-                                                                             // current line read by the Reader into the array called line
-
-         for (int k = 0; k < numInputs; k++)                                 // iterates over the number of input nodes in the current line
-            testSets[test][k] = Double.parseDouble(line[k]);                 // fills testSets array with given inputs for the current set
+         int count = readChunk(reader, testSets, t);                         // fills testSets and t arrays with inputs and T values
+         if (count < numTests)
+            throw new IOException(input + " has only " + count + " test sets, expected " + numTests);
+         reader.close();
+         reader = null;                                                      // everything is in memory from now on
+      }
 
-         for (int i = 0; i < numOutputs; i++)
-            t[test][i] = Double.parseDouble(line[numInputs + i]);            // T values should be everything after the input values
-      } // for (int test = 0; test < numTests; test++)
+      Validator validator = null;                                            // scores the weights on held out test sets
+      if (validationSource != null && validationSource.endsWith("%"))
+      {
+         if (streaming)
+            throw new IllegalArgumentException("Holding out a percentage needs every test set in memory, set the chunk size to 0");
+         double percent = Double.parseDouble(validationSource.substring(0, validationSource.length() - 1).trim());
+         int heldOut = (int) Math.round(numTests * percent / 100.0);         // the last test sets are not trained on
+         if (heldOut < 1 || heldOut >= numTests)
+            throw new IllegalArgumentException(validationSource + " of " + numTests + " test sets holds out " + heldOut);
+         validator = new Validator(numNodes, singlePrecision, Arrays.copyOfRange(testSets, numTests - heldOut, numTests),
+                                   Arrays.copyOfRange(t, numTests - heldOut, numTests), heldOut, patience);
+         numTests -= heldOut;
+         capacity = numTests;
+      }
+      else if (validationSource != null)
+         validator = Validator.fromFile(validationSource, numNodes, singlePrecision, patience);
+      if (validator != null)
+         validator.setFastSigmoid(fastSigmoid);                              // scores the function being trained
+
+      int rows = capacity;                                                   // the number of test sets trained on in every iteration
+      double[][] epochSets = testSets;                                       // the test sets of an iteration, followed by
+      double[][] epochT = t;                                                 // their augmented copies if any
+      double[] epochError = error;
+      Augmenter augmenter = null;
+      long augmentSeed = 0;                                                  // seeds the copies, kept by checkpoints
+
+      if (augmentCopies > 0)
+      {
+         rows = numTests * (1 + augmentCopies);
+         epochSets = new double[rows][];
+         epochT = new double[rows][];
+         epochError = new double[rows];
+         for (int row = 0; row < rows; row++)                                // copies share the T values of their test sets,
+         {                                                                   // their inputs are swapped in every iteration
+            epochSets[row] = (row < numTests) ? testSets[row] : null;
+            epochT[row] = t[row % numTests];
+         }
 
-      while (trained != true && current < iterations)                        // trains until error is reached or iterations exceed the limit
+         augmentSeed = (resumed != null) ? resumed.augmentSeed : rand.nextLong();
+         augmenter = Augmenter.forInputs(numInputs, augmentSeed);
+         augmenter.start(testSets, numTests, augmentCopies,
+                         Math.max(1, Runtime.getRuntime().availableProcessors() - numThreads), current);
+      } // if (augmentCopies > 0)
+
+      int batch;                                                             // the number of test sets per change of w
+      if (wholeEpoch)
+         batch = capacity;                                                   // only sizes the shards, changes are applied once per pass
+      else
+         batch = (batchSize == 0 || batchSize > rows) ? rows : batchSize;
+      int threads = Math.max(1, Math.min(numThreads, rows));                 // threads share the batches and the error passes
+
+      Workspace[] workspaces = new Workspace[threads];                       // one set of a, psi, omega and deltaW for each thread
+      for (int s = 0; s < threads; s++)
       {
-         for (int test = 0; test < numTests; test++)                         // iterates over every test set
-         {
-            inputNodes = testSets[test];
-            a[0] = inputNodes;                                               // initializes the input layer with the correct set of inputs
-            for (int n = 1; n < numTotalLayers; n++)                         // iterates over all layers except the first, handled above
-            {
-               for (int j = 0; j < numNodes[n]; j++)                         // iterates over nodes in the layer to the right of the weights
-               {
-                  theta[n][j] = 0.0;                                         // zeroes theta to ensure accurate computations for every case
+         workspaces[s] = new Workspace(numNodes, singlePrecision);
 
-                  for (int k = 0; k < numNodes[n - 1]; k++)                  // iterates over nodes in the layer to the left of the weights
-                     theta[n][j] += (a[n - 1][k] * w[n - 1][k][j]);          // dot product = nodes left of weights * weights
+         if (batch == 1 && !wholeEpoch && optimizer == null)
+         {
+            workspaces[s].deltaW = w;                                        // a batch of 1 accumulates its changes straight into w,
+            workspaces[s].deltaW32 = w32;                                    // it cannot be split so only workspaces[0] trains
+         }
+         else if (singlePrecision)
+         {
+            workspaces[s].deltaW32 = new float[lastLayer][];
+            for (int n = 0; n < lastLayer; n++)
+               workspaces[s].deltaW32[n] = new float[w32[n].length];
+         }
+         else
+         {
+            workspaces[s].deltaW = new double[lastLayer][];                  // otherwise the changes are added up in a separate array
+            for (int n = 0; n < lastLayer; n++)                              // with the same layout as w
+               workspaces[s].deltaW[n] = new double[w[n].length];
+         }
+      } // for (int s = 0; s < threads; s++)
 
-                  a[n][j] = threshold(theta[n][j]);                          // current node is the dot product sum thrown into threshold method
-               } // for (int j = 0; j < numNodes[n]; j++)
-            } // for (int n = 1; n < numTotalLayers; n++)
+      ForkJoinPool pool = (threads > 1) ? new ForkJoinPool(threads) : null;  // runs the shards of every batch when there is more than one
+      long seen = numTests;                                                  // the number of test sets in every pass
+      CheckpointWriter checkpoints = null;                                   // writes the checkpoints in the background
+      if (checkpointIterations > 0 || checkpointSeconds > 0)
+         checkpoints = new CheckpointWriter(file + Checkpoint.SUFFIX, numNodes,
+                                            checkpointIterations, checkpointSeconds);
 
-            for (int i = 0; i < numNodes[lastLayer]; i++)                    // iterates over last layer to calculate special "omegas" (only for
-               omega[lastLayer][i] = t[test][i] - a[lastLayer][i];           // the last layer) as the differences between T values and outputs
+      Telemetry telemetry = (telemetryFile != null) ? new Telemetry(telemetryFile) : null;
 
-            for (int alpha = lastLayer; alpha > 0; alpha--)                  // alpha represents the index of the current layer
-            {
-               for (int gamma = 0; gamma < numNodes[alpha - 1]; gamma++)     // gamma represents the index of nodes in the layer to the left
-               {
-                  omega[alpha - 1][gamma] = 0.0;                             // zeroes omega to avoid overlap between test cases
+      boolean stopped = false;                                               // whether validation stopped improving
 
-                  for (int beta = 0; beta < numNodes[alpha]; beta++)         // beta represents the index of nodes in the current layer
-                  {
-                     psi[alpha][beta] = omega[alpha][beta] *                 // psi stores the product of the current omega value and
-                                        derivative(theta[alpha][beta]);      // the derivative function evaluated at current theta value
+      while (trained != true && !stopped && current < iterations)            // trains until error is reached or iterations exceed the limit
+      {
+         long began = System.nanoTime();
+         Arrays.fill(phaseNanos, 0L);
+         if (streaming)
+         {
+            worst = trainStream(loader, pool, workspaces, error, batch, lambda, wholeEpoch);
+            seen = loader.passCount();
+         }
+         else if (augmenter != null)
+         {
+            double[][] augmented = nextAugmented(augmenter);                 // waits only if the copies are not done yet
+            System.arraycopy(augmented, 0, epochSets, numTests, rows - numTests);
+            trainSets(pool, workspaces, epochSets, epochT, epochError, rows, batch, lambda, true);
+            System.arraycopy(epochError, 0, error, 0, numTests);
+            worst = maxError(error, numTests);                               // the copies do not decide when training stops
+         }
+         else
+         {
+            trainSets(pool, workspaces, testSets, t, error, numTests, batch, lambda, true);
+            worst = maxError(error, numTests);
+         }
 
-                     omega[alpha - 1][gamma] += psi[alpha][beta] *           // omega of the layer to the left is the sum of products of psi
-                                                w[alpha - 1][gamma][beta];   // and weights connecting to the current layer
+         checked = errorCheck == 0 || worst <= threshold                     // kept errors only decide when to run a full check
+                   || (current + 1) % errorCheck == 0;
+         if (errorCheck > 0 && checked)                                      // recomputes every error with the current weights
+            worst = evaluateAll(loader, pool, workspaces, testSets, t, error, numTests);
+         trained = checked && worst <= threshold;                            // kept errors never stop the training by themselves
 
-                     w[alpha - 1][gamma][beta] += lambda * psi[alpha][beta]  // updates weights since the omegas of the layer to the left
-                                                  * a[alpha - 1][gamma];     // has been calculated above
-                  } // for (int beta = 0; beta < numNodes[alpha]; beta++)
+         current++;                                                          // increments the number of iterations since one just finished
 
-               } // for (int gamma = 0; gamma < numNodes[alpha - 1]; gamma++)
-            } // for (int alpha = lastLayer; alpha > 0; alpha--)
+         double validation = Double.NaN;                                     // the score collected in this iteration, if any
+         if (validator != null && current % validateEvery == 0)
+         {
+            long start = System.nanoTime();
+            if (validator.collect())                                         // the snapshot of validateEvery iterations ago
+               validation = validator.lastError();
+            stopped = validator.exhausted();
+            if (!stopped)
+               validator.submit(this, current);                              // scored while the next iterations train
+            phaseNanos[Telemetry.VALIDATE] += System.nanoTime() - start;
+         }
 
-            output();                                                        // fills the array a according to the adjusted weights
-            error[test] = calcError(t[test]);                                // calculates the new error value with new values in a
-            if (error[test] <= threshold)                                    // if any set satisfies the error threshold
-               trained = true;                                               // set to true to check all sets after this loop
-         } // for (int test = 0; test < numTests; test++)
+         if (checkpoints != null && !trained && !stopped && current < iterations && checkpoints.due(current))
+            checkpoint(checkpoints, false, current, loader, augmentSeed);    // skipped if the last one is still being written
 
-         if (trained == true)                                                // if any of the test sets reached the threshold, check all
+         if (telemetry != null)                                              // written once the iteration is over
          {
-            for (int test = 0; test < numTests; test++)                      // iterates over all sets to check
-            {
-               if (Math.abs(error[test]) > threshold)                        // a set is above the threshold means network is not trained
-                  trained = false;
-            }
+            long sets = streaming ? seen : rows;
+            double mean = streaming ? errorSum / Math.max(seen, 1) : sumError(error, numTests) / Math.max(numTests, 1);
+            telemetry.record(current, sets, System.nanoTime() - began, mean, worst, validation, phaseNanos);
          }
+      } // while (trained != true && !stopped && current < iterations)
 
-         current++;                                                          // increments the number of iterations since one just finished
-      } // while (current < iterations && minimized != true)
+      if (checkpoints != null)                                               // holds the final weights, not the best ones restored below
+      {
+         checkpoint(checkpoints, true, current, loader, augmentSeed);
+         checkpoints.finish();
+      }
+
+      if (validator != null)                                                 // keeps the weights that scored best
+      {
+         validator.collect();
+         if (validator.lastIteration() != current && !stopped)               // the final weights are scored too
+         {
+            validator.submit(this, current);
+            validator.collect();
+         }
+         if (validator.restoreBest(this) && validator.bestIteration() != current)
+            checked = false;                                                 // the errors are of other weights
+         validator.close();
+      } // if (validator != null)
+
+      if (telemetry != null)
+         telemetry.close();
+
+      if (!checked)                                                          // reports the errors of the final weights
+         worst = evaluateAll(loader, pool, workspaces, testSets, t, error, numTests);
+
+      if (pool != null)
+         pool.shutdown();
+      if (loader != null)
+         loader.close();                                                     // before the reader it reads from
+      if (reader != null)
+         reader.close();
+      if (augmenter != null)
+         augmenter.close();
 
       System.out.println("------RESULTS BELOW------");                       // everything below is for printing out hyperparameters:
       System.out.println("Maximum number of iterations allowed: " +          // maximum number of iterations allowed by param from user
@@ -372,26 +1909,66 @@ public class Perceptron
       System.out.println("Learning factor: " + lambda);                      // the learning factor defined by param lambda
       System.out.println("Weights are randomized in the range from "         // the range for randomization of weights
                          + low + " to " + high);
-
-      BufferedWriter writeW = new BufferedWriter
-                              (new FileWriter(file));                        // creates a BufferedWriter to write weights into file
+      System.out.println("Batch size: " + (wholeEpoch ? seen : batch));      // the number of test sets per change of the weights
+      System.out.println("Threads used: " + threads);                        // the number of threads sharing every batch
+      System.out.println("Error check interval: " + errorCheck);             // 0 when the errors are recomputed after every batch
+      System.out.println("Precision: " + (singlePrecision ? "float" : "double"));  // the type of w, a, psi and omega
+      System.out.println("Optimizer: " + ((optimizer == null) ? "sgd" : optimizer.toString()));  // the update rule of w
+      System.out.println("Sigmoid: " + (fastSigmoid ? "fast" : "exact"));   // how the threshold function is computed
+      if (augmenter != null)
+      {
+         System.out.println("Augmented copies per test set: " + augmentCopies);   // trained on besides every test set
+         System.out.println("Waited for augmentation: " +                    // how long the copies held up the training
+                            augmenter.waitNanos() / 1000000 + " milliseconds");
+      }
+      if (validator != null)
+      {
+         System.out.println("Validation test sets: " + validator.count());    // held out of the training
+         System.out.println("Validations: " + validator.validations() +       // every validateEvery iterations
+                            ", every " + validateEvery + " iterations, patience " + patience);
+         System.out.println("Best validation error: " + validator.bestError() +  // the mean error of the kept weights
+                            " after iteration " + validator.bestIteration());
+         if (stopped)
+            System.out.println("Stopped early: validation stopped improving");
+      }
+      if (resumed != null)
+         System.out.println("Resumed after iteration: " + resumed.epoch);   // the iterations done before this run
+      if (checkpoints != null)
+      {
+         System.out.println("Checkpoints written: " + checkpoints.written() + // including the last one
+                            ", skipped: " + checkpoints.skipped());
+         System.out.println("Spent taking checkpoints: " +                   // how long the snapshots held up the training
+                            checkpoints.copyNanos() / 1000000 + " milliseconds");
+      }
 
       //BufferedWriter writeO = new BufferedWriter
       //                    (new FileWriter("outputs.txt"));
 
+      iterationsUsed = current;
       System.out.println("Iterations used: " + current);                     // prints out number of iterations used
-      for (int n = 0; n < lastLayer; n++)                                    // following for loops iterate over the array w
+      saveWeights(file);                                                     // writes all the weight values after training into file
+
+      if (streaming)                                                         // too many test sets to print each one
       {
-         for (int k = 0; k < numNodes[n]; k++)
+         System.out.println("Chunk size: " + capacity);                      // the number of test sets held in memory at a time
+         System.out.println("Shuffle buffer: " + shuffleSize);               // the number of test sets mixed by the shuffle buffer
+         System.out.println("Chunks read ahead: " + prefetch);               // by the loader thread, 0 if there is none
+         System.out.println("Parser threads: " + parsers);                   // the threads parsing the lines of a text file
+         if (prefetch > 0)
          {
-            for (int j = 0; j < numNodes[n + 1]; j++)
-            {
-               writeW.write(w[n][k][j] + "\n");                              // writes all the weight values after training into file
-               //System.out.println("w[" + n +"]["  + k + "][" + j +           // prints out all the weight values after training
-               //                   "]: " + w[n][k][j]);
-            }
-         } // for (int k = 0; k < numNodes[n]; k++)
-      } // for (int n = 0; n < lastLayer; n++)
+            System.out.println("Waited for test sets: " +                    // how long reading held up the training
+                               loader.waitNanos() / 1000000 + " milliseconds");
+            System.out.println("Loader waited for the training: " +          // how long the bounded queue held up reading
+                               loader.stallNanos() / 1000000 + " milliseconds");
+         }
+         System.out.println("Test sets: " + seen);                           // the number of test sets found in the file
+         System.out.println("Maximum error value: " + worst);                // the largest error value of all test sets
+
+         for (int n = 0; n < numTotalLayers; n++)                            // prints out the dimensions of the Perceptron
+            System.out.println("There are " + numNodes[n] +
+                               " activations in layer " + (n + 1));
+         return;
+      } // if (streaming)
 
       for (int test = 0; test < numTests; test++)                            // iterates over all sets
       {
@@ -413,7 +1990,6 @@ public class Perceptron
                                " activations in layer " + (n + 1));
       } // for (int test = 0; test < numTests; test++)
 
-      writeW.close();                                                        // closes the file with the trained weights
       //writeO.close();
    } // public void gradient(int iterations, String file, int numTests, double threshold,
      // double lambda, double low, double high, String input) throws IOException
@@ -443,9 +2019,10 @@ public class Perceptron
    /**
     * Starts the testing of the Perceptron by first initializing instance variable
     * array a with setA method and instance variable array w with setWeights method,
-    * reads input values and T values from a file named inputs.txt using a BufferedReader,
-    * fills the array a with correctly computed values by using the output method, and
-    * prints out the calculated error value.
+    * reads input values and T values from a file named inputs.txt with a SampleReader, RUN_BATCH
+    * test sets at a time, computes their outputs with the outputBatch method, and prints them out
+    * with the calculated error values. The input file may also be a binary file of
+    * test sets, see SampleFile, which is read without parsing any text.
     *
     * @param input   the file name that user puts his or her input values in
     * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
@@ -455,73 +2032,151 @@ public class Perceptron
       setA();                                                       // initializes instance variable array a
       setWeights();                                                 // initializes instance variable array w
 
-      BufferedReader readI = new BufferedReader
-                             (new FileReader(input));               // creates a BufferedReader to read inputs from inputs.txt
-
-      String curr = readI.readLine();                               // reads the first line in inputs.txt: inputs and respective T values
-
       int lastLayer = numTotalLayers - 1;                           // index of the last layer
       int numOutputs = numNodes[lastLayer];                         // the number of output nodes
       int numInputs = numNodes[0];                                  // the number of input nodes
 
-      String[] line = new String[numInputs + numOutputs];           // creates an empty array of Strings to hold the input values and T value
+      SampleReader reader = SampleReader.open(input, numInputs, numOutputs);  // reads inputs and T values one batch at a time
+      double[][] inputs = new double[RUN_BATCH][numInputs];         // the input values of the current batch
+      double[][] tValue = new double[RUN_BATCH][numOutputs];        // the number of T values should equal to the number of output nodes
+      double[][] outputs = new double[RUN_BATCH][numOutputs];       // the output values of the current batch
+      Tile tile = new Tile(numNodes, singlePrecision);              // the activations of the hidden layers of one tile
+      int count;
+
+      do                                                            // runs every batch of test sets until the file ends
+      {
+         count = readChunk(reader, inputs, tValue);
+         outputBatch(inputs, outputs, count, tile);
+
+         for (int test = 0; test < count; test++)
+            printResult(tValue[test], outputs[test]);
+      }
+      while (count == RUN_BATCH);
+
+      reader.close();
+   } // public void run(String input) throws IOException
+
+   /**
+    * Prints the T values next to the output nodes, then the error value, for one test set.
+    *
+    * @param tValue    the truth values of the test set
+    * @param outputs   the values of the output nodes for the test set
+    */
+   private void printResult(double[] tValue, double[] outputs)
+   {
+      int lastLayer = numTotalLayers - 1;                           // index of the last layer
 
-      while (curr != null)                                          // iterates over every line in inputs.txt until it hits EOF
+      for (int i = 0; i < numNodes[lastLayer]; i++)                 // iterates over every output node to print out each value
       {
-         line = curr.split(" ");                                    // split method puts each String separated by white spaces into an array
+         System.out.print("T value: " + tValue[i] + " ");
+         System.out.println("a[" + lastLayer + "][" + i + "]: "
+                            + outputs[i]);
+      }
+      System.out.println("Error value: " + calcError(tValue, outputs));  // prints the calculated error value using the calcError method
+      System.out.println();                                         // the next set of inputs and results will start printing on a new line
+   }
 
-         for (int k = 0; k < numInputs; k++)                        // iterates over the number of input nodes to initialize inputNodes
-            inputNodes[k] = Double.parseDouble(line[k]);            // fills instance variable array inputNodes with the input values
+   /**
+    * Reads the dimensions of a Perceptron from a file formatted like dimensions.txt: the number of
+    * input nodes, the number of hidden layers, the number of nodes in each hidden layer, and the
+    * number of output nodes, one on each line.
+    *
+    * @param file           the name of the dimensions file
+    * @return               the number of nodes in every layer, from the input layer to the output layer
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   public static int[] readDimensions(String file) throws IOException
+   {
+      BufferedReader br = new BufferedReader
+                          (new FileReader(file));                          // creates a BufferedReader to read dimensions from the file
 
-         double[] tValue = new double[numOutputs];                  // the number of T values should equal to the number of output nodes
-         for (int i = 0; i < numOutputs; i++)
-            tValue[i] = Double.parseDouble(line[numInputs + i]);    // T values should be everything in the line after the input values
+      int inputNodes = Integer.parseInt(br.readLine());                    // first line in the file is number of nodes in input layer
+      int hiddenLayer = Integer.parseInt(br.readLine());                   // second line if the file is number of hidden layers
 
-         output();                                                  // calls the output method to fill array a now that inputNodes is filled
+      int[] layers = new int[hiddenLayer + 2];                             // adds the input and output layers to the hidden layers
+      layers[0] = inputNodes;
+      for (int n = 1; n < hiddenLayer + 1; n++)                            // iterates over every hidden layer there is
+         layers[n] = Integer.parseInt(br.readLine());                      // following lines in the file are number of nodes in each hidden layer
 
-         for (int i = 0; i < numOutputs; i++)                       // iterates over every output node to print out each value
-         {
-            System.out.print("T value: " + tValue[i] + " ");
-            System.out.println("a[" + lastLayer + "][" + i + "]: "
-                               + a[lastLayer][i]);
-         }
-         System.out.println("Error value: " + calcError(tValue));   // prints the calculated error value using the calcError method
+      layers[hiddenLayer + 1] = Integer.parseInt(br.readLine());           // last line in the file is the number of nodes in the output layer
 
-         curr = readI.readLine();                                   // reads the next line in inputs.txt
-         System.out.println();                                      // the next set of inputs and results will start printing on a new line
-      } // while (curr != null)
+      br.close();
+      return layers;
+   } // public static int[] readDimensions(String file) throws IOException
 
-   } // public void run(String input) throws IOException
+   /**
+    * Reads the next line of a hyperparameter file that may end before it.
+    *
+    * @param reader         the reader of the hyperparameter file
+    * @return               the trimmed line, or null if the file has ended or the line is blank
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   private static String optionalLine(BufferedReader reader) throws IOException
+   {
+      String line = reader.readLine();
+      if (line == null || line.trim().isEmpty())
+         return null;
+      return line.trim();
+   }
 
    /**
     * Reads the dimensions of the Perceptron with a BufferedReader and a file called dimensions.txt,
     * uses those information to create a Perceptron object, asks user input from the Console to
-    * either run or train the Perceptron and do it accordingly.
+    * either run or train the Perceptron and do it accordingly. Running reads the weights from
+    * weights.txt, or from the file named by the first command line argument, text or binary, in
+    * single precision if the second argument is "float".
     *
     * To train, the user need to put all their relevant training hyperparameters in a file
     * organized as follows (one on each line): the maximum number of iterations, the file name
-    * to store the weights in it after training, the number of given test cases, the target
-    * error threshold, the learning factor, the lower limit for weights randomization,
-    * and the upper limit for weights randomization.
+    * to store the weights in it after training, the number of given test cases (0 or "all" to use
+    * every test set in the file), the target error threshold, the learning factor, the lower limit
+    * for weights randomization, and the upper limit for weights randomization. Optional lines may follow, in this order:
+    * the batch size, the number of test sets whose weight changes are applied together (1 if the
+    * line is missing, 0 or "all" for full batch); the number of threads sharing every batch
+    * (1 if missing); the seed for randomizing the weights (a different one every run if missing);
+    * the error check interval, see setErrorCheck (0 if missing); the chunk size for streaming
+    * the input file, see setChunkSize (0, everything in memory, if missing); and the size of the
+    * shuffle buffer used while streaming, see setShuffle (0 if missing); and "float" to train in
+    * single precision, see setFloat ("double" if missing); and the number of augmented copies of every
+    * test set trained on in each iteration, see setAugment (0 if missing); the number of chunks read
+    * ahead by a loader thread while streaming, see setPrefetch (0 if missing); and the number of
+    * threads parsing a streamed text file, see setParsers (1 if missing); and the number of iterations
+    * and the number of seconds between checkpoints, see setCheckpoint (0, none, if missing); and the
+    * name of a file to write a record of every iteration into, see setTelemetry (none if missing); and
+    * the file of held out validation test sets or the percentage of the input file held out, the
+    * iterations between validations and the patience, see setValidation (no validation, 1 and 0 if missing);
+    * and the update rule of the weights with its hyperparameters, see setOptimizer ("sgd" if missing);
+    * and "fast" to train with the fast sigmoid, see setFastSigmoid ("exact" if missing).
     *
-    * @param args           specify the program to be tested
+    * Training goes on from the checkpoint of its weights file, see setResume, if the arguments
+    * start with "-resume"; the other arguments follow it. Running uses the fast sigmoid if the
+    * third argument is "fast".
+    *
+    * @param args           optionally "-resume", then the name of the weights file used for running, then "float",
+    *                       then "fast"
     * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
     */
    public static void main(String[] args) throws IOException
    {
-      BufferedReader br = new BufferedReader
-                          (new FileReader("dimensions.txt"));              // creates a BufferedReader to read dimensions from dimensions.txt
+      int[] layers = readDimensions("dimensions.txt");                     // the number of nodes in every layer, input layer first
 
-      int inputNodes = Integer.parseInt(br.readLine());                    // first line in the file is number of nodes in input layer
-
-      int hiddenLayer = Integer.parseInt(br.readLine());                   // second line if the file is number of hidden layers
-      int[] hiddenNode = new int[hiddenLayer];                             // creates a 1D array with the size as the number of hidden layers
-      for (int n = 1; n < hiddenLayer + 1; n++)                            // iterates over every hidden layer there is
-         hiddenNode[n - 1] = Integer.parseInt(br.readLine());              // following lines in the file are number of nodes in each hidden layer
+      int[] hiddenNode = new int[layers.length - 2];                       // creates a 1D array with the size as the number of hidden layers
+      for (int n = 1; n < layers.length - 1; n++)                          // iterates over every hidden layer there is
+         hiddenNode[n - 1] = layers[n];
 
-      int outputN = Integer.parseInt(br.readLine());                       // last line in the file is the number of nodes in the output layer
-
-      Perceptron test = new Perceptron(inputNodes, hiddenNode, outputN);   // creates a Perceptron object
+      Perceptron test = new Perceptron(layers[0], hiddenNode,
+                                       layers[layers.length - 1]);         // creates a Perceptron object
+      if (args.length > 0 && args[0].equalsIgnoreCase("-resume"))
+      {
+         test.setResume(true);                                             // training goes on from the checkpoint
+         args = Arrays.copyOfRange(args, 1, args.length);
+      }
+      if (args.length > 0)
+         test.setWeightsFile(args[0]);                                     // the first argument names the weights file for running
+      if (args.length > 1)
+         test.setFloat(args[1].equalsIgnoreCase("float"));                 // the second argument may ask to run in single precision
+      if (args.length > 2)
+         test.setFastSigmoid(args[2].equalsIgnoreCase("fast"));            // the third argument may ask to run with the fast sigmoid
 
       Scanner sc = new Scanner(System.in);                                 // creates a Scanner to take input directly from the console
       System.out.print("File name that has your input values: ");
@@ -535,17 +2190,90 @@ public class Perceptron
       {
          System.out.print("Please provide the name of the file that " +    // asks for the file user has with all training hyperparameters
                           "contains your hyperparameters: ");
+         String hyperparameters = sc.next();                               // the name of the file, for naming its lines in errors
          BufferedReader tr = new BufferedReader
-                             (new FileReader(sc.next()));                  // creates a BufferedReader to read user's given file for training
+                             (new FileReader(hyperparameters));            // creates a BufferedReader to read user's given file for training
 
          int iterations = Integer.parseInt(tr.readLine());                 // first line in the file is the number of iterations allowed
          String file = tr.readLine();                                      // second line in the file is the file name to store weights in
-         int tests = Integer.parseInt(tr.readLine());                      // third line in the file is the number of test cases provided
+         String count = tr.readLine().trim();                              // third line in the file is the number of test cases provided
+         int tests = count.equalsIgnoreCase("all") ? 0 : Integer.parseInt(count);
          double error = Double.parseDouble(tr.readLine());                 // fourth line in the file is the target error threshold
          double lambda = Double.parseDouble(tr.readLine());                // fifth line in the file is the learning factor
          double low = Double.parseDouble(tr.readLine());                   // sixth line in the file is the lower limit for randomization of w
          double high = Double.parseDouble(tr.readLine());                  // seventh line in the file is the upper limit for randomization of w
 
+         String batch = optionalLine(tr);                                  // optional eighth line in the file is the batch size
+         if (batch != null)
+            test.setBatchSize(batch.equalsIgnoreCase("all") ? 0 : Integer.parseInt(batch));
+         String threads = optionalLine(tr);                                // optional ninth line in the file is the number of threads
+         if (threads != null)
+            test.setThreads(Integer.parseInt(threads));
+         String seed = optionalLine(tr);                                   // optional tenth line in the file is the random seed
+         if (seed != null)
+            test.setSeed(Long.parseLong(seed));
+         String check = optionalLine(tr);                                  // optional eleventh line is the error check interval
+         if (check != null)
+            test.setErrorCheck(Integer.parseInt(check));
+         String chunk = optionalLine(tr);                                  // optional twelfth line is the chunk size for streaming
+         if (chunk != null)
+            test.setChunkSize(Integer.parseInt(chunk));
+         String shuffle = optionalLine(tr);                                // optional thirteenth line is the shuffle buffer size
+         if (shuffle != null)
+            test.setShuffle(Integer.parseInt(shuffle));
+         String precision = optionalLine(tr);                              // optional fourteenth line is "float" or "double"
+         if (precision != null)
+            test.setFloat(precision.equalsIgnoreCase("float"));
+         String augment = optionalLine(tr);                                // optional fifteenth line is the number of augmented copies
+         if (augment != null)
+            test.setAugment(Integer.parseInt(augment));
+         String ahead = optionalLine(tr);                                  // optional sixteenth line is the number of chunks read ahead
+         if (ahead != null)
+            test.setPrefetch(Integer.parseInt(ahead));
+         String parse = optionalLine(tr);                                  // optional seventeenth line is the number of parser threads
+         if (parse != null)
+            test.setParsers(Integer.parseInt(parse));
+         String everyIterations = optionalLine(tr);                        // optional eighteenth line is the iterations between checkpoints
+         String everySeconds = optionalLine(tr);                           // optional nineteenth line is the seconds between checkpoints
+         if (everyIterations != null || everySeconds != null)
+            test.setCheckpoint((everyIterations == null) ? 0 : Integer.parseInt(everyIterations),
+                               (everySeconds == null) ? 0 : Integer.parseInt(everySeconds));
+         String records = optionalLine(tr);                                // optional twentieth line is the telemetry file
+         if (records != null)
+            test.setTelemetry(records);
+         String validation = optionalLine(tr);                             // optional twenty-first line is the validation file or percentage
+         String every = optionalLine(tr);                                  // optional twenty-second line is the iterations between validations
+         String wait = optionalLine(tr);                                   // optional twenty-third line is the patience
+         if (validation != null)
+            test.setValidation(validation, (every == null) ? 1 : Integer.parseInt(every),
+                               (wait == null) ? 0 : Integer.parseInt(wait));
+         String rule = optionalLine(tr);                                   // optional twenty-fourth line is the optimizer
+         if (rule != null)
+         {
+            try
+            {
+               test.setOptimizer(rule);
+            }
+            catch (IllegalArgumentException e)                             // names the line at fault
+            {
+               throw new IllegalArgumentException(hyperparameters + " line 24: " + e.getMessage(), e);
+            }
+         }
+         if (test.optimizer != null)                                       // the rule needs a learning factor above 0
+         {
+            try
+            {
+               test.optimizer.checkLambda(lambda);
+            }
+            catch (IllegalArgumentException e)
+            {
+               throw new IllegalArgumentException(hyperparameters + " line 5: " + e.getMessage(), e);
+            }
+         }
+         String sigmoid = optionalLine(tr);                                // optional twenty-fifth line is "fast" or "exact"
+         if (sigmoid != null)
+            test.setFastSigmoid(sigmoid.equalsIgnoreCase("fast"));
+
          long startTime = System.currentTimeMillis();                             // records the start time of training
          test.train(iterations, file, tests, error, lambda, low, high, input);    // trains the Perceptron by calling the train method
          long endTime = System.currentTimeMillis();                               // records the end time of training
@@ -554,3 +2282,50 @@ public class Perceptron
       }
    } // public static void main(String[] args) throws IOException
 } // public class Perceptron
+
+/*
+ * A member-variable-only class for holding the arrays a thread needs to run test sets through a
+ * Perceptron: the activations, psi and omega of every layer, and deltaW, the weight changes
+ * accumulated over a batch, laid out like the weights of the Perceptron. In single precision
+ * only the float arrays, ending in 32, are used and allocated.
+ */
+final class Workspace
+{
+   double[][] a;
+   double[][] psi;
+   double[][] omega;
+   double[][] deltaW;
+   float[][] a32;
+   float[][] psi32;
+   float[][] omega32;
+   float[][] deltaW32;
+
+   Workspace(int[] numNodes, boolean single)
+   {
+      if (single)
+      {
+         a32 = new float[numNodes.length][];
+         psi32 = new float[numNodes.length][];
+         omega32 = new float[numNodes.length][];
+
+         for (int n = 0; n < numNodes.length; n++)
+         {
+            a32[n] = new float[numNodes[n]];
+            psi32[n] = new float[numNodes[n]];
+            omega32[n] = new float[numNodes[n]];
+         }
+         return;
+      } // if (single)
+
+      a = new double[numNodes.length][];
+      psi = new double[numNodes.length][];
+      omega = new double[numNodes.length][];
+
+      for (int n = 0; n < numNodes.length; n++)   // every array has one entry per node in each layer
+      {
+         a[n] = new double[numNodes[n]];
+         psi[n] = new double[numNodes[n]];
+         omega[n] = new double[numNodes[n]];
+      }
+   } // Workspace(int[] numNodes, boolean single)
+} // final class Workspace
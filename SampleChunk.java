@@ -0,0 +1,20 @@
+/*
+ * A member-variable-only class for holding one chunk of test sets handed out by SampleLoader: the
+ * input and T values of count test sets, whether it ends a pass and how many test sets that pass had,
+ * or the failure that stopped the loader thread.
+ */
+final class SampleChunk
+{
+   double[][] inputs;
+   double[][] t;
+   int count;
+   boolean last;
+   long passCount;
+   Throwable failure;
+
+   SampleChunk(int size, int numInputs, int numOutputs)
+   {
+      inputs = new double[size][numInputs];
+      t = new double[size][numOutputs];
+   }
+}
@@ -0,0 +1,380 @@
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A preprocessed, binary file of test sets, read through memory mapped windows so that the
+ * trainer and the runner do not parse any text and the file may be larger than the heap.
+ *
+ * The format is little endian and laid out as follows:
+ *    int       MAGIC, the bytes "NNSD"
+ *    int       VERSION
+ *    int       the number of bytes per value, 8 for doubles or 4 for floats
+ *    int       the number of input values in each test set
+ *    int       the number of T values in each test set
+ *    long      the number of test sets
+ *    rows      one fixed width row per test set, its input values followed by its T values
+ *
+ * A SampleFile object keeps one window of the file mapped at a time and is not meant to be
+ * shared between threads; open one per thread instead.
+ *
+ * isBinary     - checks whether a file starts with the magic number of the binary format
+ * open         - opens a binary file of test sets for reading
+ * numInputs    - returns the number of input values in each test set
+ * numOutputs   - returns the number of T values in each test set
+ * size         - returns the number of test sets in the file
+ * read         - copies the input and T values of one test set into the given arrays
+ * close        - closes the file
+ * convert      - converts a text file of test sets into the binary format
+ * writeHeader  - writes the header of a binary file once its rows are written
+ * main         - converts a text file of test sets given on the command line
+ */
+public class SampleFile
+{
+   public static final int MAGIC = 0x44534E4E;      // the bytes 'N', 'N', 'S', 'D' read as a little endian int
+   public static final int VERSION = 1;             // the version of the format written by this class
+   public static final int HEADER_SIZE = 5 * Integer.BYTES + Long.BYTES;
+   private static final long WINDOW_BYTES = 1L << 26;  // the most bytes of rows mapped at one time
+
+   private FileChannel channel;                     // the open file
+   private int bytes;                               // the number of bytes per value
+   private int numInputs;                           // the number of input values in each test set
+   private int numOutputs;                          // the number of T values in each test set
+   private long numSamples;                         // the number of test sets in the file
+   private long rowBytes;                           // the number of bytes in one row
+   private long rowsPerWindow;                      // the number of rows that fit in one window
+   private long windowStart = -1;                   // the index of the first row in the mapped window, -1 if none is
+   private long windowRows;                         // the number of rows in the mapped window
+   private DoubleBuffer doubles;                    // the mapped window seen as doubles, when bytes is 8
+   private FloatBuffer floats;                      // the mapped window seen as floats, when bytes is 4
+
+   /**
+    * Constructs a SampleFile for the given open channel; use open to create one.
+    *
+    * @param channel   the channel of a file whose header has not been read yet
+    */
+   private SampleFile(FileChannel channel)
+   {
+      this.channel = channel;
+   }
+
+   /**
+    * Checks whether the given file starts with the magic number of the binary format.
+    *
+    * @param file           the name of the file of test sets
+    * @return               true if the file is a binary file of test sets, false otherwise
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   public static boolean isBinary(String file) throws IOException
+   {
+      DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+      try
+      {
+         return Integer.reverseBytes(in.readInt()) == MAGIC;   // DataInputStream is big endian, the file is not
+      }
+      catch (EOFException e)
+      {
+         return false;                                         // shorter than a magic number, so not binary
+      }
+      finally
+      {
+         in.close();
+      }
+   } // public static boolean isBinary(String file) throws IOException
+
+   /**
+    * Opens a binary file of test sets and reads its header.
+    *
+    * @param file           the name of the file of test sets
+    * @return               the opened SampleFile
+    * @throws IOException   thrown if the file cannot be read or is not a valid file of test sets
+    */
+   public static SampleFile open(String file) throws IOException
+   {
+      SampleFile samples = new SampleFile(FileChannel.open(Paths.get(file), StandardOpenOption.READ));
+
+      try
+      {
+         samples.readHeader(file);
+      }
+      catch (IOException e)
+      {
+         samples.close();
+         throw e;
+      }
+      return samples;
+   } // public static SampleFile open(String file) throws IOException
+
+   /**
+    * Reads and checks the header of the file.
+    *
+    * @param file           the name of the file, for error messages
+    * @throws IOException   thrown if the file cannot be read or is not a valid file of test sets
+    */
+   private void readHeader(String file) throws IOException
+   {
+      if (channel.size() < HEADER_SIZE)
+         throw new IOException(file + " is too short to be a file of test sets");
+
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getInt() != MAGIC)
+         throw new IOException(file + " is not a binary file of test sets");
+      int version = header.getInt();
+      if (version != VERSION)
+         throw new IOException(file + " has unsupported version " + version);
+      bytes = header.getInt();
+      if (bytes != Double.BYTES && bytes != Float.BYTES)
+         throw new IOException(file + " has unsupported value size " + bytes);
+      numInputs = header.getInt();
+      numOutputs = header.getInt();
+      numSamples = header.getLong();
+
+      rowBytes = (long) (numInputs + numOutputs) * bytes;
+      if (numInputs < 1 || numOutputs < 1 || numSamples < 0 || HEADER_SIZE + rowBytes * numSamples > channel.size())
+         throw new IOException(file + " does not hold the " + numSamples + " test sets its header lists");
+      rowsPerWindow = Math.max(1, WINDOW_BYTES / rowBytes);
+   } // private void readHeader(String file) throws IOException
+
+   /**
+    * Returns the number of input values in each test set.
+    *
+    * @return   the number of input values
+    */
+   public int numInputs()
+   {
+      return numInputs;
+   }
+
+   /**
+    * Returns the number of T values in each test set.
+    *
+    * @return   the number of T values
+    */
+   public int numOutputs()
+   {
+      return numOutputs;
+   }
+
+   /**
+    * Returns the number of test sets in the file.
+    *
+    * @return   the number of test sets
+    */
+   public long size()
+   {
+      return numSamples;
+   }
+
+   /**
+    * Copies the input values and T values of the test set with the given index into the given
+    * arrays, mapping a new window of the file first if the row is not in the current one.
+    * Nothing is allocated unless a new window has to be mapped.
+    *
+    * @param index          the index of the test set, from 0 to size() - 1
+    * @param inputs         filled with the input values, at least numInputs() long
+    * @param tValue         filled with the T values, at least numOutputs() long
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   public void read(long index, double[] inputs, double[] tValue) throws IOException
+   {
+      if (index < 0 || index >= numSamples)
+         throw new IndexOutOfBoundsException("Test set " + index + " of " + numSamples);
+
+      if (index < windowStart || index >= windowStart + windowRows)        // the row is outside the mapped window
+         map(index);
+
+      int offset = (int) ((index - windowStart) * (numInputs + numOutputs)); // the position of the row in the window, in values
+
+      if (bytes == Double.BYTES)
+      {
+         doubles.get(offset, inputs, 0, numInputs);
+         doubles.get(offset + numInputs, tValue, 0, numOutputs);
+      }
+      else
+      {
+         for (int k = 0; k < numInputs; k++)
+            inputs[k] = floats.get(offset + k);
+         for (int i = 0; i < numOutputs; i++)
+            tValue[i] = floats.get(offset + numInputs + i);
+      }
+   } // public void read(long index, double[] inputs, double[] tValue) throws IOException
+
+   /**
+    * Maps the window of rows starting at the given row.
+    *
+    * @param first          the index of the first row of the new window
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to map
+    */
+   private void map(long first) throws IOException
+   {
+      windowStart = first;
+      windowRows = Math.min(rowsPerWindow, numSamples - first);
+
+      MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * rowBytes,
+                                            windowRows * rowBytes);
+      window.order(ByteOrder.LITTLE_ENDIAN);
+
+      if (bytes == Double.BYTES)
+         doubles = window.asDoubleBuffer();
+      else
+         floats = window.asFloatBuffer();
+   } // private void map(long first) throws IOException
+
+   /**
+    * Closes the file. The mapped window is released once it is garbage collected.
+    *
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to close
+    */
+   public void close() throws IOException
+   {
+      channel.close();
+      doubles = null;
+      floats = null;
+      windowStart = -1;
+      windowRows = 0;
+   }
+
+   /**
+    * Converts a text file of test sets, each on one line with its input values followed by its
+    * T values separated by white spaces, into the binary format. The text file is read one line
+    * at a time and the number of test sets is counted while converting, so the files may be of any size.
+    *
+    * @param textFile       the name of the existing text file
+    * @param binaryFile     the name of the binary file to create
+    * @param numInputs      the number of input values in each test set
+    * @param numOutputs     the number of T values in each test set
+    * @param bytes          the number of bytes per value, Double.BYTES or Float.BYTES
+    * @return               the number of test sets converted
+    * @throws IOException   thrown if a file cannot be read or written, or a line has the wrong number of values
+    */
+   public static long convert(String textFile, String binaryFile, int numInputs, int numOutputs, int bytes)
+      throws IOException
+   {
+      if (bytes != Double.BYTES && bytes != Float.BYTES)
+         throw new IllegalArgumentException("Values are either 8 or 4 bytes, not " + bytes);
+
+      BufferedReader reader = new BufferedReader(new FileReader(textFile), 1 << 16);
+      FileChannel out = FileChannel.open(Paths.get(binaryFile), StandardOpenOption.CREATE,
+                                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+      try
+      {
+         int width = numInputs + numOutputs;                                 // the number of values in each row
+         ByteBuffer block = ByteBuffer.allocateDirect((int) Math.max(1 << 16, (long) width * bytes))
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+         long position = HEADER_SIZE;                                        // the header is written once the rows are counted
+         long rows = 0;
+
+         String line = reader.readLine();
+         while (line != null)
+         {
+            line = line.trim();
+            if (!line.isEmpty())                                             // blank lines, such as a last empty one, are skipped
+            {
+               String[] values = line.split("\\s+");
+               if (values.length < width)
+                  throw new IOException(textFile + " line " + (rows + 1) + " has " + values.length +
+                                        " values, expected " + width);
+
+               if (block.remaining() < width * bytes)                        // the block is full, writes it out
+               {
+                  block.flip();
+                  position += writeFully(out, block, position);
+                  block.clear();
+               }
+
+               for (int v = 0; v < width; v++)
+               {
+                  if (bytes == Double.BYTES)
+                     block.putDouble(Double.parseDouble(values[v]));
+                  else
+                     block.putFloat(Float.parseFloat(values[v]));
+               }
+               rows++;
+            } // if (!line.isEmpty())
+            line = reader.readLine();
+         } // while (line != null)
+
+         block.flip();
+         writeFully(out, block, position);
+
+         writeHeader(out, bytes, numInputs, numOutputs, rows);
+         return rows;
+      } // try
+      finally
+      {
+         reader.close();
+         out.close();
+      }
+   } // public static long convert(String textFile, String binaryFile, int numInputs, int numOutputs, int bytes)
+
+   /**
+    * Writes the header at the start of a binary file, once its rows are written and counted.
+    *
+    * @param channel        the channel of the file being written
+    * @param bytes          the number of bytes per value, Double.BYTES or Float.BYTES
+    * @param numInputs      the number of input values in each test set
+    * @param numOutputs     the number of T values in each test set
+    * @param rows           the number of test sets written
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   static void writeHeader(FileChannel channel, int bytes, int numInputs, int numOutputs, long rows) throws IOException
+   {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(bytes).putInt(numInputs).putInt(numOutputs).putLong(rows);
+      header.flip();
+      writeFully(channel, header, 0);
+   }
+
+   /**
+    * Writes all remaining bytes of the buffer at the given position of the channel.
+    *
+    * @param channel        the channel of the file being written
+    * @param buffer         the bytes to write
+    * @param position       the position in the file to write at
+    * @return               the number of bytes written
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+   {
+      int size = buffer.remaining();
+      while (buffer.hasRemaining())
+         position += channel.write(buffer, position);
+      return size;
+   }
+
+   /**
+    * Converts a text file of test sets into the binary format, using the number of input and
+    * output nodes given in dimensions.txt. Takes the name of the text file, the name of the binary
+    * file to create, and optionally "float" to store the values as floats.
+    *
+    * @param args           the text file, the binary file and optionally "float"
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read or write
+    */
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length < 2)
+      {
+         System.out.println("Usage: java SampleFile <text test sets> <binary test sets> [float]");
+         return;
+      }
+
+      int[] numNodes = Perceptron.readDimensions("dimensions.txt");          // the sizes of the input and output layers
+      int bytes = (args.length > 2 && args[2].equalsIgnoreCase("float")) ? Float.BYTES : Double.BYTES;
+
+      long rows = convert(args[0], args[1], numNodes[0], numNodes[numNodes.length - 1], bytes);
+      System.out.println("Converted " + rows + " test sets from " + args[0] + " into " + args[1]);
+   } // public static void main(String[] args) throws IOException
+} // public class SampleFile
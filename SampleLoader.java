@@ -0,0 +1,306 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands out the test sets of a SampleReader one chunk at a time, pass after pass, for training that
+ * streams its input file. Every pass starts the reader over from the beginning of the file and ends
+ * with a chunk that is not full, possibly empty.
+ *
+ * With a prefetch of 0 every chunk is read on the thread asking for it. With a prefetch of N a
+ * loader thread reads ahead, up to N chunks besides the one being trained on, so reading the file
+ * and parsing it (see SampleReader.setParsers) overlap with the training. The chunks come from a
+ * fixed set of N + 2 buffers: once every buffer is full or in use the loader thread waits for the
+ * training to give one back (back-pressure), so the memory used stays bounded however fast the file
+ * is read. The loader thread runs on into the next pass as soon as one ends, since every pass reads
+ * the same file the same way; the test sets, their order and the draws of the shuffle buffer are the
+ * same with and without a loader thread.
+ *
+ * How long the training waited for chunks and how long the loader thread waited for buffers are
+ * counted: the first is time the training was held up by reading, the second time the reading was
+ * held up by the training.
+ *
+ * The state of the random number generator the reader shuffles with is kept as every pass starts, so
+ * a checkpoint taken between two passes can save the state the next pass starts from, even though
+ * the loader thread may have drawn from the generator for it already.
+ *
+ * SampleLoader - constructs a loader handing out chunks of the given size
+ * next         - returns the next chunk of test sets
+ * release      - gives a chunk back to be filled again
+ * passCount    - returns the number of test sets of the last pass handed out in full
+ * randomState  - returns the state of the random number generator as the next pass handed out starts
+ * waitNanos    - returns how long next has waited for chunks
+ * stallNanos   - returns how long the loader thread has waited for free buffers
+ * close        - stops the loader thread
+ */
+public class SampleLoader
+{
+   private SampleReader reader;                     // the test sets, only used by the loader thread if there is one
+   private Random random;                           // the random number generator the reader shuffles with
+   private Map<Long, byte[]> passStates;            // its state as every pass read ahead started, by pass, locked on itself
+   private long passesStarted;                      // the number of passes the loader thread has started
+   private long passesHanded;                       // the number of passes whose last chunk next has handed out
+   private BlockingQueue<SampleChunk> free;         // the buffers waiting to be filled
+   private BlockingQueue<SampleChunk> ready;        // the filled chunks waiting to be handed out, in order
+   private SampleChunk only;                        // the one buffer used without a loader thread
+   private boolean passStarted;                     // whether the pass read without a loader thread has started
+   private Thread loader;                           // reads the chunks ahead, null if the prefetch is 0
+   private volatile boolean closed;                 // tells the loader thread to stop
+   private long passCount;                          // the number of test sets in the last pass handed out in full
+   private long waited;                             // the nanoseconds next has waited for a chunk
+   private volatile long stalled;                   // the nanoseconds the loader thread has waited for a free buffer
+
+   /**
+    * Constructs a loader handing out the test sets of a reader in chunks of the given size, and
+    * starts its loader thread if the prefetch is above 0. The reader must not be used by anything
+    * else until the loader is closed.
+    *
+    * @param reader       the reader of the test sets, positioned anywhere
+    * @param random       the random number generator the reader shuffles with
+    * @param size         the number of test sets in a full chunk
+    * @param prefetch     the number of chunks read ahead of the one being trained on, 0 for none
+    * @param numInputs    the number of input values in each test set
+    * @param numOutputs   the number of T values in each test set
+    */
+   public SampleLoader(SampleReader reader, Random random, int size, int prefetch, int numInputs, int numOutputs)
+   {
+      if (prefetch < 0)
+         throw new IllegalArgumentException("Prefetch cannot be negative: " + prefetch);
+
+      this.reader = reader;
+      this.random = random;
+      if (prefetch == 0)
+      {
+         only = new SampleChunk(size, numInputs, numOutputs);
+         return;
+      }
+
+      passStates = new HashMap<Long, byte[]>();
+      free = new ArrayBlockingQueue<SampleChunk>(prefetch + 2);
+      ready = new ArrayBlockingQueue<SampleChunk>(prefetch + 3);           // room for every buffer and a failure
+      for (int b = 0; b < prefetch + 2; b++)                                 // one being filled, N ready and one trained on
+         free.add(new SampleChunk(size, numInputs, numOutputs));
+
+      loader = new Thread(this::load, "sample-loader");
+      loader.setDaemon(true);                                                // never keeps the program alive
+      loader.start();
+   } // public SampleLoader(SampleReader reader, Random random, int size, int prefetch, int numInputs, int numOutputs)
+
+   /**
+    * Reads pass after pass into free buffers until closed, handing every chunk, or the failure that
+    * ended the reading, to the training through the ready queue. Anything thrown is handed over, an
+    * Error included, since a loader thread that just ended would leave next waiting for ever.
+    */
+   private void load()
+   {
+      try
+      {
+         while (!closed)
+         {
+            synchronized (passStates)                                        // before the pass draws from the generator
+            {
+               passStates.put(passesStarted++, Checkpoint.saveRandom(random));
+            }
+            reader.reset();
+            boolean last;
+            do
+            {
+               long start = System.nanoTime();
+               SampleChunk chunk = free.take();                              // waits for the training to give one back
+               stalled += System.nanoTime() - start;
+
+               try
+               {
+                  fill(chunk);
+               }
+               catch (Throwable e)                                           // handed to the training, which stops
+               {
+                  chunk.failure = e;
+                  chunk.last = true;
+               }
+               last = chunk.last;
+               ready.put(chunk);
+               if (chunk.failure != null)
+                  return;
+            }
+            while (!last);
+         } // while (!closed)
+      } // try
+      catch (Throwable e)                                                    // closed, or reset failed, or an Error
+      {
+         if (!closed)
+         {
+            SampleChunk failed = new SampleChunk(0, 0, 0);
+            failed.failure = e;
+            failed.last = true;
+            ready.offer(failed);
+         }
+      }
+   } // private void load()
+
+   /**
+    * Fills a chunk with the next test sets of the reader, as many as it holds.
+    *
+    * @param chunk          the chunk to fill
+    * @throws IOException   thrown if the file cannot be read
+    */
+   private void fill(SampleChunk chunk) throws IOException
+   {
+      chunk.count = 0;
+      chunk.failure = null;
+      while (chunk.count < chunk.inputs.length && reader.next(chunk.inputs[chunk.count], chunk.t[chunk.count]))
+         chunk.count++;
+
+      chunk.last = chunk.count < chunk.inputs.length;
+      chunk.passCount = reader.count();
+   }
+
+   /**
+    * Returns the next chunk of test sets, waiting for the loader thread if none is ready. After the
+    * last chunk of a pass, the next chunk is the first of a new pass. The chunk is the caller's until
+    * it is given back with release.
+    *
+    * @return               the chunk
+    * @throws IOException   thrown if the file cannot be read, or if interrupted while waiting; an Error or a
+    *                       RuntimeException that stopped the loader thread is thrown again as it is
+    */
+   public SampleChunk next() throws IOException
+   {
+      SampleChunk chunk;
+      if (loader == null)
+      {
+         if (!passStarted)
+            reader.reset();
+         fill(only);
+         passStarted = !only.last;
+         chunk = only;
+      }
+      else
+      {
+         long start = System.nanoTime();
+         try
+         {
+            chunk = ready.take();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for test sets");
+         }
+         waited += System.nanoTime() - start;
+
+         if (chunk.failure instanceof IOException)
+            throw (IOException) chunk.failure;
+         if (chunk.failure instanceof RuntimeException)
+            throw (RuntimeException) chunk.failure;
+         if (chunk.failure instanceof Error)                                 // such as OutOfMemoryError on the loader thread
+            throw (Error) chunk.failure;
+         if (chunk.failure != null)                                          // the loader thread was interrupted
+            throw new IOException("The loader thread stopped", chunk.failure);
+      } // if (loader == null)
+
+      if (chunk.last)
+      {
+         passCount = chunk.passCount;
+         passesHanded++;
+         if (loader != null)
+         {
+            synchronized (passStates)                                        // passes handed out in full are done with
+            {
+               passStates.remove(passesHanded - 1);
+            }
+         }
+      }
+      return chunk;
+   } // public SampleChunk next() throws IOException
+
+   /**
+    * Gives a chunk back to be filled again; it must not be used after that.
+    *
+    * @param chunk   the chunk returned by next
+    */
+   public void release(SampleChunk chunk)
+   {
+      if (loader != null)
+         free.add(chunk);
+   }
+
+   /**
+    * Returns the number of test sets of the last pass whose final chunk was handed out by next.
+    *
+    * @return   the number of test sets in the pass
+    */
+   public long passCount()
+   {
+      return passCount;
+   }
+
+   /**
+    * Returns the state the random number generator is in as the next pass handed out by next starts,
+    * which is its state now unless the loader thread has started that pass already. Only called
+    * between passes, after the last chunk of one pass and before the first of the next.
+    *
+    * @return   the state, see Checkpoint.saveRandom
+    */
+   public byte[] randomState()
+   {
+      if (loader == null)
+         return Checkpoint.saveRandom(random);
+
+      synchronized (passStates)                                              // the loader thread cannot start the pass meanwhile
+      {
+         byte[] state = passStates.get(passesHanded);
+         return (state != null) ? state : Checkpoint.saveRandom(random);
+      }
+   } // public byte[] randomState()
+
+   /**
+    * Returns how long next has waited for the loader thread, the time the training was held up by
+    * reading the file.
+    *
+    * @return   the nanoseconds waited
+    */
+   public long waitNanos()
+   {
+      return waited;
+   }
+
+   /**
+    * Returns how long the loader thread has waited for a free buffer, the time the reading was held
+    * up because the training had not caught up.
+    *
+    * @return   the nanoseconds waited
+    */
+   public long stallNanos()
+   {
+      return stalled;
+   }
+
+   /**
+    * Stops the loader thread and waits for it, so the reader can be closed or used again.
+    *
+    * @throws IOException   thrown if interrupted while waiting for the loader thread
+    */
+   public void close() throws IOException
+   {
+      if (loader == null)
+         return;
+
+      closed = true;
+      loader.interrupt();
+      try
+      {
+         loader.join();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while stopping the loader thread");
+      }
+      loader = null;
+   } // public void close() throws IOException
+} // public class SampleLoader
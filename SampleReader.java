@@ -0,0 +1,484 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the test sets of a file one after another, from either a text file with each test set on
+ * one line (input values followed by T values, separated by white spaces) or a binary file made by
+ * SampleFile. Only one line, or one mapped window of the binary file, is held at a time, so files of
+ * any size can be passed over again and again with bounded memory. Test sets already in memory, such
+ * as the bitmaps of a directory converted by BitmapPipeline, are read the same way.
+ *
+ * An optional shuffle buffer holds a fixed number of test sets and hands them out in random order,
+ * replacing each one with the next test set of the file. Nearby test sets are mixed while the memory
+ * stays bounded by the size of the buffer; a buffer as large as the file shuffles it completely.
+ *
+ * Lines of a text file can be parsed by several threads: the lines are then read a block at a time
+ * and every thread parses its share of the block, while the test sets are still handed out in the
+ * order of the file. A SampleReader is not meant to be shared between threads itself.
+ *
+ * SampleReader - constructs a SampleReader for an already opened source
+ * open         - opens a text or binary file, or a directory of bitmaps, of test sets for reading
+ * of           - reads test sets that are already in memory
+ * setShuffle   - sets the size of the shuffle buffer and the random number generator it draws with
+ * setLimit     - sets the most test sets read from the file in every pass
+ * setParsers   - sets the number of threads parsing the lines of a text file
+ * next         - copies the next test set into the given arrays
+ * count        - returns the number of test sets returned since the pass started
+ * reset        - starts the next pass from the beginning of the file
+ * close        - closes the file
+ */
+public class SampleReader
+{
+   private static final int TEXT_BUFFER = 1 << 16;  // the number of characters buffered from a text file
+   private static final int PARSE_BLOCK = 256;      // the number of lines read at a time when several threads parse them
+
+   private String file;                             // the name of the file, for reopening and error messages
+   private int numInputs;                           // the number of input values in each test set
+   private int numOutputs;                          // the number of T values in each test set
+   private SampleFile samples;                      // the binary file, null when reading text
+   private long nextIndex;                          // the index of the next test set in the binary file
+   private BufferedReader text;                     // the text file, null when reading a binary file
+   private long lineNumber;                         // the number of lines read from the text file in this pass
+   private double[][] memoryInputs;                 // the input values of test sets held in memory, null when reading a file
+   private double[][] memoryT;                      // the T values of test sets held in memory
+   private long limit;                              // the most test sets read in every pass, 0 for all of them
+   private long read;                               // the number of test sets read from the file in this pass
+   private long returned;                           // the number of test sets returned by next in this pass
+
+   private double[][] bufferInputs;                 // the input values of the test sets in the shuffle buffer, null if none
+   private double[][] bufferT;                      // the T values of the test sets in the shuffle buffer
+   private int filled;                              // the number of test sets in the shuffle buffer
+   private boolean primed;                          // whether the shuffle buffer was filled in this pass
+   private Random rand;                             // picks the test set handed out from the shuffle buffer
+
+   private ExecutorService parsers;                 // the threads parsing blocks of lines, null to parse on the calling thread
+   private int numParsers = 1;                      // the number of threads parsing every block
+   private String[] blockLines;                     // the lines of the block being parsed or handed out
+   private long[] blockNumbers;                     // the line number of every line of the block, for error messages
+   private double[][] blockInputs;                  // the parsed input values of the block
+   private double[][] blockT;                       // the parsed T values of the block
+   private int blockSize;                           // the number of test sets in the block
+   private int blockNext;                           // the index of the next test set of the block to hand out
+
+   /**
+    * Constructs a SampleReader for an already opened source; use open to create one.
+    *
+    * @param file         the name of the file
+    * @param numInputs    the number of input values in each test set
+    * @param numOutputs   the number of T values in each test set
+    * @param samples      the opened binary file, or null to read the file as text
+    */
+   private SampleReader(String file, int numInputs, int numOutputs, SampleFile samples)
+   {
+      this.file = file;
+      this.numInputs = numInputs;
+      this.numOutputs = numOutputs;
+      this.samples = samples;
+   }
+
+   /**
+    * Opens a file of test sets, binary if it starts with the magic number of SampleFile and text otherwise.
+    * A directory is taken to hold bitmaps, which are converted into test sets in memory by BitmapPipeline
+    * for a square input layer.
+    *
+    * @param file           the name of the file of test sets, or of a directory of bitmaps
+    * @param numInputs      the number of input values in each test set
+    * @param numOutputs     the number of T values in each test set
+    * @return               the opened SampleReader, positioned at the first test set
+    * @throws IOException   thrown if the file cannot be read or its test sets have a different shape
+    */
+   public static SampleReader open(String file, int numInputs, int numOutputs) throws IOException
+   {
+      SampleFile samples = null;
+
+      if (new File(file).isDirectory())
+         return BitmapPipeline.forInputs(numInputs, numOutputs).load(file);
+
+      if (SampleFile.isBinary(file))
+      {
+         samples = SampleFile.open(file);
+         if (samples.numInputs() != numInputs || samples.numOutputs() != numOutputs)
+         {
+            samples.close();
+            throw new IOException(file + " has test sets of " + samples.numInputs() + " inputs and " +
+                                  samples.numOutputs() + " T values, expected " + numInputs + " and " + numOutputs);
+         }
+      } // if (SampleFile.isBinary(file))
+
+      SampleReader reader = new SampleReader(file, numInputs, numOutputs, samples);
+      reader.reset();
+      return reader;
+   } // public static SampleReader open(String file, int numInputs, int numOutputs) throws IOException
+
+   /**
+    * Reads test sets that are already in memory, in the order of the rows. The rows are not copied.
+    *
+    * @param name      the name of the test sets, for error messages
+    * @param inputs    the input values, one row per test set
+    * @param tValues   the T values, one row per test set
+    * @return          the SampleReader, positioned at the first test set
+    */
+   public static SampleReader of(String name, double[][] inputs, double[][] tValues)
+   {
+      if (inputs.length != tValues.length)
+         throw new IllegalArgumentException(name + " has " + inputs.length + " rows of inputs but " + tValues.length + " of T values");
+
+      SampleReader reader = new SampleReader(name, (inputs.length == 0) ? 0 : inputs[0].length,
+                                             (tValues.length == 0) ? 0 : tValues[0].length, null);
+      reader.memoryInputs = inputs;
+      reader.memoryT = tValues;
+      return reader;
+   } // public static SampleReader of(String name, double[][] inputs, double[][] tValues)
+
+   /**
+    * Sets the size of the shuffle buffer, which takes effect from the next pass.
+    *
+    * @param size   the number of test sets held in the buffer, 0 or 1 to read them in the order of the file
+    * @param rand   the random number generator that picks the test set handed out next
+    */
+   public void setShuffle(int size, Random rand)
+   {
+      if (size < 0)
+         throw new IllegalArgumentException("Shuffle buffer size cannot be negative: " + size);
+
+      this.rand = rand;
+      if (size > 1)
+      {
+         bufferInputs = new double[size][numInputs];
+         bufferT = new double[size][numOutputs];
+      }
+      else
+      {
+         bufferInputs = null;
+         bufferT = null;
+      }
+   } // public void setShuffle(int size, Random rand)
+
+   /**
+    * Sets the most test sets read from the file in every pass; the rest of the file is ignored.
+    *
+    * @param limit   the number of test sets, 0 for all of them
+    */
+   public void setLimit(long limit)
+   {
+      if (limit < 0)
+         throw new IllegalArgumentException("Limit cannot be negative: " + limit);
+      this.limit = limit;
+   }
+
+   /**
+    * Sets the number of threads parsing the lines of a text file, which takes effect from the next
+    * block of lines. With more than one, PARSE_BLOCK lines are read at a time and split between the
+    * threads; the test sets and their order are the same either way. Other files ignore it.
+    *
+    * @param threads   the number of threads, 1 to parse every line on the thread calling next
+    */
+   public void setParsers(int threads)
+   {
+      if (threads < 1)
+         throw new IllegalArgumentException("Need at least 1 parser thread, not " + threads);
+
+      if (parsers != null)
+         parsers.shutdown();
+      parsers = null;
+      numParsers = threads;
+
+      if (threads > 1 && samples == null && memoryInputs == null)
+      {
+         parsers = Executors.newFixedThreadPool(threads, runnable ->
+         {
+            Thread thread = new Thread(runnable, "sample-parser");
+            thread.setDaemon(true);                                          // never keeps the program alive
+            return thread;
+         });
+         blockLines = new String[PARSE_BLOCK];
+         blockNumbers = new long[PARSE_BLOCK];
+         blockInputs = new double[PARSE_BLOCK][numInputs];
+         blockT = new double[PARSE_BLOCK][numOutputs];
+      }
+   } // public void setParsers(int threads)
+
+   /**
+    * Copies the next test set of this pass into the given arrays. Nothing is allocated for binary
+    * files unless a new window has to be mapped.
+    *
+    * @param inputs         filled with the input values, at least numInputs long
+    * @param tValue         filled with the T values, at least numOutputs long
+    * @return               true if a test set was copied, false if the pass is over
+    * @throws IOException   thrown if the file cannot be read or a line has too few values
+    */
+   public boolean next(double[] inputs, double[] tValue) throws IOException
+   {
+      if (bufferInputs == null)                                              // no shuffle buffer, straight from the file
+      {
+         if (!readSource(inputs, tValue))
+            return false;
+         returned++;
+         return true;
+      }
+
+      if (!primed)                                                           // fills the buffer at the start of the pass
+      {
+         while (filled < bufferInputs.length && readSource(bufferInputs[filled], bufferT[filled]))
+            filled++;
+         primed = true;
+      }
+
+      if (filled == 0)
+         return false;
+
+      int pick = rand.nextInt(filled);                                       // hands out a random test set of the buffer
+      System.arraycopy(bufferInputs[pick], 0, inputs, 0, numInputs);
+      System.arraycopy(bufferT[pick], 0, tValue, 0, numOutputs);
+
+      if (!readSource(bufferInputs[pick], bufferT[pick]))                    // and replaces it with the next one of the file,
+      {                                                                      // or with the last one of the buffer once the file ends
+         filled--;
+         double[] last = bufferInputs[filled];
+         bufferInputs[filled] = bufferInputs[pick];
+         bufferInputs[pick] = last;
+
+         last = bufferT[filled];
+         bufferT[filled] = bufferT[pick];
+         bufferT[pick] = last;
+      } // if (!readSource(bufferInputs[pick], bufferT[pick]))
+
+      returned++;
+      return true;
+   } // public boolean next(double[] inputs, double[] tValue) throws IOException
+
+   /**
+    * Copies the next test set of the file into the given arrays, skipping blank lines of a text file.
+    *
+    * @param inputs         filled with the input values
+    * @param tValue         filled with the T values
+    * @return               true if a test set was copied, false if the file or the limit was reached
+    * @throws IOException   thrown if the file cannot be read or a line has too few values
+    */
+   private boolean readSource(double[] inputs, double[] tValue) throws IOException
+   {
+      if (limit > 0 && read >= limit)
+         return false;
+
+      if (memoryInputs != null)
+      {
+         if (nextIndex >= memoryInputs.length)
+            return false;
+         System.arraycopy(memoryInputs[(int) nextIndex], 0, inputs, 0, numInputs);
+         System.arraycopy(memoryT[(int) nextIndex], 0, tValue, 0, numOutputs);
+         nextIndex++;
+         read++;
+         return true;
+      }
+
+      if (samples != null)
+      {
+         if (nextIndex >= samples.size())
+            return false;
+         samples.read(nextIndex++, inputs, tValue);
+         read++;
+         return true;
+      }
+
+      if (parsers != null)                                                   // hands out the next test set of a parsed block
+      {
+         if (blockNext == blockSize && !parseBlock())
+            return false;
+         System.arraycopy(blockInputs[blockNext], 0, inputs, 0, numInputs);
+         System.arraycopy(blockT[blockNext], 0, tValue, 0, numOutputs);
+         blockNext++;
+         read++;
+         return true;
+      }
+
+      String line = nextLine();
+      if (line == null)
+         return false;
+
+      parse(line, lineNumber, inputs, tValue);
+      read++;
+      return true;
+   } // private boolean readSource(double[] inputs, double[] tValue) throws IOException
+
+   /**
+    * Reads the next line of the text file that is not blank.
+    *
+    * @return               the line, or null if the file has ended
+    * @throws IOException   thrown if the file cannot be read
+    */
+   private String nextLine() throws IOException
+   {
+      String line = text.readLine();
+      lineNumber++;
+      while (line != null && line.trim().isEmpty())                          // blank lines, such as a last empty one, are skipped
+      {
+         line = text.readLine();
+         lineNumber++;
+      }
+      return line;
+   }
+
+   /**
+    * Reads the next block of lines of the text file, no more than the limit leaves, and parses it
+    * with the parser threads, each taking a contiguous share of the lines.
+    *
+    * @return               true if the block has at least one test set, false if the file or the limit was reached
+    * @throws IOException   thrown if the file cannot be read or a line has too few values
+    */
+   private boolean parseBlock() throws IOException
+   {
+      int lines = PARSE_BLOCK;
+      if (limit > 0)
+         lines = (int) Math.min(lines, limit - read);
+
+      blockSize = 0;
+      blockNext = 0;
+      while (blockSize < lines)
+      {
+         String line = nextLine();
+         if (line == null)
+            break;
+         blockLines[blockSize] = line;
+         blockNumbers[blockSize] = lineNumber;
+         blockSize++;
+      }
+      if (blockSize == 0)
+         return false;
+
+      int shares = Math.min(numParsers, blockSize);
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int s = 0; s < shares; s++)
+      {
+         int from = blockSize * s / shares;
+         int to = blockSize * (s + 1) / shares;
+         futures.add(parsers.submit(() ->
+         {
+            for (int k = from; k < to; k++)
+               parse(blockLines[k], blockNumbers[k], blockInputs[k], blockT[k]);
+            return null;
+         }));
+      } // for (int s = 0; s < shares; s++)
+
+      try
+      {
+         for (Future<?> future : futures)
+            future.get();
+      }
+      catch (ExecutionException e)
+      {
+         if (e.getCause() instanceof IOException)
+            throw (IOException) e.getCause();
+         if (e.getCause() instanceof Error)
+            throw (Error) e.getCause();
+         throw (RuntimeException) e.getCause();                              // such as a NumberFormatException
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while parsing " + file);
+      }
+      finally
+      {
+         for (Future<?> future : futures)                                    // no share is left writing into the block
+            future.cancel(true);
+      }
+      return true;
+   } // private boolean parseBlock() throws IOException
+
+   /**
+    * Parses the values of one line of a text file, scanning it for the values instead of splitting
+    * it into an array of Strings. Values after the T values are ignored.
+    *
+    * @param line           the line holding the input values followed by the T values
+    * @param number         the line number of the line, for error messages
+    * @param inputs         filled with the input values
+    * @param tValue         filled with the T values
+    * @throws IOException   thrown if the line has too few values
+    */
+   private void parse(String line, long number, double[] inputs, double[] tValue) throws IOException
+   {
+      int length = line.length();
+      int pos = 0;                                                           // the position of the next character to look at
+
+      for (int v = 0; v < numInputs + numOutputs; v++)
+      {
+         while (pos < length && Character.isWhitespace(line.charAt(pos)))   // skips to the start of the value
+            pos++;
+         if (pos == length)
+            throw new IOException(file + " line " + number + " has " + v + " values, expected " +
+                                  (numInputs + numOutputs));
+
+         int end = pos + 1;                                                  // finds the end of the value
+         while (end < length && !Character.isWhitespace(line.charAt(end)))
+            end++;
+
+         double value = Double.parseDouble(line.substring(pos, end));
+         if (v < numInputs)
+            inputs[v] = value;
+         else
+            tValue[v - numInputs] = value;
+         pos = end;
+      } // for (int v = 0; v < numInputs + numOutputs; v++)
+   } // private void parse(String line, long number, double[] inputs, double[] tValue) throws IOException
+
+   /**
+    * Returns the number of test sets returned by next since the current pass started.
+    *
+    * @return   the number of test sets
+    */
+   public long count()
+   {
+      return returned;
+   }
+
+   /**
+    * Starts the next pass from the beginning of the file, reopening a text file and emptying the shuffle buffer.
+    *
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to reopen
+    */
+   public void reset() throws IOException
+   {
+      if (samples == null && memoryInputs == null)
+      {
+         if (text != null)
+            text.close();
+         text = new BufferedReader(new FileReader(file), TEXT_BUFFER);
+      }
+
+      nextIndex = 0;
+      lineNumber = 0;
+      read = 0;
+      returned = 0;
+      filled = 0;
+      primed = false;
+      blockSize = 0;
+      blockNext = 0;
+   } // public void reset() throws IOException
+
+   /**
+    * Closes the file and stops the parser threads.
+    *
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to close
+    */
+   public void close() throws IOException
+   {
+      if (parsers != null)
+         parsers.shutdown();
+      parsers = null;
+      if (samples != null)
+         samples.close();
+      if (text != null)
+         text.close();
+      text = null;
+   }
+} // public class SampleReader
@@ -0,0 +1,110 @@
+/**
+ * The sigmoid function 1 / (1 + e^-x), the threshold function of the Perceptron, computed exactly
+ * with Math.exp or fast from a table, see Perceptron.setFastSigmoid.
+ *
+ * The fast sigmoid interpolates linearly between values of the exact one taken every 1/64 over
+ * [-16, 16], 2049 doubles (16 KB) that stay in the cache, so it costs a multiply, a cast and two
+ * loads instead of an exponential. Outside that range it is clamped to 0 or 1, the values the
+ * sigmoid saturates at, and NaN stays NaN. Between two entries the error of linear interpolation is
+ * at most h^2 / 8 * max|sigmoid''| = (1/64)^2 / 8 * 0.0962 = 2.94e-6, and past the clamp it is at
+ * most sigmoid(-16) = 1.13e-7, so
+ *
+ *    |fast(x) - exact(x)| <= 3e-6 for every x,
+ *
+ * which largestError measures. The fast sigmoid is also monotonic, like the exact one, since it
+ * interpolates between increasing values.
+ *
+ * fast           - returns the sigmoid of a value interpolated from the table
+ * exact          - returns the sigmoid of a value computed with Math.exp
+ * largestError   - measures the largest difference between the fast and the exact sigmoid
+ * main           - prints the largest difference and fails if it is above MAX_ERROR, see also SigmoidCheck
+ */
+public final class Sigmoid
+{
+   public static final double MAX_ERROR = 3e-6;     // the bound on |fast(x) - exact(x)| for every x
+   private static final double RANGE = 16.0;        // the table covers [-RANGE, RANGE], clamped outside it
+   private static final int STEPS = 64;             // the number of table entries per unit of x
+   private static final double[] TABLE = new double[(int) (2 * RANGE * STEPS) + 1];  // exact(-RANGE + i / STEPS)
+
+   static
+   {
+      for (int i = 0; i < TABLE.length; i++)
+         TABLE[i] = exact(-RANGE + (double) i / STEPS);
+   }
+
+   /**
+    * The Sigmoid class only has static methods and is never constructed.
+    */
+   private Sigmoid()
+   {
+   }
+
+   /**
+    * Returns the sigmoid of a value, interpolated linearly between the two table entries around it
+    * and clamped to 0 or 1 outside the table; it differs from exact by at most MAX_ERROR.
+    *
+    * @param x   the value
+    * @return    the sigmoid of x within MAX_ERROR, NaN if x is NaN
+    */
+   public static double fast(double x)
+   {
+      if (x >= RANGE)
+         return 1.0;
+      if (x <= -RANGE)
+         return 0.0;
+      if (x != x)                                                            // NaN fails both comparisons
+         return x;
+
+      double position = (x + RANGE) * STEPS;                                // in [0, TABLE.length - 1)
+      int i = (int) position;
+      double fraction = position - i;
+      return TABLE[i] + fraction * (TABLE[i + 1] - TABLE[i]);
+   } // public static double fast(double x)
+
+   /**
+    * Returns the sigmoid of a value computed with Math.exp.
+    *
+    * @param x   the value
+    * @return    1 / (1 + e^-x)
+    */
+   public static double exact(double x)
+   {
+      return 1.0 / (1.0 + Math.exp(-x));
+   }
+
+   /**
+    * Measures the largest difference between the fast and the exact sigmoid on a grid 64 times
+    * finer than the table over [-20, 20], which covers the midpoints between entries where the
+    * interpolation is worst and the clamped values on both sides.
+    *
+    * @return   the largest |fast(x) - exact(x)| found
+    */
+   public static double largestError()
+   {
+      double worst = 0.0;
+      int points = 40 * STEPS * 64;
+      for (int i = 0; i <= points; i++)
+      {
+         double x = -20.0 + 40.0 * i / points;
+         worst = Math.max(worst, Math.abs(fast(x) - exact(x)));
+      }
+      return worst;
+   } // public static double largestError()
+
+   /**
+    * Prints the largest difference between the fast and the exact sigmoid next to MAX_ERROR, and
+    * ends with exit status 1 if the bound does not hold.
+    *
+    * @param args   not used
+    */
+   public static void main(String[] args)
+   {
+      double worst = largestError();
+      System.out.println("Largest error: " + worst + ", bound: " + MAX_ERROR);
+      if (worst > MAX_ERROR)
+      {
+         System.err.println("FAILED: the fast sigmoid is off by more than MAX_ERROR");
+         System.exit(1);
+      }
+   } // public static void main(String[] args)
+} // public final class Sigmoid
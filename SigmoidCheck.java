@@ -0,0 +1,316 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * An executable check that the fast sigmoid of Sigmoid can stand in for the exact one, see
+ * Perceptron.setFastSigmoid. It prints one line per check and ends with exit status 1 if any fails:
+ *    function        - the largest |fast(x) - exact(x)| is at most Sigmoid.MAX_ERROR
+ *    convergeExact   - training with the exact sigmoid reaches the error threshold before the last
+ *                      iteration; without it the other checks mean nothing, so raise -iter or -lambda
+ *    convergeFast    - training with the fast sigmoid, from the same seed, reaches the error threshold
+ *                      too, in at most (1 + slack) times the iterations of the exact one
+ *    inferExact      - the weights trained with the exact sigmoid give outputs within the tolerance of
+ *                      each other when run through a Model with either sigmoid
+ *    inferFast       - the same for the weights trained with the fast sigmoid
+ * A training reaches the threshold when it stops before its last iteration, which it only does once
+ * every error value is within it. The largest error value printed is that of the final weights run
+ * through a Model with the sigmoid they were trained with; the training judges every test set right
+ * after changing the weights for it, so this one may be a little above the threshold.
+ *
+ * The training runs on the test sets of a file, or on random ones written into a temporary
+ * directory like the Benchmark's, for every topology and precision given on the command line; the
+ * topologies, the options and the temporary directory are handled by the helpers of Benchmark.
+ *
+ * Options, all optional:
+ *    -t 1600/400/100/5     the topologies, input layer first (default: dimensions.txt if present)
+ *    -p double,float       the precisions of the Perceptron (default: both)
+ *    -in trainset.txt      the test sets to train on, text or binary (default: random ones)
+ *    -n 25                 the number of random test sets
+ *    -iter 2000            the most iterations of every training
+ *    -error 0.001          the error threshold every training must reach
+ *    -lambda 0.3           the learning factor
+ *    -slack 0.25           how many more iterations than the exact sigmoid the fast one may take, as a fraction
+ *    -tol 1e-4             the largest difference allowed between the outputs of the two sigmoids
+ *
+ * SigmoidCheck   - constructs a check with the given settings
+ * checkFunction  - checks the largest error of the fast sigmoid against its bound
+ * checkTraining  - trains with both sigmoids and checks convergence and inference for one topology and precision
+ * train          - trains one Perceptron and returns the iterations it used
+ * readSamples    - reads every test set of a file into memory
+ * largestError   - returns the largest error value of the test sets run through a Model
+ * largestDiff    - returns the largest difference between the outputs of two Models
+ * report         - prints the result of one check and counts it if it failed
+ * main           - parses the options and runs every check
+ */
+public class SigmoidCheck
+{
+   private static final String FORMAT = "%-15s %-18s %-7s %-5s %s%n";
+   private static final long SEED = 1;              // seeds the weights of both trainings alike
+
+   private int iterations;                          // the most iterations of every training
+   private double threshold;                        // the error threshold every training must reach
+   private double lambda;                           // the learning factor
+   private double slack;                            // the fraction of extra iterations the fast sigmoid may take
+   private double tolerance;                        // the largest difference allowed between the outputs
+   private Path dir;                                // the temporary directory holding the weights and random test sets
+   private int failures;                            // the number of checks that failed
+
+   /**
+    * Constructs a check with the given settings.
+    *
+    * @param iterations   the most iterations of every training
+    * @param threshold    the error threshold every training must reach
+    * @param lambda       the learning factor
+    * @param slack        how many more iterations the fast sigmoid may take, as a fraction of the exact ones
+    * @param tolerance    the largest difference allowed between the outputs of the two sigmoids
+    * @param dir          the temporary directory for the weights and random test sets
+    */
+   public SigmoidCheck(int iterations, double threshold, double lambda, double slack, double tolerance, Path dir)
+   {
+      this.iterations = iterations;
+      this.threshold = threshold;
+      this.lambda = lambda;
+      this.slack = slack;
+      this.tolerance = tolerance;
+      this.dir = dir;
+   }
+
+   /**
+    * Checks the largest error of the fast sigmoid against Sigmoid.MAX_ERROR.
+    */
+   public void checkFunction()
+   {
+      double worst = Sigmoid.largestError();
+      report("function", "-", "-", worst <= Sigmoid.MAX_ERROR,
+             String.format("largest |fast - exact| %.3e, bound %.1e", worst, Sigmoid.MAX_ERROR));
+   }
+
+   /**
+    * Trains the same Perceptron with the exact and with the fast sigmoid and checks that both
+    * converge and that either set of weights gives nearly the same outputs with either sigmoid.
+    *
+    * @param layers         the number of nodes in every layer, input layer first
+    * @param single         whether the Perceptron runs in single precision
+    * @param input          the file of test sets to train on
+    * @throws Exception     thrown if the test sets cannot be read or the weights cannot be written or read
+    */
+   public void checkTraining(int[] layers, boolean single, String input) throws Exception
+   {
+      String topology = Benchmark.topologyName(layers);
+      String precision = single ? "float" : "double";
+
+      String exactFile = dir.resolve("exact.bin").toString();
+      String fastFile = dir.resolve("fast.bin").toString();
+      int exactIterations = train(layers, single, false, input, exactFile);
+      int fastIterations = train(layers, single, true, input, fastFile);
+
+      List<double[][]> samples = readSamples(input, layers);
+      double[][] inputs = samples.get(0);
+      double[][] t = samples.get(1);
+      Model exact = Model.load(exactFile, layers, single, false);
+      Model exactRunFast = Model.load(exactFile, layers, single, true);
+      Model fast = Model.load(fastFile, layers, single, true);
+      Model fastRunExact = Model.load(fastFile, layers, single, false);
+
+      double exactError = largestError(exact, inputs, t);
+      double fastError = largestError(fast, inputs, t);
+      report("convergeExact", topology, precision, exactIterations < iterations,
+             String.format("%d iterations, largest error %.3e, threshold %.1e", exactIterations, exactError, threshold));
+      report("convergeFast", topology, precision,
+             fastIterations < iterations && fastIterations <= exactIterations * (1.0 + slack),
+             String.format("%d iterations (exact %d, slack %.2f), largest error %.3e", fastIterations, exactIterations,
+                           slack, fastError));
+
+      double exactDiff = largestDiff(exact, exactRunFast, inputs);
+      double fastDiff = largestDiff(fast, fastRunExact, inputs);
+      report("inferExact", topology, precision, exactDiff <= tolerance,
+             String.format("largest |fast - exact| output %.3e over %d test sets, tolerance %.1e", exactDiff,
+                           inputs.length, tolerance));
+      report("inferFast", topology, precision, fastDiff <= tolerance,
+             String.format("largest |fast - exact| output %.3e over %d test sets, tolerance %.1e", fastDiff,
+                           inputs.length, tolerance));
+   } // public void checkTraining(int[] layers, boolean single, String input) throws Exception
+
+   /**
+    * Trains one Perceptron from SEED on every test set of a file, with what it prints thrown away,
+    * and returns the number of iterations it used.
+    *
+    * @param layers         the number of nodes in every layer, input layer first
+    * @param single         whether the Perceptron runs in single precision
+    * @param fast           whether the Perceptron uses the fast sigmoid
+    * @param input          the file of test sets
+    * @param weights        the file the trained weights are written into
+    * @return               the number of iterations used
+    * @throws Exception     thrown if the test sets cannot be read or the weights cannot be written
+    */
+   private int train(int[] layers, boolean single, boolean fast, String input, String weights) throws Exception
+   {
+      int[] hidden = new int[layers.length - 2];
+      for (int n = 1; n < layers.length - 1; n++)
+         hidden[n - 1] = layers[n];
+
+      Perceptron net = new Perceptron(layers[0], hidden, layers[layers.length - 1]);
+      net.setSeed(SEED);
+      net.setFloat(single);
+      net.setFastSigmoid(fast);
+
+      return Benchmark.quietly(() ->
+      {
+         net.train(iterations, weights, 0, threshold, lambda, -0.2, 0.2, input);
+         return net.iterationsUsed();
+      });
+   } // private int train(int[] layers, boolean single, boolean fast, String input, String weights) throws Exception
+
+   /**
+    * Reads every test set of a file, text or binary, into memory.
+    *
+    * @param file           the file of test sets
+    * @param layers         the number of nodes in every layer, input layer first
+    * @return               the input values and the T values, one row per test set
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   private static List<double[][]> readSamples(String file, int[] layers) throws IOException
+   {
+      int numInputs = layers[0];
+      int numOutputs = layers[layers.length - 1];
+      List<double[]> inputs = new ArrayList<double[]>();
+      List<double[]> t = new ArrayList<double[]>();
+
+      SampleReader reader = SampleReader.open(file, numInputs, numOutputs);
+      try
+      {
+         double[] row = new double[numInputs];
+         double[] tValue = new double[numOutputs];
+         while (reader.next(row, tValue))
+         {
+            inputs.add(row);
+            t.add(tValue);
+            row = new double[numInputs];
+            tValue = new double[numOutputs];
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      return List.of(inputs.toArray(new double[0][]), t.toArray(new double[0][]));
+   } // private static List<double[][]> readSamples(String file, int[] layers) throws IOException
+
+   /**
+    * Returns the largest error value of the test sets run through a Model, see Perceptron.calcError.
+    *
+    * @param model    the Model
+    * @param inputs   the input values, one row per test set
+    * @param t        the T values, one row per test set
+    * @return         the largest error value
+    */
+   private static double largestError(Model model, double[][] inputs, double[][] t)
+   {
+      double[][] outputs = model.outputBatch(inputs);
+      double worst = 0.0;
+      for (int test = 0; test < inputs.length; test++)
+         worst = Math.max(worst, Perceptron.calcError(t[test], outputs[test]));
+      return worst;
+   }
+
+   /**
+    * Returns the largest difference between the outputs of two Models for the same test sets.
+    *
+    * @param first    one Model
+    * @param second   the other Model, with the same layers
+    * @param inputs   the input values, one row per test set
+    * @return         the largest absolute difference of any output node of any test set
+    */
+   private static double largestDiff(Model first, Model second, double[][] inputs)
+   {
+      double[][] a = first.outputBatch(inputs);
+      double[][] b = second.outputBatch(inputs);
+      double worst = 0.0;
+      for (int test = 0; test < inputs.length; test++)
+      {
+         for (int i = 0; i < a[test].length; i++)
+            worst = Math.max(worst, Math.abs(a[test][i] - b[test][i]));
+      }
+      return worst;
+   } // private static double largestDiff(Model first, Model second, double[][] inputs)
+
+   /**
+    * Prints the result of one check and counts it if it failed.
+    *
+    * @param check       the name of the check
+    * @param topology    the topology it ran on, "-" if none
+    * @param precision   the precision it ran in, "-" if none
+    * @param passed      whether the check passed
+    * @param detail      what was measured
+    */
+   private void report(String check, String topology, String precision, boolean passed, String detail)
+   {
+      System.out.printf(FORMAT, check, topology, precision, passed ? "PASS" : "FAIL", detail);
+      if (!passed)
+         failures++;
+   }
+
+   /**
+    * Parses the options, see the class comment, runs every check for every topology and precision,
+    * removes the temporary files, and ends with exit status 1 if any check failed.
+    *
+    * @param args        the options
+    * @throws Exception  thrown if a training or the files it needs fail
+    */
+   public static void main(String[] args) throws Exception
+   {
+      Map<String, String> options = Benchmark.options(args, "-t", "-p", "-in", "-n", "-iter", "-error", "-lambda", "-slack",
+                                                      "-tol");
+      String precisions = options.getOrDefault("-p", "double,float");
+      String input = options.get("-in");
+      int numTests = Integer.parseInt(options.getOrDefault("-n", "25"));
+      int iterations = Integer.parseInt(options.getOrDefault("-iter", "2000"));
+      double threshold = Double.parseDouble(options.getOrDefault("-error", "0.001"));
+      double lambda = Double.parseDouble(options.getOrDefault("-lambda", "0.3"));
+      double slack = Double.parseDouble(options.getOrDefault("-slack", "0.25"));
+      double tolerance = Double.parseDouble(options.getOrDefault("-tol", "1e-4"));
+
+      String own = Benchmark.ownTopology();                                  // the topology this project trains by default
+      List<String> topologies = List.of((own != null) ? own : "1600/400/100/5");
+      if (options.containsKey("-t"))
+         topologies = List.of(options.get("-t").split(","));
+
+      Path dir = Files.createTempDirectory("perceptron-sigmoid");
+      SigmoidCheck check = new SigmoidCheck(iterations, threshold, lambda, slack, tolerance, dir);
+
+      System.out.printf(FORMAT, "Check", "Param", "Prec", "Res", "Measured");
+      try
+      {
+         check.checkFunction();
+         for (String topology : topologies)
+         {
+            int[] layers = Benchmark.parseTopology(topology);
+            String samples = input;
+            if (samples == null)                                             // random test sets of this topology
+            {
+               samples = dir.resolve("samples.txt").toString();
+               Benchmark.writeSamples(samples, numTests, layers[0], layers[layers.length - 1], new Random(SEED));
+            }
+
+            for (String precision : precisions.split(","))
+               check.checkTraining(layers, precision.trim().equalsIgnoreCase("float"), samples);
+         } // for (String topology : topologies)
+      } // try
+      finally
+      {
+         Benchmark.deleteTree(dir);                                          // removes the temporary files
+      }
+
+      if (check.failures > 0)
+      {
+         System.err.println("FAILED: " + check.failures + " checks");
+         System.exit(1);
+      }
+      System.out.println("All checks passed");
+   } // public static void main(String[] args) throws Exception
+} // public class SigmoidCheck
@@ -0,0 +1,182 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes one record per training iteration into a file, for following a training run while it goes
+ * and comparing runs afterwards: the mean and largest error value, how many test sets were trained on
+ * and how fast, the validation error collected in it if any (see Validator), how long every phase of
+ * the iteration took, and how many bytes were allocated. The file is in JSON lines, one object per
+ * iteration, if its name ends with ".jsonl" or ".json", and comma separated values with a header line
+ * otherwise. In JSON a value that is NaN or infinite is written as null.
+ *
+ * The phases are timed by the training itself around whole batches, never around single test sets,
+ * into an array indexed by the phase constants below; see Perceptron.gradient. Allocation is the
+ * growth of the bytes allocated by every live thread, as counted by the JVM, so it includes the
+ * threads of the pool, the loader and the augmenter; it is -1 if the JVM does not count them.
+ *
+ * Every record is written and flushed once its iteration is over, so nothing is printed or written
+ * while test sets are trained on.
+ *
+ * Telemetry    - opens the file and writes the header of comma separated values
+ * record       - writes the record of one iteration
+ * number       - returns a value as a JSON number, or null if JSON cannot hold it
+ * allocated    - returns the bytes allocated by every live thread since the last call
+ * close        - closes the file
+ */
+public class Telemetry
+{
+   public static final int TRAIN = 0;               // forward and back propagation of the test sets of every batch
+   public static final int APPLY = 1;               // adding the changes of a batch into the weights
+   public static final int CHECK = 2;               // running the test sets again to recompute their error values
+   public static final int INPUT = 3;               // waiting for test sets read from the file or augmented copies
+   public static final int CHECKPOINT = 4;          // copying the weights into a checkpoint
+   public static final int VALIDATE = 5;            // waiting for a validation and copying the weights for the next
+   public static final int PHASES = 6;              // the number of phases
+   private static final String[] PHASE_NAMES = {"trainNanos", "applyNanos", "checkNanos", "inputNanos", "checkpointNanos",
+                                                "validateNanos"};
+
+   private BufferedWriter out;                      // the telemetry file
+   private boolean json;                            // whether the records are JSON objects rather than comma separated
+   private ThreadMXBean threads;                    // counts the bytes allocated by each thread, null if it cannot
+   private Map<Long, Long> allocatedBefore = new HashMap<Long, Long>();  // the bytes of every thread at the last call
+
+   /**
+    * Opens the telemetry file, replacing any file of the same name, and writes the header line of
+    * comma separated values.
+    *
+    * @param file           the name of the file, JSON lines if it ends with ".jsonl" or ".json"
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   public Telemetry(String file) throws IOException
+   {
+      String name = file.toLowerCase(Locale.ROOT);
+      json = name.endsWith(".jsonl") || name.endsWith(".json");
+      out = new BufferedWriter(new FileWriter(file));
+
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean &&
+          ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+      {
+         ((com.sun.management.ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+         threads = bean;
+         allocated();                                                        // counts from now on
+      }
+
+      if (!json)
+      {
+         out.write("iteration,testSets,seconds,testSetsPerSecond,meanError,maxError,validationError");
+         for (String phase : PHASE_NAMES)
+            out.write("," + phase);
+         out.write(",allocatedBytes,allocatedBytesPerSecond");
+         out.newLine();
+         out.flush();
+      }
+   } // public Telemetry(String file) throws IOException
+
+   /**
+    * Writes the record of one iteration and flushes it to the file.
+    *
+    * @param iteration      the number of the iteration, counting from 1
+    * @param testSets       the number of test sets trained on, augmented copies included
+    * @param nanos          how long the whole iteration took
+    * @param meanError      the mean of the error values of the test sets
+    * @param maxError       the largest error value of the test sets
+    * @param validation     the validation error collected in the iteration, NaN if none, left empty or null
+    * @param phases         the nanoseconds spent in every phase, indexed by the phase constants
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   public void record(int iteration, long testSets, long nanos, double meanError, double maxError,
+                      double validation, long[] phases) throws IOException
+   {
+      double seconds = nanos / 1e9;
+      long bytes = allocated();
+      double rate = (seconds > 0.0) ? testSets / seconds : 0.0;
+      double byteRate = (bytes < 0 || seconds <= 0.0) ? -1.0 : bytes / seconds;
+
+      StringBuilder line = new StringBuilder();
+      if (json)
+      {
+         line.append("{\"iteration\":").append(iteration)
+             .append(",\"testSets\":").append(testSets)
+             .append(",\"seconds\":").append(seconds)
+             .append(",\"testSetsPerSecond\":").append(number(rate))
+             .append(",\"meanError\":").append(number(meanError))
+             .append(",\"maxError\":").append(number(maxError))
+             .append(",\"validationError\":").append(number(validation));
+         for (int p = 0; p < PHASES; p++)
+            line.append(",\"").append(PHASE_NAMES[p]).append("\":").append(phases[p]);
+         line.append(",\"allocatedBytes\":").append(bytes)
+             .append(",\"allocatedBytesPerSecond\":").append(number(byteRate)).append('}');
+      } // if (json)
+      else
+      {
+         line.append(iteration).append(',').append(testSets).append(',').append(seconds).append(',')
+             .append(rate).append(',').append(meanError).append(',').append(maxError).append(',')
+             .append(Double.isNaN(validation) ? "" : String.valueOf(validation));
+         for (int p = 0; p < PHASES; p++)
+            line.append(',').append(phases[p]);
+         line.append(',').append(bytes).append(',').append(byteRate);
+      }
+
+      out.write(line.toString());
+      out.newLine();
+      out.flush();                                                           // can be followed while training goes on
+   } // public void record(int iteration, long testSets, long nanos, double meanError, double maxError,
+     // double validation, long[] phases) throws IOException
+
+   /**
+    * Returns a value as a JSON number, or null if it is NaN or infinite, which JSON cannot hold;
+    * the error values of a diverging training run become so.
+    *
+    * @param value   the value
+    * @return        the value as JSON
+    */
+   private static String number(double value)
+   {
+      return Double.isFinite(value) ? String.valueOf(value) : "null";
+   }
+
+   /**
+    * Returns the bytes allocated by every live thread since the last call; a thread started since
+    * then counts with everything it has allocated, and a thread that has ended is no longer counted.
+    *
+    * @return   the bytes allocated, or -1 if the JVM does not count them
+    */
+   public long allocated()
+   {
+      if (threads == null)
+         return -1;
+
+      com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+      long[] ids = bean.getAllThreadIds();
+      long[] bytes = bean.getThreadAllocatedBytes(ids);
+      Map<Long, Long> now = new HashMap<Long, Long>();
+      long total = 0;
+
+      for (int i = 0; i < ids.length; i++)
+      {
+         if (bytes[i] < 0)                                                   // ended while being counted
+            continue;
+         now.put(ids[i], bytes[i]);
+         total += bytes[i] - allocatedBefore.getOrDefault(ids[i], 0L);
+      }
+      allocatedBefore = now;
+      return total;
+   } // public long allocated()
+
+   /**
+    * Closes the telemetry file.
+    *
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   public void close() throws IOException
+   {
+      out.close();
+   }
+} // public class Telemetry
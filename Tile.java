@@ -0,0 +1,25 @@
+/*
+ * A member-variable-only class for holding the activations of every layer for one tile of test sets
+ * run through Perceptron.outputBatch, one row per test set. In double precision only the hidden
+ * layers are needed, the input and output layers are read and written in place; in single
+ * precision every layer is kept, as floats.
+ */
+final class Tile
+{
+   double[][][] a;
+   float[][][] a32;
+
+   Tile(int[] numNodes, boolean single)
+   {
+      a = new double[numNodes.length][][];
+      a32 = new float[numNodes.length][][];
+
+      for (int n = 0; n < numNodes.length; n++)
+      {
+         if (single)
+            a32[n] = new float[Perceptron.SAMPLE_TILE][numNodes[n]];
+         else if (n > 0 && n < numNodes.length - 1)
+            a[n] = new double[Perceptron.SAMPLE_TILE][numNodes[n]];
+      }
+   } // Tile(int[] numNodes, boolean single)
+} // final class Tile
@@ -0,0 +1,310 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scores the weights of a training run on test sets held out of the training, on a thread of its
+ * own, and keeps the weights that scored best so training can stop once they stop getting better
+ * (early stopping). The score is the mean error value of the held out test sets.
+ *
+ * Every so many iterations the training copies its weights into a snapshot, the scorer, and goes on
+ * while the validator thread runs the held out test sets through the snapshot, tile by tile like
+ * Perceptron.outputBatch. The score of a snapshot is collected when the next snapshot is taken, so
+ * the training only waits if scoring takes longer than the iterations between two snapshots, and
+ * the iteration training stops at does not depend on how fast the thread is. A snapshot that scores
+ * lower than every earlier one is copied into the best weights; after patience snapshots in a row
+ * that do not, the validator is exhausted and training stops.
+ *
+ * Validator      - constructs a validator of the given held out test sets
+ * fromFile       - constructs a validator of every test set in a file
+ * setFastSigmoid - switches the snapshots between the exact and the fast sigmoid, like the Perceptron trained
+ * submit         - starts scoring a snapshot of the weights of a Perceptron
+ * collect        - waits for the score of the last snapshot and keeps its weights if they are the best
+ * exhausted      - returns whether the last patience snapshots did not improve on the best
+ * lastIteration  - returns the iteration of the last snapshot submitted
+ * restoreBest    - copies the best weights back into a Perceptron
+ * lastError      - returns the score collected last
+ * bestError      - returns the lowest score so far
+ * bestIteration  - returns the iteration of the best weights
+ * validations    - returns the number of snapshots scored
+ * count          - returns the number of held out test sets
+ * close          - stops the validator thread
+ */
+public class Validator
+{
+   private Perceptron scorer;                       // holds the snapshot being scored
+   private Perceptron best;                         // holds the weights with the lowest score so far
+   private double[][] inputs;                       // the input values of the held out test sets
+   private double[][] t;                            // the truth values of the held out test sets
+   private int count;                               // the number of held out test sets
+   private double[][] outputs;                      // the output values of the held out test sets, of the snapshot
+   private Tile tile;                               // the activations of the validator thread
+   private int patience;                            // the snapshots in a row without improvement before stopping, 0 never stops
+   private ExecutorService thread;                  // the one thread scoring the snapshots
+   private Future<Double> pending;                  // the score of the snapshot being scored, null if none
+   private int pendingIteration;                    // the iteration of the snapshot being scored
+   private int lastIteration;                       // the iteration of the last snapshot submitted, 0 if none
+   private double lastError = Double.NaN;           // the score collected last
+   private double bestError = Double.POSITIVE_INFINITY;  // the lowest score so far
+   private int bestIteration;                       // the iteration of the best weights, 0 if none
+   private int stale;                               // the snapshots in a row that did not improve on the best
+   private int validations;                         // the number of snapshots scored
+
+   /**
+    * Constructs a validator of the given held out test sets, for a Perceptron with the given layers.
+    *
+    * @param numNodes   the number of nodes in every layer, input layer first
+    * @param single     whether the Perceptron trains in single precision, see Perceptron.setFloat
+    * @param inputs     the input values of the held out test sets
+    * @param t          the truth values of the held out test sets
+    * @param count      the number of held out test sets, from the first row
+    * @param patience   the snapshots in a row without improvement before training stops, 0 never to stop
+    */
+   public Validator(int[] numNodes, boolean single, double[][] inputs, double[][] t, int count, int patience)
+   {
+      if (count < 1)
+         throw new IllegalArgumentException("Validation needs at least 1 test set, not " + count);
+      if (patience < 0)
+         throw new IllegalArgumentException("Patience cannot be negative: " + patience);
+
+      int[] hidden = new int[numNodes.length - 2];
+      for (int n = 1; n < numNodes.length - 1; n++)
+         hidden[n - 1] = numNodes[n];
+      scorer = new Perceptron(numNodes[0], hidden, numNodes[numNodes.length - 1]);
+      scorer.setFloat(single);
+      best = new Perceptron(numNodes[0], hidden, numNodes[numNodes.length - 1]);
+      best.setFloat(single);
+
+      this.inputs = inputs;
+      this.t = t;
+      this.count = count;
+      this.patience = patience;
+      outputs = new double[count][numNodes[numNodes.length - 1]];
+      tile = new Tile(numNodes, single);
+      thread = Executors.newSingleThreadExecutor(runnable ->
+      {
+         Thread validator = new Thread(runnable, "validator");
+         validator.setDaemon(true);                                          // never keeps the program alive
+         return validator;
+      });
+   } // public Validator(int[] numNodes, boolean single, double[][] inputs, double[][] t, int count, int patience)
+
+   /**
+    * Constructs a validator of every test set in a file, text or binary, read into memory once.
+    *
+    * @param file           the name of the file of held out test sets
+    * @param numNodes       the number of nodes in every layer, input layer first
+    * @param single         whether the Perceptron trains in single precision
+    * @param patience       the snapshots in a row without improvement before training stops, 0 never to stop
+    * @return               the validator
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   public static Validator fromFile(String file, int[] numNodes, boolean single, int patience) throws IOException
+   {
+      int numInputs = numNodes[0];
+      int numOutputs = numNodes[numNodes.length - 1];
+      List<double[]> inputs = new ArrayList<double[]>();
+      List<double[]> t = new ArrayList<double[]>();
+
+      SampleReader reader = SampleReader.open(file, numInputs, numOutputs);
+      try
+      {
+         double[] row = new double[numInputs];
+         double[] tValue = new double[numOutputs];
+         while (reader.next(row, tValue))
+         {
+            inputs.add(row);
+            t.add(tValue);
+            row = new double[numInputs];
+            tValue = new double[numOutputs];
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+
+      return new Validator(numNodes, single, inputs.toArray(new double[0][]), t.toArray(new double[0][]),
+                           inputs.size(), patience);
+   } // public static Validator fromFile(String file, int[] numNodes, boolean single, int patience) throws IOException
+
+   /**
+    * Switches the snapshot and the best weights between the exact and the fast sigmoid, see
+    * Perceptron.setFastSigmoid, so that they are scored with the threshold function being trained.
+    *
+    * @param fast   true for the fast sigmoid, false for the exact one
+    */
+   public void setFastSigmoid(boolean fast)
+   {
+      scorer.setFastSigmoid(fast);
+      best.setFastSigmoid(fast);
+   }
+
+   /**
+    * Copies the weights of a Perceptron into the snapshot and starts scoring it on the validator
+    * thread. The score of the snapshot before must have been collected.
+    *
+    * @param trainee     the Perceptron being trained
+    * @param iteration   the number of iterations done
+    */
+   public void submit(Perceptron trainee, int iteration)
+   {
+      if (pending != null)
+         throw new IllegalStateException("The score of iteration " + pendingIteration + " was not collected");
+
+      scorer.copyWeights(trainee);
+      pendingIteration = iteration;
+      lastIteration = iteration;
+      pending = thread.submit(() ->
+      {
+         scorer.outputBatch(inputs, outputs, count, tile);
+         double sum = 0.0;
+         for (int test = 0; test < count; test++)
+            sum += Perceptron.calcError(t[test], outputs[test]);
+         return sum / count;
+      });
+   } // public void submit(Perceptron trainee, int iteration)
+
+   /**
+    * Waits for the score of the last snapshot, if any, and copies its weights into the best
+    * weights if it scored lower than every snapshot before.
+    *
+    * @return               true if a score was collected
+    * @throws IOException   thrown if interrupted while waiting
+    */
+   public boolean collect() throws IOException
+   {
+      if (pending == null)
+         return false;
+
+      try
+      {
+         lastError = pending.get();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting for the validation");
+      }
+      catch (ExecutionException e)                                           // scoring throws unchecked exceptions only
+      {
+         if (e.getCause() instanceof Error)
+            throw (Error) e.getCause();
+         throw (RuntimeException) e.getCause();
+      }
+      finally
+      {
+         pending = null;
+      }
+
+      validations++;
+      if (lastError < bestError)                                             // a NaN never improves
+      {
+         bestError = lastError;
+         bestIteration = pendingIteration;
+         best.copyWeights(scorer);
+         stale = 0;
+      }
+      else
+         stale++;
+      return true;
+   } // public boolean collect() throws IOException
+
+   /**
+    * Returns whether the last patience snapshots scored did not improve on the best, which means
+    * training should stop.
+    *
+    * @return   true if training should stop, always false with a patience of 0
+    */
+   public boolean exhausted()
+   {
+      return patience > 0 && stale >= patience;
+   }
+
+   /**
+    * Returns the iteration of the last snapshot submitted.
+    *
+    * @return   the iteration, 0 if none was submitted
+    */
+   public int lastIteration()
+   {
+      return lastIteration;
+   }
+
+   /**
+    * Copies the best weights back into a Perceptron, unless none has been scored.
+    *
+    * @param trainee   the Perceptron being trained
+    * @return          true if the weights were copied
+    */
+   public boolean restoreBest(Perceptron trainee)
+   {
+      if (bestIteration == 0)
+         return false;
+      trainee.copyWeights(best);
+      return true;
+   }
+
+   /**
+    * Returns the score collected last, the mean error value of the held out test sets.
+    *
+    * @return   the score, NaN if none was collected
+    */
+   public double lastError()
+   {
+      return lastError;
+   }
+
+   /**
+    * Returns the lowest score so far.
+    *
+    * @return   the score, infinite if none was collected
+    */
+   public double bestError()
+   {
+      return bestError;
+   }
+
+   /**
+    * Returns the iteration of the best weights.
+    *
+    * @return   the iteration, 0 if none was scored
+    */
+   public int bestIteration()
+   {
+      return bestIteration;
+   }
+
+   /**
+    * Returns the number of snapshots scored.
+    *
+    * @return   the number of snapshots
+    */
+   public int validations()
+   {
+      return validations;
+   }
+
+   /**
+    * Returns the number of held out test sets.
+    *
+    * @return   the number of test sets
+    */
+   public int count()
+   {
+      return count;
+   }
+
+   /**
+    * Stops the validator thread, dropping the snapshot being scored.
+    */
+   public void close()
+   {
+      thread.shutdownNow();
+   }
+} // public class Validator
@@ -0,0 +1,505 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the weights of a Perceptron, either in the original text format with one
+ * value on each line, or in a binary format that is loaded by memory mapping the file.
+ *
+ * The binary format is little endian and laid out as follows:
+ *    int       MAGIC, the bytes "NNWT"
+ *    int       VERSION
+ *    int       the number of bytes per weight, 8 for doubles or 4 for floats
+ *    int       the total number of layers, L
+ *    int[L]    the number of nodes in each layer, as in dimensions.txt
+ *    long      the CRC-32 checksum of all the weight bytes that follow
+ *    weights   for every layer of weights n, numNodes[n] * numNodes[n + 1] values in the order of
+ *              the Perceptron's w array, w[n][j * numNodes[n] + k], so loading is a straight copy
+ * The text format lists the weights with the index of the node after the weights changing fastest.
+ *
+ * isBinary     - checks whether a file starts with the magic number of the binary format
+ * load         - reads a weights file in either format, detected from its first bytes
+ * loadFloats   - reads a weights file in either format into floats
+ * save         - writes a weights file, in the binary format if the name ends with ".bin"
+ * read         - reads a binary weights file by memory mapping it
+ * readFloats   - reads a binary weights file by memory mapping it, into floats
+ * write        - writes a binary weights file
+ * toFloat      - converts weights to floats
+ * toDouble     - converts weights to doubles
+ * readText     - reads a text weights file
+ * writeText    - writes a text weights file
+ * main         - converts a weights file from one format to the other
+ */
+public class WeightFile
+{
+   public static final int MAGIC = 0x54574E4E;      // the bytes 'N', 'N', 'W', 'T' read as a little endian int
+   public static final int VERSION = 1;             // the version of the binary format written by this class
+   public static final String BINARY_SUFFIX = ".bin";
+
+   /**
+    * Checks whether the given file starts with the magic number of the binary format.
+    *
+    * @param file           the name of the weights file
+    * @return               true if the file is a binary weights file, false otherwise
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   public static boolean isBinary(String file) throws IOException
+   {
+      DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+      try
+      {
+         return Integer.reverseBytes(in.readInt()) == MAGIC;   // DataInputStream is big endian, the file is not
+      }
+      catch (EOFException e)
+      {
+         return false;                                         // shorter than a magic number, so not binary
+      }
+      finally
+      {
+         in.close();
+      }
+   } // public static boolean isBinary(String file) throws IOException
+
+   /**
+    * Reads the weights of a Perceptron with the given layers from a file in either format.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @return               the weights, laid out like the w array of the Perceptron
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   public static double[][] load(String file, int[] numNodes) throws IOException
+   {
+      if (isBinary(file))
+         return read(file, numNodes);
+      return readText(file, numNodes);
+   }
+
+   /**
+    * Reads a weights file in either format into floats, see load. A binary file of floats is copied
+    * straight into the arrays; anything else is read as doubles and rounded to the nearest float.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @return               the weights as floats, laid out like the w array of the Perceptron
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   public static float[][] loadFloats(String file, int[] numNodes) throws IOException
+   {
+      if (isBinary(file))
+         return readFloats(file, numNodes);
+      return toFloat(readText(file, numNodes));
+   }
+
+   /**
+    * Writes the weights of a Perceptron with the given layers into a file, as doubles in the
+    * binary format if the file name ends with ".bin" and in the text format otherwise.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @param w              the weights, laid out like the w array of the Perceptron
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   public static void save(String file, int[] numNodes, double[][] w) throws IOException
+   {
+      if (file.endsWith(BINARY_SUFFIX))
+         write(file, numNodes, w, Double.BYTES);
+      else
+         writeText(file, numNodes, w);
+   }
+
+   /**
+    * Writes weights kept as floats into a file, as floats in the binary format if the file name
+    * ends with ".bin" and in the text format otherwise.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @param w              the weights as floats, laid out like the w array of the Perceptron
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   public static void save(String file, int[] numNodes, float[][] w) throws IOException
+   {
+      if (file.endsWith(BINARY_SUFFIX))
+         write(file, numNodes, w);
+      else
+         writeText(file, numNodes, toDouble(w));
+   }
+
+   /**
+    * Reads a binary weights file. The header is checked against the given layers and the weights
+    * of every layer are copied straight out of a memory mapped view of the file, after which the
+    * checksum of the weight bytes is compared with the one in the header.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @return               the weights, laid out like the w array of the Perceptron
+    * @throws IOException   thrown if the file cannot be read, or does not match the layers or its checksum
+    */
+   public static double[][] read(String file, int[] numNodes) throws IOException
+   {
+      double[][] w = new double[numNodes.length - 1][];
+      readLayers(file, numNodes, w, null);
+      return w;
+   }
+
+   /**
+    * Reads a binary weights file into floats, see read. A file of doubles is rounded to the nearest floats.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @return               the weights as floats, laid out like the w array of the Perceptron
+    * @throws IOException   thrown if the file cannot be read, or does not match the layers or its checksum
+    */
+   public static float[][] readFloats(String file, int[] numNodes) throws IOException
+   {
+      float[][] w = new float[numNodes.length - 1][];
+      readLayers(file, numNodes, null, w);
+      return w;
+   }
+
+   /**
+    * Reads a binary weights file into whichever of the given arrays is not null, allocating each of its layers.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @param w              filled with the weights as doubles, or null
+    * @param w32            filled with the weights as floats, or null
+    * @throws IOException   thrown if the file cannot be read, or does not match the layers or its checksum
+    */
+   private static void readLayers(String file, int[] numNodes, double[][] w, float[][] w32) throws IOException
+   {
+      FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+
+      try
+      {
+         int headerSize = headerSize(numNodes.length);
+         if (channel.size() < headerSize)
+            throw new IOException(file + " is too short to be a weights file");
+
+         ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize).order(ByteOrder.LITTLE_ENDIAN);
+         if (header.getInt() != MAGIC)
+            throw new IOException(file + " is not a binary weights file");
+         int version = header.getInt();
+         if (version != VERSION)
+            throw new IOException(file + " has unsupported version " + version);
+         int bytes = header.getInt();                                        // the number of bytes per weight
+         if (bytes != Double.BYTES && bytes != Float.BYTES)
+            throw new IOException(file + " has unsupported weight size " + bytes);
+         int layers = header.getInt();
+         if (layers != numNodes.length)
+            throw new IOException(file + " has " + layers + " layers, expected " + numNodes.length);
+         for (int n = 0; n < layers; n++)                                    // the topology must match dimensions.txt
+         {
+            int nodes = header.getInt();
+            if (nodes != numNodes[n])
+               throw new IOException(file + " has " + nodes + " nodes in layer " + (n + 1) + ", expected " + numNodes[n]);
+         }
+         long checksum = header.getLong();
+
+         long position = headerSize;
+         CRC32 crc = new CRC32();
+
+         for (int n = 0; n < layers - 1; n++)                                // maps and copies one layer of weights at a time
+         {
+            int length = numNodes[n] * numNodes[n + 1];                      // the number of weights in this layer
+            long size = (long) length * bytes;
+            if (position + size > channel.size())
+               throw new IOException(file + " ends before the weights of layer " + (n + 1));
+
+            MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            block.order(ByteOrder.LITTLE_ENDIAN);
+            crc.update(block.duplicate());
+
+            if (w != null)
+            {
+               w[n] = new double[length];
+               if (bytes == Double.BYTES)
+                  block.asDoubleBuffer().get(w[n]);
+               else
+               {
+                  FloatBuffer floats = block.asFloatBuffer();
+                  for (int i = 0; i < length; i++)
+                     w[n][i] = floats.get(i);
+               }
+            } // if (w != null)
+            else
+            {
+               w32[n] = new float[length];
+               if (bytes == Float.BYTES)
+                  block.asFloatBuffer().get(w32[n]);
+               else
+               {
+                  DoubleBuffer doubles = block.asDoubleBuffer();
+                  for (int i = 0; i < length; i++)
+                     w32[n][i] = (float) doubles.get(i);
+               }
+            } // else
+            position += size;
+         } // for (int n = 0; n < layers - 1; n++)
+
+         if (crc.getValue() != checksum)
+            throw new IOException(file + " is corrupt, its checksum does not match");
+      } // try
+      finally
+      {
+         channel.close();
+      }
+   } // private static void readLayers(String file, int[] numNodes, double[][] w, float[][] w32) throws IOException
+
+   /**
+    * Writes a binary weights file, see the class comment for the layout.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @param w              the weights, laid out like the w array of the Perceptron
+    * @param bytes          the number of bytes per weight, Double.BYTES or Float.BYTES
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   public static void write(String file, int[] numNodes, double[][] w, int bytes) throws IOException
+   {
+      if (bytes != Double.BYTES && bytes != Float.BYTES)
+         throw new IllegalArgumentException("Weights are either 8 or 4 bytes, not " + bytes);
+      writeLayers(file, numNodes, w, null, bytes);
+   }
+
+   /**
+    * Writes weights kept as floats into a binary weights file of floats, see write.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @param w              the weights as floats, laid out like the w array of the Perceptron
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   public static void write(String file, int[] numNodes, float[][] w) throws IOException
+   {
+      writeLayers(file, numNodes, null, w, Float.BYTES);
+   }
+
+   /**
+    * Writes a binary weights file from whichever of the given arrays is not null.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @param w              the weights as doubles, or null
+    * @param w32            the weights as floats, or null
+    * @param bytes          the number of bytes per weight, Double.BYTES or Float.BYTES
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   private static void writeLayers(String file, int[] numNodes, double[][] w, float[][] w32, int bytes)
+      throws IOException
+   {
+      FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                                             StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+      try
+      {
+         int headerSize = headerSize(numNodes.length);
+         ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+         header.putInt(MAGIC).putInt(VERSION).putInt(bytes).putInt(numNodes.length);
+         for (int n = 0; n < numNodes.length; n++)
+            header.putInt(numNodes[n]);
+         header.putLong(0L);                                                 // the checksum is filled in once the weights are written
+         header.flip();
+         SampleFile.writeFully(channel, header, 0);
+
+         ByteBuffer block = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+         CRC32 crc = new CRC32();
+         long position = headerSize;
+
+         for (int n = 0; n < numNodes.length - 1; n++)                       // iterates over all layers of weights
+         {
+            for (int i = 0; i < numNodes[n] * numNodes[n + 1]; i++)
+            {
+               if (block.remaining() < bytes)                                // the block is full, writes it out
+                  position += flush(channel, block, position, crc);
+
+               double weight = (w != null) ? w[n][i] : w32[n][i];
+               if (bytes == Double.BYTES)
+                  block.putDouble(weight);
+               else
+                  block.putFloat((float) weight);
+            }
+         } // for (int n = 0; n < numNodes.length - 1; n++)
+         flush(channel, block, position, crc);
+
+         ByteBuffer checksum = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+         checksum.putLong(crc.getValue()).flip();
+         SampleFile.writeFully(channel, checksum, headerSize - Long.BYTES);
+      } // try
+      finally
+      {
+         channel.close();
+      }
+   } // private static void writeLayers(String file, int[] numNodes, double[][] w, float[][] w32, int bytes)
+
+   /**
+    * Reads a text weights file, with one value on each line. The file lists the weights with the
+    * index of the node after the weights changing fastest, so every value is stored at its
+    * transposed position j * numNodes[n] + k.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @return               the weights, laid out like the w array of the Perceptron
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read
+    */
+   public static double[][] readText(String file, int[] numNodes) throws IOException
+   {
+      BufferedReader readW = new BufferedReader
+                             (new FileReader(file));                 // creates a BufferedReader to read weights from the file
+
+      double[][] w = new double[numNodes.length - 1][];              // one layer of weights between every pair of activation layers
+
+      for (int n = 0; n < numNodes.length - 1; n++)                  // iterates over all layers of weights
+      {
+         w[n] = new double[numNodes[n] * numNodes[n + 1]];           // one contiguous block for every weight between layer n and n + 1
+
+         for (int k = 0; k < numNodes[n]; k++)                       // iterates over the number of nodes in the layer before this layer of weights
+         {
+            for (int j = 0; j < numNodes[n + 1]; j++)                // iterates over the number of nodes from the layer after this layer of weights
+               w[n][j * numNodes[n] + k] =                           // parses the next line in the file into a double and stores in w array
+                  Double.parseDouble(readW.readLine());
+         }
+      } // for (int n = 0; n < numNodes.length - 1; n++)
+
+      readW.close();
+      return w;
+   } // public static double[][] readText(String file, int[] numNodes) throws IOException
+
+   /**
+    * Writes a text weights file, with one value on each line in the order described in readText.
+    *
+    * @param file           the name of the weights file
+    * @param numNodes       the number of nodes in each layer of the Perceptron
+    * @param w              the weights, laid out like the w array of the Perceptron
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   public static void writeText(String file, int[] numNodes, double[][] w) throws IOException
+   {
+      BufferedWriter writeW = new BufferedWriter
+                              (new FileWriter(file), 1 << 16);       // creates a BufferedWriter to write weights into a file
+
+      for (int n = 0; n < w.length; n++)                             // following for loops iterate over the array w in file order
+      {
+         for (int k = 0; k < numNodes[n]; k++)
+         {
+            for (int j = 0; j < numNodes[n + 1]; j++)
+            {
+               writeW.write(Double.toString(w[n][j * numNodes[n] + k]));
+               writeW.write('\n');
+            }
+         }
+      } // for (int n = 0; n < w.length; n++)
+
+      writeW.close();
+   } // public static void writeText(String file, int[] numNodes, double[][] w) throws IOException
+
+   /**
+    * Returns a copy of the weights rounded to the nearest floats.
+    *
+    * @param w   the weights as doubles
+    * @return    the weights as floats, in the same layout
+    */
+   public static float[][] toFloat(double[][] w)
+   {
+      float[][] w32 = new float[w.length][];
+      for (int n = 0; n < w.length; n++)
+      {
+         w32[n] = new float[w[n].length];
+         for (int i = 0; i < w[n].length; i++)
+            w32[n][i] = (float) w[n][i];
+      }
+      return w32;
+   }
+
+   /**
+    * Returns a copy of weights kept as floats, as doubles of exactly the same values.
+    *
+    * @param w32   the weights as floats
+    * @return      the weights as doubles, in the same layout
+    */
+   public static double[][] toDouble(float[][] w32)
+   {
+      double[][] w = new double[w32.length][];
+      for (int n = 0; n < w32.length; n++)
+      {
+         w[n] = new double[w32[n].length];
+         for (int i = 0; i < w32[n].length; i++)
+            w[n][i] = w32[n][i];
+      }
+      return w;
+   }
+
+   /**
+    * Returns the number of bytes in the header of a binary weights file for the given number of layers.
+    *
+    * @param layers   the total number of layers
+    * @return         the size of the header in bytes
+    */
+   private static int headerSize(int layers)
+   {
+      return 4 * Integer.BYTES + layers * Integer.BYTES + Long.BYTES;
+   }
+
+   /**
+    * Writes out the filled part of block at the given position of the channel, adds it to the
+    * checksum and clears the block for more values. Checkpoint writes its values the same way.
+    *
+    * @param channel        the channel of the file being written
+    * @param block          the buffer holding the values
+    * @param position       the position in the file to write at
+    * @param crc            the checksum of the bytes written so far
+    * @return               the number of bytes written
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to write
+    */
+   static int flush(FileChannel channel, ByteBuffer block, long position, CRC32 crc) throws IOException
+   {
+      block.flip();
+      crc.update(block.duplicate());
+      int size = SampleFile.writeFully(channel, block, position);
+      block.clear();
+      return size;
+   }
+
+   /**
+    * Converts a weights file into the other format, using the layers given in dimensions.txt.
+    * Takes the name of the existing file and of the file to create; a binary file is converted
+    * into text, and a text file into binary, as floats if a third argument "float" is given.
+    *
+    * @param args           the input file, the output file and optionally "float"
+    * @throws IOException   thrown to indicate a failure in Input/Output operations while attempting to read or write
+    */
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length < 2)
+      {
+         System.out.println("Usage: java WeightFile <input weights> <output weights> [float]");
+         return;
+      }
+
+      int[] numNodes = Perceptron.readDimensions("dimensions.txt");          // the topology the weights belong to
+
+      if (isBinary(args[0]))
+         writeText(args[1], numNodes, read(args[0], numNodes));
+      else
+      {
+         int bytes = (args.length > 2 && args[2].equalsIgnoreCase("float")) ? Float.BYTES : Double.BYTES;
+         write(args[1], numNodes, readText(args[0], numNodes), bytes);
+      }
+      System.out.println("Converted " + args[0] + " into " + args[1]);
+   } // public static void main(String[] args) throws IOException
+} // public class WeightFile